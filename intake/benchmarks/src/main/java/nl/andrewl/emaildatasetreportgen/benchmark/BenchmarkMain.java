@@ -0,0 +1,24 @@
+package nl.andrewl.emaildatasetreportgen.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the intake benchmarks with the usual JMH command-line options, and
+ * always with the GC profiler, so that every result includes its allocation
+ * rate. For example, to run only the scan benchmark on 100k emails:
+ * <pre>
+ *     java -jar target/benchmarks.jar ScanBenchmark -p emailCount=100000
+ * </pre>
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		var options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,22 @@
+package nl.andrewl.emaildatasetreportgen.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the emails that a benchmark processes, so that benchmarks whose
+ * operation covers a whole dataset also report a rate in emails per second.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class EmailCounter {
+	public long emails;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		emails = 0;
+	}
+}
@@ -0,0 +1,47 @@
+package nl.andrewl.emaildatasetreportgen.benchmark;
+
+import nl.andrewl.emaildatasetreportgen.nlp.Lemmatizer;
+import nl.andrewl.emaildatasetreportgen.synthetic.SyntheticEmails;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the annotation of a single document by each lemmatizer engine,
+ * cycling through a fixed set of synthetic bodies.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LemmatizerBenchmark {
+	@Param({"corenlp", "memoized"})
+	public String lemmatizer;
+
+	@Param({"500"})
+	public int documentCount;
+
+	private Lemmatizer engine;
+	private String[] bodies;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		engine = Lemmatizer.create(lemmatizer);
+		List<SyntheticEmails.Generated> emails = new SyntheticEmails(42, documentCount).generate(documentCount);
+		bodies = emails.stream().map(e -> e.email().body()).toArray(String[]::new);
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	@Benchmark
+	public List<String> annotateDocument(Cursor cursor) {
+		String body = bodies[cursor.next++ % bodies.length];
+		return engine.lemmatize(body);
+	}
+}
@@ -0,0 +1,88 @@
+package nl.andrewl.emaildatasetreportgen.benchmark;
+
+import nl.andrewl.email_indexer.data.EmailDataset;
+import nl.andrewl.email_indexer.data.TagRepository;
+import nl.andrewl.emaildatasetreportgen.AnalysisUtils;
+import nl.andrewl.emaildatasetreportgen.DatasetEmailConsumer;
+import nl.andrewl.emaildatasetreportgen.Filters;
+import nl.andrewl.emaildatasetreportgen.synthetic.SyntheticDatasetWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures a full scan of a dataset with {@link AnalysisUtils#doForAllEmails},
+ * in each scan mode, either sequentially ({@code readers} 0) or with parallel
+ * readers and each delivery mode. The emails counter gives the scan throughput in emails
+ * per second. Unless an existing dataset is given, a synthetic dataset of
+ * {@code emailCount} emails is generated (and reused by later runs).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScanBenchmark {
+	/**
+	 * The dataset to scan, or blank to use a synthetic dataset.
+	 */
+	@Param({""})
+	public String datasetPath;
+
+	@Param({"10000"})
+	public int emailCount;
+
+	@Param({"BATCHED", "PER_EMAIL"})
+	public AnalysisUtils.ScanMode scanMode;
+
+	/**
+	 * The number of parallel reader threads, or 0 for a sequential scan, which
+	 * ignores the delivery mode.
+	 */
+	@Param({"0", "4"})
+	public int readers;
+
+	@Param({"ORDERED", "UNORDERED"})
+	public AnalysisUtils.Delivery delivery;
+
+	private EmailDataset ds;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		Path dsDir;
+		if (datasetPath.isBlank()) {
+			dsDir = Path.of(System.getProperty("java.io.tmpdir"), "scan-benchmark-dataset-" + emailCount);
+			if (!Files.exists(dsDir)) new SyntheticDatasetWriter(42).write(dsDir, emailCount);
+		} else {
+			dsDir = Path.of(datasetPath);
+		}
+		ds = EmailDataset.open(dsDir).join();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		ds.close().join();
+	}
+
+	@Benchmark
+	public void scanTaggedEmails(EmailCounter counter, Blackhole blackhole) {
+		LongAdder emails = new LongAdder();
+		DatasetEmailConsumer consumer = (email, tags) -> {
+			blackhole.consume(email);
+			blackhole.consume(tags);
+			emails.increment();
+		};
+		var filters = Filters.taggedEmails(new TagRepository(ds));
+		if (readers == 0) {
+			AnalysisUtils.doForAllEmails(ds, filters, consumer, scanMode);
+		} else {
+			AnalysisUtils.doForAllEmails(ds, filters, consumer, scanMode, readers, delivery);
+		}
+		counter.emails += emails.sum();
+	}
+}
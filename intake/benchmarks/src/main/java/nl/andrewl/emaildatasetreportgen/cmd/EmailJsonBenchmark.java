@@ -0,0 +1,60 @@
+package nl.andrewl.emaildatasetreportgen.cmd;
+
+import nl.andrewl.emaildatasetreportgen.JsonOutput;
+import nl.andrewl.emaildatasetreportgen.benchmark.EmailCounter;
+import nl.andrewl.emaildatasetreportgen.synthetic.SyntheticEmails;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of synthetic emails to emails.json, with each
+ * combination of pretty-printing and gzip compression. One operation writes
+ * the whole file; the emails counter gives the rate in emails per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmailJsonBenchmark {
+	@Param({"10000"})
+	public int emailCount;
+
+	@Param({"true", "false"})
+	public boolean pretty;
+
+	@Param({"false", "true"})
+	public boolean gzip;
+
+	private List<SyntheticEmails.Generated> emails;
+	private JsonOutput output;
+	private Path dir;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		emails = new SyntheticEmails(42, emailCount).generate(emailCount);
+		output = new JsonOutput(pretty, gzip);
+		dir = Files.createTempDirectory("email-json-benchmark");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(output.resolve(dir, "emails.json"));
+		Files.deleteIfExists(dir);
+	}
+
+	@Benchmark
+	public void writeEmailsJson(EmailCounter counter) throws Exception {
+		try (var exporter = new EmailJsonExporter(output, output.resolve(dir, "emails.json"))) {
+			for (var generated : emails) {
+				exporter.consumeEmail(generated.email(), generated.tags());
+				counter.emails++;
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package nl.andrewl.emaildatasetreportgen.cmd;
+
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the aggregation of a tag group's lemma counts into the filtered,
+ * sorted lemma data that's written to lemmas.json. This benchmark is in the
+ * same package as {@link LemmaExporter}, to reach its package-private method.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LemmaDataBenchmark {
+	/**
+	 * The number of distinct lemmas in the group.
+	 */
+	@Param({"10000", "100000", "1000000"})
+	public int lemmaCount;
+
+	private Map<String, Integer> lemmaCounts;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(42);
+		lemmaCounts = new HashMap<>();
+		for (int i = 0; i < lemmaCount; i++) {
+			// Zipf-like frequencies: most lemmas are rare, so most are filtered out.
+			int count = (int) Math.max(1, 1_000_000 / Math.pow(i + 1, 1.1) * (0.5 + random.nextDouble()));
+			lemmaCounts.put("lemma" + i, count);
+		}
+	}
+
+	@Benchmark
+	public JsonObject aggregateLemmaData() {
+		return LemmaExporter.getLemmaData(Set.of("existence", "technology", "process", "property"), lemmaCounts);
+	}
+}
@@ -4,28 +4,295 @@ import nl.andrewl.email_indexer.data.*;
 import nl.andrewl.email_indexer.data.search.EmailSearchResult;
 import nl.andrewl.email_indexer.data.search.EmailSearcher;
 import nl.andrewl.email_indexer.data.search.SearchFilter;
+import nl.andrewl.emaildatasetreportgen.metrics.Metrics;
+import nl.andrewl.emaildatasetreportgen.metrics.Stage;
 
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class AnalysisUtils {
+	public static final int PAGE_SIZE = 1000;
+
+	/**
+	 * The way in which emails of each page are loaded from the dataset.
+	 */
+	public enum ScanMode {
+		/**
+		 * Look up each email and its tags individually. This is two database
+		 * round trips per email.
+		 */
+		PER_EMAIL,
+		/**
+		 * Load all emails and tags of a page using a few set-based queries.
+		 */
+		BATCHED
+	}
+
+	/**
+	 * The way in which a parallel scan hands emails to its consumer.
+	 */
+	public enum Delivery {
+		/**
+		 * Hand emails to the consumer one at a time, on the calling thread, in
+		 * the same order as a sequential scan. The readers load the next pages
+		 * while the consumer is busy with the current one.
+		 */
+		ORDERED,
+		/**
+		 * Let each reader hand the emails of the pages it loads to the
+		 * consumer itself, as soon as they're loaded. The consumer is called
+		 * concurrently from all readers, in no particular order, so it must be
+		 * thread-safe. One reader's loads overlap the others' consumption.
+		 */
+		UNORDERED
+	}
+
 	public static void doForAllEmails(EmailDataset ds, Collection<SearchFilter> filters, DatasetEmailConsumer consumer) {
+		doForAllEmails(ds, filters, consumer, ScanMode.BATCHED);
+	}
+
+	/**
+	 * Hands every email matching the given filters to a consumer, page by
+	 * page. The scan is recorded as the "scan.read" metrics stage.
+	 * @param ds The dataset to scan.
+	 * @param filters The filters to apply.
+	 * @param consumer The consumer to give each email to.
+	 * @param mode The way in which emails are loaded.
+	 */
+	public static void doForAllEmails(EmailDataset ds, Collection<SearchFilter> filters, DatasetEmailConsumer consumer, ScanMode mode) {
+		try (Stage stage = Metrics.stage("scan.read")) {
+			doForAllEmails(ds, filters, consumer, mode, stage);
+		}
+	}
+
+	private static void doForAllEmails(EmailDataset ds, Collection<SearchFilter> filters, DatasetEmailConsumer consumer, ScanMode mode, Stage stage) {
 		var searcher = new EmailSearcher(ds);
 		var emailRepo = new EmailRepository(ds);
 		var tagRepo = new TagRepository(ds);
+		var batchLoader = mode == ScanMode.BATCHED ? new EmailBatchLoader(ds) : null;
+		long start = System.nanoTime();
+		long emailCount = 0;
 		int page = 1;
 		while (true) {
-			EmailSearchResult result = searcher.findAll(page++, 1000, filters).join();
-			for (var emailPreview : result.emails()) {
-				EmailEntry email = emailRepo.findEmailById(emailPreview.id()).orElseThrow();
-				List<Tag> tags = tagRepo.getTags(emailPreview.id());
+			EmailSearchResult result = searcher.findAll(page++, PAGE_SIZE, filters).join();
+			stage.setExpectedItems(result.totalResultCount());
+			if (batchLoader != null) {
+				List<Long> ids = result.emails().stream().map(EmailEntryPreview::id).toList();
 				try {
-					consumer.consumeEmail(email, tags);
-				} catch (Exception e) {
-					e.printStackTrace();
+					for (var loaded : batchLoader.load(ids).values()) {
+						consume(consumer, loaded.email(), loaded.tags());
+						emailCount++;
+						stage.addItem();
+					}
+				} catch (SQLException e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				for (var emailPreview : result.emails()) {
+					EmailEntry email = emailRepo.findEmailById(emailPreview.id()).orElseThrow();
+					List<Tag> tags = tagRepo.getTags(emailPreview.id());
+					consume(consumer, email, tags);
+					emailCount++;
+					stage.addItem();
 				}
 			}
 			if (!result.hasNextPage()) break;
 		}
+		double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+		System.out.printf(
+				"Scanned %d emails in %.1f seconds (%.0f emails/sec, %s mode).%n",
+				emailCount, seconds, seconds > 0 ? emailCount / seconds : 0, mode
+		);
+	}
+
+	/**
+	 * Hands every email matching the given filters to a consumer, with the
+	 * pages of the scan split over several reader threads, which take the
+	 * next unread page as soon as they're done with one. The scan is
+	 * recorded as the "scan.read" metrics stage.
+	 * @param ds The dataset to scan.
+	 * @param filters The filters to apply.
+	 * @param consumer The consumer to give each email to.
+	 * @param mode The way in which emails are loaded.
+	 * @param readers The number of reader threads.
+	 * @param delivery Whether emails are handed to the consumer in order, or
+	 *                 concurrently.
+	 */
+	public static void doForAllEmails(EmailDataset ds, Collection<SearchFilter> filters, DatasetEmailConsumer consumer, ScanMode mode, int readers, Delivery delivery) {
+		if (readers < 1) throw new IllegalArgumentException("Reader count must be at least 1.");
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(readers, r -> {
+			Thread t = new Thread(r, "scan-reader-" + threadCount.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+		// Each reader thread gets its own searcher and loader.
+		ThreadLocal<PageReader> pageReader = ThreadLocal.withInitial(() -> new PageReader(ds, filters, mode));
+		try (Stage stage = Metrics.stage("scan.read")) {
+			long start = System.nanoTime();
+			Page first = CompletableFuture.supplyAsync(() -> pageReader.get().read(1), executor).join();
+			stage.setExpectedItems(first.totalCount());
+			long emailCount;
+			if (delivery == Delivery.ORDERED) {
+				emailCount = consumeOrdered(first, consumer, readers, executor, pageReader, stage);
+			} else {
+				emailCount = consumeUnordered(first, consumer, readers, executor, pageReader, stage);
+			}
+			double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+			System.out.printf(
+					"Scanned %d emails in %.1f seconds (%.0f emails/sec, %s mode, %d readers, %s).%n",
+					emailCount, seconds, seconds > 0 ? emailCount / seconds : 0, mode, readers, delivery.name().toLowerCase()
+			);
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException re) throw re;
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static long consumeOrdered(
+			Page first,
+			DatasetEmailConsumer consumer,
+			int readers,
+			ExecutorService executor,
+			ThreadLocal<PageReader> pageReader,
+			Stage stage
+	) {
+		// Keep one more page in flight than there are readers, so a loaded page is ready when the consumer needs it.
+		Deque<CompletableFuture<Page>> window = new ArrayDeque<>(readers + 1);
+		int nextPage = 2;
+		while (nextPage <= first.pageCount() && window.size() < readers + 1) {
+			int page = nextPage++;
+			window.add(CompletableFuture.supplyAsync(() -> pageReader.get().read(page), executor));
+		}
+		long emailCount = consumePage(first, consumer, stage);
+		while (!window.isEmpty()) {
+			Page page = window.poll().join();
+			if (nextPage <= first.pageCount()) {
+				int next = nextPage++;
+				window.add(CompletableFuture.supplyAsync(() -> pageReader.get().read(next), executor));
+			}
+			emailCount += consumePage(page, consumer, stage);
+		}
+		return emailCount;
+	}
+
+	private static long consumeUnordered(
+			Page first,
+			DatasetEmailConsumer consumer,
+			int readers,
+			ExecutorService executor,
+			ThreadLocal<PageReader> pageReader,
+			Stage stage
+	) {
+		AtomicInteger nextPage = new AtomicInteger(2);
+		AtomicLong emailCount = new AtomicLong();
+		List<CompletableFuture<Void>> futures = new ArrayList<>(readers);
+		futures.add(CompletableFuture.runAsync(() -> emailCount.addAndGet(consumePage(first, consumer, stage)), executor));
+		for (int i = 0; i < readers; i++) {
+			futures.add(CompletableFuture.runAsync(() -> {
+				int page;
+				while ((page = nextPage.getAndIncrement()) <= first.pageCount()) {
+					try {
+						emailCount.addAndGet(consumePage(pageReader.get().read(page), consumer, stage));
+					} catch (RuntimeException e) {
+						// Stop the other readers from taking more pages.
+						nextPage.set(Integer.MAX_VALUE / 2);
+						throw e;
+					}
+				}
+			}, executor));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+		return emailCount.get();
+	}
+
+	private static long consumePage(Page page, DatasetEmailConsumer consumer, Stage stage) {
+		for (var loaded : page.emails()) {
+			consume(consumer, loaded.email(), loaded.tags());
+			stage.addItem();
+		}
+		return page.emails().size();
+	}
+
+	/**
+	 * A page of loaded emails.
+	 * @param emails The emails of the page.
+	 * @param totalCount The number of emails in all pages.
+	 * @param pageCount The number of pages.
+	 */
+	private record Page(List<EmailBatchLoader.LoadedEmail> emails, long totalCount, int pageCount) {}
+
+	/**
+	 * Reads pages of emails for a single reader thread.
+	 */
+	private static class PageReader {
+		private final Collection<SearchFilter> filters;
+		private final EmailSearcher searcher;
+		private final EmailRepository emailRepo;
+		private final TagRepository tagRepo;
+		private final EmailBatchLoader batchLoader;
+
+		PageReader(EmailDataset ds, Collection<SearchFilter> filters, ScanMode mode) {
+			this.filters = filters;
+			this.searcher = new EmailSearcher(ds);
+			this.emailRepo = new EmailRepository(ds);
+			this.tagRepo = new TagRepository(ds);
+			this.batchLoader = mode == ScanMode.BATCHED ? new EmailBatchLoader(ds) : null;
+		}
+
+		Page read(int page) {
+			EmailSearchResult result = searcher.findAll(page, PAGE_SIZE, filters).join();
+			List<Long> ids = result.emails().stream().map(EmailEntryPreview::id).toList();
+			List<EmailBatchLoader.LoadedEmail> emails;
+			if (batchLoader != null) {
+				try {
+					emails = new ArrayList<>(batchLoader.load(ids).values());
+				} catch (SQLException e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				emails = new ArrayList<>(ids.size());
+				for (long id : ids) {
+					emails.add(new EmailBatchLoader.LoadedEmail(emailRepo.findEmailById(id).orElseThrow(), tagRepo.getTags(id)));
+				}
+			}
+			return new Page(emails, result.totalResultCount(), result.pageCount());
+		}
+	}
+
+	/**
+	 * Thrown by a consumer to stop a scan. Unlike other exceptions of a
+	 * consumer, which are logged and skipped, it's rethrown by
+	 * {@code doForAllEmails}.
+	 */
+	public static class ScanAbortedException extends RuntimeException {
+		public ScanAbortedException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	private static void consume(DatasetEmailConsumer consumer, EmailEntry email, List<Tag> tags) {
+		try {
+			consumer.consumeEmail(email, tags);
+		} catch (ScanAbortedException e) {
+			throw e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ScanAbortedException("Interrupted while consuming email " + email.id() + ".", e);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 	}
 }
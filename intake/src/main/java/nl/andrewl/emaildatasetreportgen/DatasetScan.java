@@ -0,0 +1,159 @@
+package nl.andrewl.emaildatasetreportgen;
+
+import nl.andrewl.email_indexer.data.EmailDataset;
+import nl.andrewl.email_indexer.data.EmailEntry;
+import nl.andrewl.email_indexer.data.Tag;
+import nl.andrewl.email_indexer.data.search.SearchFilter;
+import nl.andrewl.emaildatasetreportgen.metrics.Metrics;
+import nl.andrewl.emaildatasetreportgen.metrics.Stage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A single pass over a dataset, which fans each email out to any number of
+ * registered consumers. Each consumer runs on its own thread and has its own
+ * bounded queue, so a slow consumer only holds up the scan once its queue is
+ * full, and adding a consumer doesn't add another pass over the database.
+ * Each consumer is recorded as a "scan.[name]" metrics stage, so a consumer
+ * that holds up the scan can be spotted by its lagging item count.
+ * <p>
+ *     An exception of a consumer only skips that email, but if a consumer's
+ *     thread dies of an error, like running out of memory, the scan is
+ *     stopped and the error is rethrown, instead of waiting forever for the
+ *     consumer's queue to have room.
+ * </p>
+ * <p>
+ *     Pages of emails are read by several reader threads, ahead of the
+ *     consumers, but emails are still handed to the consumers in the same
+ *     order as a sequential scan.
+ * </p>
+ */
+public class DatasetScan {
+	public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+	private final List<Lane> lanes = new ArrayList<>();
+	private final int readers;
+
+	/**
+	 * Creates a new scan.
+	 * @param readers The number of threads that read pages of emails.
+	 */
+	public DatasetScan(int readers) {
+		this.readers = readers;
+	}
+
+	public DatasetScan() {
+		this(1);
+	}
+
+	public DatasetScan addConsumer(String name, DatasetEmailConsumer consumer) {
+		return addConsumer(name, consumer, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public DatasetScan addConsumer(String name, DatasetEmailConsumer consumer, int queueCapacity) {
+		lanes.add(new Lane(name, consumer, new ArrayBlockingQueue<>(queueCapacity), new AtomicReference<>()));
+		return this;
+	}
+
+	/**
+	 * Reads all emails matching the given filters once, handing each one to
+	 * every registered consumer. Blocks until all consumers have processed
+	 * every email.
+	 * @param ds The dataset to scan.
+	 * @param filters The filters to apply.
+	 * @throws InterruptedException If interrupted while waiting for consumers.
+	 * @throws AnalysisUtils.ScanAbortedException If the scan was interrupted,
+	 * or a consumer's thread died of an exception.
+	 * @throws Error If a consumer's thread died of an error.
+	 */
+	public void run(EmailDataset ds, Collection<SearchFilter> filters) throws InterruptedException {
+		List<Thread> threads = new ArrayList<>(lanes.size());
+		for (var lane : lanes) {
+			Thread t = new Thread(lane::drain, "scan-" + lane.name);
+			threads.add(t);
+			t.start();
+		}
+		try {
+			AnalysisUtils.doForAllEmails(ds, filters, (email, tags) -> {
+				Item item = new Item(email, tags);
+				for (var lane : lanes) lane.put(item);
+			}, AnalysisUtils.ScanMode.BATCHED, readers, AnalysisUtils.Delivery.ORDERED);
+		} catch (AnalysisUtils.ScanAbortedException e) {
+			// If a lane's thread died, its own failure is rethrown below.
+			if (lanes.stream().allMatch(lane -> lane.failure.get() == null)) throw e;
+		} finally {
+			for (var lane : lanes) lane.end();
+			for (var thread : threads) thread.join();
+		}
+		for (var lane : lanes) {
+			Throwable failure = lane.failure.get();
+			if (failure instanceof Error error) throw error;
+			if (failure != null) throw new AnalysisUtils.ScanAbortedException("Consumer " + lane.name + " failed.", failure);
+		}
+	}
+
+	private record Item(EmailEntry email, Collection<Tag> tags) {
+		static final Item END = new Item(null, null);
+	}
+
+	private record Lane(String name, DatasetEmailConsumer consumer, BlockingQueue<Item> queue, AtomicReference<Throwable> failure) {
+		private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+		/**
+		 * Adds an email to the queue, waiting while it's full.
+		 * @throws AnalysisUtils.ScanAbortedException If the lane's thread died.
+		 */
+		void put(Item item) throws InterruptedException {
+			do {
+				if (failure.get() != null) {
+					throw new AnalysisUtils.ScanAbortedException("Consumer " + name + " failed.", failure.get());
+				}
+			} while (!queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		}
+
+		/**
+		 * Tells the lane's thread that there are no more emails, unless it
+		 * already died.
+		 */
+		void end() throws InterruptedException {
+			while (failure.get() == null && !queue.offer(Item.END, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				// Wait for room, or for the lane's thread to die.
+			}
+		}
+
+		void drain() {
+			try (Stage stage = Metrics.stage("scan." + name)) {
+				drain(stage);
+			} catch (Throwable t) {
+				System.err.println("Consumer " + name + " stopped: " + t);
+				failure.set(t);
+			}
+		}
+
+		private void drain(Stage stage) {
+			while (true) {
+				Item item;
+				try {
+					item = queue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				if (item == Item.END) return;
+				try {
+					consumer.consumeEmail(item.email(), item.tags());
+					stage.addItem();
+				} catch (Exception e) {
+					System.err.println("Consumer " + name + " failed on email " + item.email().id() + ".");
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package nl.andrewl.emaildatasetreportgen;
+
+import nl.andrewl.email_indexer.data.EmailDataset;
+import nl.andrewl.email_indexer.data.EmailEntry;
+import nl.andrewl.email_indexer.data.Tag;
+import nl.andrewl.email_indexer.data.TagRepository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.*;
+
+/**
+ * Loads full email entries and their tags for a whole page of email ids at
+ * once, using one set-based query for the emails and one for the tags, instead
+ * of two lookups per email.
+ */
+public class EmailBatchLoader {
+	private final Connection conn;
+	private final Map<Integer, Tag> tagsById = new HashMap<>();
+	private final Map<Integer, Integer> tagOrder = new HashMap<>();
+
+	public EmailBatchLoader(EmailDataset ds) {
+		this.conn = ds.getConnection();
+		// Keep the tag repository's ordering, so tags come out the same as with TagRepository.getTags.
+		List<Tag> allTags = new TagRepository(ds).findAll();
+		for (int i = 0; i < allTags.size(); i++) {
+			Tag tag = allTags.get(i);
+			tagsById.put(tag.id(), tag);
+			tagOrder.put(tag.id(), i);
+		}
+	}
+
+	/**
+	 * Loads the emails with the given ids, and their tags.
+	 * @param ids The ids of the emails to load.
+	 * @return A map of email ids to loaded emails, in the same order as the given ids.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public Map<Long, LoadedEmail> load(List<Long> ids) throws SQLException {
+		return load(ids, false);
+	}
+
+	/**
+	 * Loads the emails with the given ids that still exist, and their tags.
+	 * Unlike {@link #load(List)}, ids without an email, such as those of
+	 * emails that were deleted, are skipped.
+	 * @param ids The ids of the emails to load.
+	 * @return A map of email ids to loaded emails, in the same order as the
+	 * given ids, without the missing emails.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public Map<Long, LoadedEmail> loadExisting(List<Long> ids) throws SQLException {
+		return load(ids, true);
+	}
+
+	private Map<Long, LoadedEmail> load(List<Long> ids, boolean skipMissing) throws SQLException {
+		Map<Long, LoadedEmail> results = new LinkedHashMap<>(ids.size());
+		if (ids.isEmpty()) return results;
+		Map<Long, EmailEntry> emails = loadEmails(ids);
+		Map<Long, List<Tag>> tags = loadTags(ids);
+		for (long id : ids) {
+			EmailEntry email = emails.get(id);
+			if (email == null) {
+				if (skipMissing) continue;
+				throw new SQLException("Missing email with id " + id);
+			}
+			results.put(id, new LoadedEmail(email, tags.getOrDefault(id, Collections.emptyList())));
+		}
+		return results;
+	}
+
+	private Map<Long, EmailEntry> loadEmails(List<Long> ids) throws SQLException {
+		Map<Long, EmailEntry> emails = new HashMap<>(ids.size());
+		String sql = "SELECT * FROM EMAIL WHERE ID IN (" + placeholders(ids.size()) + ")";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			bindIds(stmt, ids);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					EmailEntry email = new EmailEntry(
+							rs.getLong("ID"),
+							rs.getObject("PARENT_ID", Long.class),
+							rs.getString("MESSAGE_ID"),
+							rs.getString("SUBJECT"),
+							rs.getString("IN_REPLY_TO"),
+							rs.getString("SENT_FROM"),
+							rs.getObject("DATE", OffsetDateTime.class).toZonedDateTime(),
+							rs.getString("BODY"),
+							rs.getBoolean("HIDDEN")
+					);
+					emails.put(email.id(), email);
+				}
+			}
+		}
+		return emails;
+	}
+
+	private Map<Long, List<Tag>> loadTags(List<Long> ids) throws SQLException {
+		Map<Long, List<Tag>> tags = new HashMap<>(ids.size());
+		String sql = "SELECT EMAIL_ID, TAG_ID FROM EMAIL_TAG WHERE EMAIL_ID IN (" + placeholders(ids.size()) + ")";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			bindIds(stmt, ids);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					Tag tag = tagsById.get(rs.getInt("TAG_ID"));
+					if (tag == null) continue;
+					tags.computeIfAbsent(rs.getLong("EMAIL_ID"), id -> new ArrayList<>()).add(tag);
+				}
+			}
+		}
+		Comparator<Tag> order = Comparator.comparingInt(t -> tagOrder.get(t.id()));
+		for (var emailTags : tags.values()) emailTags.sort(order);
+		return tags;
+	}
+
+	private static String placeholders(int count) {
+		return String.join(",", Collections.nCopies(count, "?"));
+	}
+
+	private static void bindIds(PreparedStatement stmt, List<Long> ids) throws SQLException {
+		for (int i = 0; i < ids.size(); i++) {
+			stmt.setLong(i + 1, ids.get(i));
+		}
+	}
+
+	public record LoadedEmail(EmailEntry email, List<Tag> tags) {}
+}
@@ -0,0 +1,114 @@
+package nl.andrewl.emaildatasetreportgen;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Settings for how JSON files are written, and helpers for writing them in a
+ * streaming fashion, so that large exports never need to be held in memory.
+ * @param pretty Whether to pretty-print the JSON output.
+ * @param gzip Whether to gzip-compress the JSON output. If so, files get an
+ *             additional ".gz" extension.
+ */
+public record JsonOutput(boolean pretty, boolean gzip) {
+	public static final JsonOutput DEFAULT = new JsonOutput(true, false);
+
+	private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+
+	/**
+	 * Parses output settings from command-line flags. Supported flags are
+	 * "--compact" and "--gzip".
+	 * @param args The arguments to parse.
+	 * @return The output settings.
+	 */
+	public static JsonOutput fromArgs(String[] args) {
+		boolean pretty = true;
+		boolean gzip = false;
+		for (var arg : args) {
+			if (arg.equals("--compact")) pretty = false;
+			if (arg.equals("--gzip")) gzip = true;
+		}
+		return new JsonOutput(pretty, gzip);
+	}
+
+	/**
+	 * Gets the path to the file with the given name in a directory, with the
+	 * extension adjusted according to these settings.
+	 * @param dir The directory.
+	 * @param filename The base filename, like "emails.json".
+	 * @return The file path.
+	 */
+	public Path resolve(Path dir, String filename) {
+		return dir.resolve(gzip ? filename + ".gz" : filename);
+	}
+
+	/**
+	 * Opens a streaming JSON writer to the given file. The caller is
+	 * responsible for closing it.
+	 * @param file The file to write to.
+	 * @return The JSON writer.
+	 * @throws IOException If the file couldn't be opened.
+	 */
+	public JsonWriter open(Path file) throws IOException {
+		OutputStream out = Files.newOutputStream(file);
+		if (gzip) out = new GZIPOutputStream(out, 1 << 16);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+		JsonWriter jsonWriter = new JsonWriter(writer);
+		jsonWriter.setSerializeNulls(true);
+		jsonWriter.setHtmlSafe(true);
+		if (pretty) jsonWriter.setIndent("  ");
+		return jsonWriter;
+	}
+
+	/**
+	 * Opens a streaming JSON reader for a file that was written with any
+	 * output settings, so either the plain or the gzip-compressed variant.
+	 * @param dir The directory containing the file.
+	 * @param filename The base filename, like "emails.json".
+	 * @return The JSON reader.
+	 * @throws IOException If neither variant of the file could be opened.
+	 */
+	public static JsonReader openReader(Path dir, String filename) throws IOException {
+		Path file = dir.resolve(filename);
+		InputStream in;
+		if (Files.exists(file)) {
+			in = Files.newInputStream(file);
+		} else {
+			Path gzipFile = dir.resolve(filename + ".gz");
+			if (!Files.exists(gzipFile)) throw new FileNotFoundException("Missing " + file + " or " + gzipFile);
+			in = new GZIPInputStream(Files.newInputStream(gzipFile), 1 << 16);
+		}
+		return new JsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16));
+	}
+
+	/**
+	 * Writes a single JSON element to an already-open writer.
+	 * @param element The element to write.
+	 * @param writer The writer to write to.
+	 */
+	public void write(JsonElement element, JsonWriter writer) {
+		GSON.toJson(element, writer);
+	}
+
+	/**
+	 * Writes a complete JSON element to a file.
+	 * @param element The element to write.
+	 * @param file The file to write to.
+	 * @throws IOException If an error occurs.
+	 */
+	public void write(JsonElement element, Path file) throws IOException {
+		try (var writer = open(file)) {
+			write(element, writer);
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package nl.andrewl.emaildatasetreportgen;
 
 import nl.andrewl.email_indexer.data.EmailDataset;
+import nl.andrewl.emaildatasetreportgen.cmd.IncrementalJsonDataGenerator;
 import nl.andrewl.emaildatasetreportgen.cmd.JsonDataGenerator;
+import nl.andrewl.emaildatasetreportgen.metrics.Metrics;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -14,7 +16,6 @@ import java.util.Properties;
 public class ReportGen {
 	public static void main(String[] args) throws Exception {
 		Path datasetPath = Path.of(args[0]);
-		EmailDataset ds = EmailDataset.open(datasetPath).join();
 		LocalDateTime now = LocalDateTime.now();
 		String reportDirName = String.format(
 				"report_%04d-%02d-%02d_%02d-%02d-%02d",
@@ -22,8 +23,23 @@ public class ReportGen {
 		);
 		Path outputDir = Path.of(".", reportDirName);
 		Files.createDirectory(outputDir);
-		new JsonDataGenerator().generate(outputDir, ds);
-		ds.close().join();
+		Metrics.begin(outputDir.resolve(Metrics.FILENAME));
+		try (var reportStage = Metrics.stage("report")) {
+			EmailDataset ds;
+			try (var stage = Metrics.stage("open_dataset")) {
+				ds = EmailDataset.open(datasetPath).join();
+			}
+			ReportOptions options = ReportOptions.fromArgs(args);
+			ReportGenerator generator = options.previousReport() == null
+					? new JsonDataGenerator(options)
+					: new IncrementalJsonDataGenerator(options, options.previousReport());
+			generator.generate(outputDir, ds);
+			try (var stage = Metrics.stage("close_dataset")) {
+				ds.close().join();
+			}
+		} finally {
+			Metrics.end();
+		}
 		System.out.println("All reports completed.");
 	}
 
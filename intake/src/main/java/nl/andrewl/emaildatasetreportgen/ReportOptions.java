@@ -0,0 +1,142 @@
+package nl.andrewl.emaildatasetreportgen;
+
+import nl.andrewl.emaildatasetreportgen.nlp.CoreNlpLemmatizer;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Settings that control how a report is generated.
+ * @param output The settings for JSON output files.
+ * @param nlpWorkers The number of threads to use for NLP annotation.
+ * @param lemmatizer The name of the lemmatizer engine to use.
+ * @param lemmaCacheDir The directory of the persistent lemma cache, or null
+ *                      if no cache should be used.
+ * @param lemmaCacheMaxBytes The maximum size of the lemma cache.
+ * @param previousReport The directory of a previous report to incrementally
+ *                       update, or null to generate a report from scratch.
+ * @param searchWorkers The number of Lucene searches to run concurrently.
+ * @param characteristicSummaries Whether to export the distribution of each
+ *                                email and thread characteristic, instead of
+ *                                every value.
+ * @param scanReaders The number of threads that read pages of emails from
+ *                    the dataset during a scan.
+ * @param threadCutoffs The numbers of top threads to export for each search
+ *                      query, in ascending order.
+ * @param emailCutoffs The numbers of top emails to export for each search
+ *                     query, in ascending order.
+ */
+public record ReportOptions(
+		JsonOutput output,
+		int nlpWorkers,
+		String lemmatizer,
+		Path lemmaCacheDir,
+		long lemmaCacheMaxBytes,
+		Path previousReport,
+		int searchWorkers,
+		boolean characteristicSummaries,
+		int scanReaders,
+		List<Integer> threadCutoffs,
+		List<Integer> emailCutoffs
+) {
+	public static final long DEFAULT_LEMMA_CACHE_MAX_MB = 2048;
+	public static final List<Integer> DEFAULT_THREAD_CUTOFFS = List.of(75);
+	public static final List<Integer> DEFAULT_EMAIL_CUTOFFS = List.of(1800);
+
+	public static final ReportOptions DEFAULT = new ReportOptions(
+			JsonOutput.DEFAULT,
+			Runtime.getRuntime().availableProcessors(),
+			CoreNlpLemmatizer.NAME,
+			null,
+			DEFAULT_LEMMA_CACHE_MAX_MB * 1024 * 1024,
+			null,
+			Runtime.getRuntime().availableProcessors(),
+			false,
+			Runtime.getRuntime().availableProcessors(),
+			DEFAULT_THREAD_CUTOFFS,
+			DEFAULT_EMAIL_CUTOFFS
+	);
+
+	/**
+	 * Parses report options from the program's arguments, where the first
+	 * argument is the dataset path. Besides the flags that
+	 * {@link JsonOutput#fromArgs(String[])} supports, the following flags are
+	 * available:
+	 * <ul>
+	 *     <li>"--nlp-workers=N" sets the number of NLP annotation threads.</li>
+	 *     <li>"--lemmatizer=NAME" selects the lemmatizer engine, either
+	 *     "corenlp" (the default) or "memoized".</li>
+	 *     <li>"--lemma-cache=DIR" sets the lemma cache directory. By default,
+	 *     it's a "_lemma_cache" directory next to the dataset.</li>
+	 *     <li>"--lemma-cache-max-mb=N" sets the maximum lemma cache size.</li>
+	 *     <li>"--no-lemma-cache" disables the lemma cache.</li>
+	 *     <li>"--incremental=DIR" updates the previous report in DIR,
+	 *     instead of generating everything from scratch.</li>
+	 *     <li>"--search-workers=N" sets the number of concurrent searches.</li>
+	 *     <li>"--characteristic-summaries" exports distribution summaries of
+	 *     the email and thread characteristics, instead of every value.</li>
+	 *     <li>"--scan-readers=N" sets the number of threads that read emails
+	 *     from the dataset during a scan.</li>
+	 *     <li>"--thread-cutoffs=K,..." sets the numbers of top threads to
+	 *     export for each search query.</li>
+	 *     <li>"--email-cutoffs=K,..." sets the numbers of top emails to export
+	 *     for each search query.</li>
+	 * </ul>
+	 * @param args The arguments to parse.
+	 * @return The report options.
+	 */
+	public static ReportOptions fromArgs(String[] args) {
+		int nlpWorkers = DEFAULT.nlpWorkers();
+		String lemmatizer = DEFAULT.lemmatizer();
+		Path datasetPath = Path.of(args[0]).toAbsolutePath().normalize();
+		Path lemmaCacheDir = datasetPath.resolveSibling(datasetPath.getFileName() + "_lemma_cache");
+		long lemmaCacheMaxBytes = DEFAULT.lemmaCacheMaxBytes();
+		Path previousReport = null;
+		int searchWorkers = DEFAULT.searchWorkers();
+		boolean characteristicSummaries = DEFAULT.characteristicSummaries();
+		int scanReaders = DEFAULT.scanReaders();
+		List<Integer> threadCutoffs = DEFAULT.threadCutoffs();
+		List<Integer> emailCutoffs = DEFAULT.emailCutoffs();
+		for (var arg : args) {
+			if (arg.startsWith("--nlp-workers=")) {
+				nlpWorkers = Integer.parseInt(arg.substring("--nlp-workers=".length()));
+				if (nlpWorkers < 1) throw new IllegalArgumentException("NLP worker count must be at least 1.");
+			} else if (arg.startsWith("--lemmatizer=")) {
+				lemmatizer = arg.substring("--lemmatizer=".length());
+			} else if (arg.startsWith("--lemma-cache=")) {
+				lemmaCacheDir = Path.of(arg.substring("--lemma-cache=".length()));
+			} else if (arg.startsWith("--lemma-cache-max-mb=")) {
+				lemmaCacheMaxBytes = Long.parseLong(arg.substring("--lemma-cache-max-mb=".length())) * 1024 * 1024;
+			} else if (arg.startsWith("--incremental=")) {
+				previousReport = Path.of(arg.substring("--incremental=".length()));
+			} else if (arg.startsWith("--search-workers=")) {
+				searchWorkers = Integer.parseInt(arg.substring("--search-workers=".length()));
+				if (searchWorkers < 1) throw new IllegalArgumentException("Search worker count must be at least 1.");
+			} else if (arg.startsWith("--scan-readers=")) {
+				scanReaders = Integer.parseInt(arg.substring("--scan-readers=".length()));
+				if (scanReaders < 1) throw new IllegalArgumentException("Scan reader count must be at least 1.");
+			} else if (arg.startsWith("--thread-cutoffs=")) {
+				threadCutoffs = parseCutoffs(arg.substring("--thread-cutoffs=".length()));
+			} else if (arg.startsWith("--email-cutoffs=")) {
+				emailCutoffs = parseCutoffs(arg.substring("--email-cutoffs=".length()));
+			}
+		}
+		for (var arg : args) {
+			if (arg.equals("--no-lemma-cache")) lemmaCacheDir = null;
+			if (arg.equals("--characteristic-summaries")) characteristicSummaries = true;
+		}
+		return new ReportOptions(JsonOutput.fromArgs(args), nlpWorkers, lemmatizer, lemmaCacheDir, lemmaCacheMaxBytes, previousReport, searchWorkers, characteristicSummaries, scanReaders, threadCutoffs, emailCutoffs);
+	}
+
+	private static List<Integer> parseCutoffs(String value) {
+		List<Integer> cutoffs = Arrays.stream(value.split(","))
+				.map(String::trim)
+				.map(Integer::parseInt)
+				.sorted()
+				.distinct()
+				.toList();
+		if (cutoffs.isEmpty() || cutoffs.get(0) < 1) throw new IllegalArgumentException("Search cut-offs must be at least 1.");
+		return cutoffs;
+	}
+}
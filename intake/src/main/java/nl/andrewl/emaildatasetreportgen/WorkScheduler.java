@@ -0,0 +1,201 @@
+package nl.andrewl.emaildatasetreportgen;
+
+import nl.andrewl.emaildatasetreportgen.metrics.Metrics;
+import nl.andrewl.emaildatasetreportgen.metrics.Stage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A fixed pool of worker threads that take items from a bounded queue.
+ * Submitting an item blocks while the queue is full, which applies
+ * back-pressure to whatever is producing the items. Each item is handed to the
+ * handler together with the index of the worker processing it, so handlers can
+ * keep per-worker state that needs no synchronization.
+ * <p>
+ *     The scheduler's progress is recorded as a metrics {@link Stage}, which
+ *     counts the processed items, and has the queue depth and the mean worker
+ *     utilization as gauges.
+ * </p>
+ * <p>
+ *     An exception of the handler only skips that item, but if a worker dies
+ *     of an error, like a stack overflow, the error is rethrown by the next
+ *     call to {@link #submit(Object)} or {@link #finish()}, instead of the
+ *     producer waiting forever for the queue to have room.
+ * </p>
+ * <p>
+ *     The workers are daemon threads, so a producer that fails before calling
+ *     {@link #finish()} doesn't keep the JVM alive. It should still call
+ *     {@link #shutdown()} to stop the workers and close the stage.
+ * </p>
+ * @param <T> The type of item to process.
+ */
+public class WorkScheduler<T> {
+	@FunctionalInterface
+	public interface WorkHandler<T> {
+		void handle(int worker, T item) throws Exception;
+	}
+
+	/**
+	 * A snapshot of the scheduler's progress.
+	 * @param queueDepth The number of items waiting in the queue.
+	 * @param completed The number of items processed so far.
+	 * @param itemsPerSecond The average processing rate since the scheduler started.
+	 * @param utilization The fraction of time each worker has spent processing items.
+	 */
+	public record Progress(int queueDepth, long completed, double itemsPerSecond, double[] utilization) {
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("queue=%d, completed=%d, %.1f items/sec, utilization:", queueDepth, completed, itemsPerSecond));
+			for (double u : utilization) sb.append(String.format(" %.0f%%", u * 100));
+			return sb.toString();
+		}
+	}
+
+	private static final Object END = new Object();
+	private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+	private final String name;
+	private final BlockingQueue<Object> queue;
+	private final WorkHandler<T> handler;
+	private final List<Thread> workers;
+	private final AtomicLong[] busyNanos;
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicReference<Error> failure = new AtomicReference<>();
+	private final long startNanos;
+	private final Stage stage;
+	private volatile boolean stopped;
+
+	/**
+	 * Creates and starts a new scheduler.
+	 * @param name The name of the scheduler, used for thread names and logging.
+	 * @param stageName The name of the metrics stage to record progress as.
+	 * @param workerCount The number of worker threads.
+	 * @param queueCapacity The maximum number of items waiting to be processed.
+	 * @param handler The handler that processes each item.
+	 */
+	public WorkScheduler(String name, String stageName, int workerCount, int queueCapacity, WorkHandler<T> handler) {
+		this.name = name;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.handler = handler;
+		this.workers = new ArrayList<>(workerCount);
+		this.busyNanos = new AtomicLong[workerCount];
+		this.startNanos = System.nanoTime();
+		this.stage = Metrics.stage(stageName);
+		stage.addGauge("queue_depth", queue::size);
+		stage.addGauge("worker_utilization", () -> {
+			double[] utilization = getProgress().utilization();
+			double sum = 0;
+			for (double u : utilization) sum += u;
+			return utilization.length > 0 ? sum / utilization.length : 0.0;
+		});
+		for (int i = 0; i < workerCount; i++) {
+			busyNanos[i] = new AtomicLong();
+			final int worker = i;
+			Thread t = new Thread(() -> work(worker), name + "-worker-" + i);
+			t.setDaemon(true);
+			workers.add(t);
+			t.start();
+		}
+	}
+
+	public int getWorkerCount() {
+		return workers.size();
+	}
+
+	/**
+	 * Submits an item for processing, blocking while the queue is full.
+	 * @param item The item to process.
+	 * @throws InterruptedException If interrupted while waiting for space.
+	 * @throws Error If a worker died of an error.
+	 */
+	public void submit(T item) throws InterruptedException {
+		put(item);
+	}
+
+	/**
+	 * Waits for all submitted items to be processed, and stops the workers. No
+	 * more items may be submitted afterwards.
+	 * @throws InterruptedException If interrupted while waiting.
+	 * @throws Error If a worker died of an error.
+	 */
+	public void finish() throws InterruptedException {
+		try {
+			for (int i = 0; i < workers.size(); i++) put(END);
+			for (var worker : workers) worker.join();
+			throwIfFailed();
+		} finally {
+			stage.close();
+		}
+		System.out.println("[" + name + "] Finished: " + getProgress());
+	}
+
+	/**
+	 * Stops the workers without waiting for the queued items to be processed,
+	 * and closes the scheduler's stage. This does nothing if the scheduler
+	 * already finished.
+	 */
+	public void shutdown() {
+		stopped = true;
+		for (var worker : workers) worker.interrupt();
+		stage.close();
+	}
+
+	private void put(Object item) throws InterruptedException {
+		do {
+			throwIfFailed();
+		} while (!queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+	}
+
+	private void throwIfFailed() {
+		Error error = failure.get();
+		if (error != null) {
+			// Stop the workers that are still alive, as no more items will come.
+			for (var worker : workers) worker.interrupt();
+			throw error;
+		}
+	}
+
+	public Progress getProgress() {
+		long elapsed = System.nanoTime() - startNanos;
+		double[] utilization = new double[busyNanos.length];
+		for (int i = 0; i < busyNanos.length; i++) {
+			utilization[i] = elapsed > 0 ? (double) busyNanos[i].get() / elapsed : 0;
+		}
+		long done = completed.get();
+		double seconds = elapsed / 1_000_000_000.0;
+		return new Progress(queue.size(), done, seconds > 0 ? done / seconds : 0, utilization);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void work(int worker) {
+		while (!stopped) {
+			Object item;
+			try {
+				item = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (item == END) return;
+			long start = System.nanoTime();
+			try {
+				handler.handle(worker, (T) item);
+			} catch (Exception e) {
+				e.printStackTrace();
+			} catch (Error e) {
+				System.err.println("[" + name + "] Worker " + worker + " stopped: " + e);
+				failure.compareAndSet(null, e);
+				return;
+			} finally {
+				busyNanos[worker].addAndGet(System.nanoTime() - start);
+				completed.incrementAndGet();
+				stage.addItem();
+			}
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import com.google.gson.JsonObject;
+
+import java.util.List;
+
+/**
+ * An analysis operation that consumes emails to add to its data, and at the
+ * end adds that data to the analysis results JSON object.
+ */
+public interface Analysis {
+	/**
+	 * Called once with the complete set, before any email is accepted.
+	 * @param set The email set.
+	 * @param akTags The tags which are considered architectural.
+	 */
+	void initialize(EmailSet set, List<String> akTags);
+
+	/**
+	 * Called for each email in the set, in order.
+	 * @param email The email.
+	 * @param set The email set.
+	 * @param akTags The tags which are considered architectural.
+	 */
+	void accept(AnalysisEmail email, EmailSet set, List<String> akTags);
+
+	/**
+	 * Adds this analysis' results to the results object.
+	 * @param obj The analysis results object.
+	 */
+	void addToJson(JsonObject obj);
+}
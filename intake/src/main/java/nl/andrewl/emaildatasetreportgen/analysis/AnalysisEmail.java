@@ -0,0 +1,83 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import java.util.List;
+
+/**
+ * The compact form of an email that analyses work with. The body itself isn't
+ * kept; only the measurements that analyses need from it.
+ * @param id The email's id.
+ * @param parentId The id of the email's parent, or null if it's a thread root.
+ * @param sentFrom The sender's address.
+ * @param tags The names of the email's tags.
+ * @param bodySize The size of the body, in UTF-8 bytes.
+ * @param wordCount The number of words in the body, separated by Unicode whitespace.
+ */
+public record AnalysisEmail(
+		long id,
+		Long parentId,
+		String sentFrom,
+		List<String> tags,
+		int bodySize,
+		int wordCount
+) {
+	public boolean isThreadRoot() {
+		return parentId == null;
+	}
+
+	/**
+	 * Creates an analysis email, measuring the given body.
+	 */
+	public static AnalysisEmail of(long id, Long parentId, String sentFrom, List<String> tags, String body) {
+		if (body == null) body = "";
+		return new AnalysisEmail(id, parentId, sentFrom, List.copyOf(tags), utf8Length(body), wordCount(body));
+	}
+
+	private static int utf8Length(String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Counts the pieces of a string when it's split on runs of whitespace.
+	 * Like the original analysis program, leading or trailing whitespace
+	 * counts as an empty piece.
+	 */
+	private static int wordCount(String s) {
+		int count = 1;
+		boolean inWhitespace = false;
+		for (int i = 0; i < s.length(); i++) {
+			boolean whitespace = isWhite(s.charAt(i));
+			if (whitespace && !inWhitespace) count++;
+			inWhitespace = whitespace;
+		}
+		return count;
+	}
+
+	/**
+	 * Determines if a character has the Unicode White_Space property, which
+	 * is what {@code \s} matches in the original analysis program's regular
+	 * expressions. This differs from {@link Character#isWhitespace(char)},
+	 * which excludes no-break spaces, and includes some control characters.
+	 * All such characters are in the basic multilingual plane.
+	 */
+	private static boolean isWhite(char c) {
+		return switch (c) {
+			case '\t', '\n', '\u000B', '\f', '\r', ' ', '\u0085', '\u00A0', '\u1680',
+					'\u2028', '\u2029', '\u202F', '\u205F', '\u3000' -> true;
+			default -> c >= '\u2000' && c <= '\u200A';
+		};
+	}
+}
@@ -0,0 +1,65 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers for converting analysis data to JSON.
+ */
+final class AnalysisJson {
+	static JsonArray numbers(Collection<? extends Number> values) {
+		JsonArray array = new JsonArray(values.size());
+		for (var value : values) array.add(value);
+		return array;
+	}
+
+	/**
+	 * Converts the first values of an array of integers.
+	 */
+	static JsonArray ints(int[] values, int count) {
+		JsonArray array = new JsonArray(count);
+		for (int i = 0; i < count; i++) array.add(values[i]);
+		return array;
+	}
+
+	/**
+	 * Converts an array of doubles. Like the original analysis program, NaN
+	 * and infinite values are written as strings, since JSON has no literal
+	 * for them.
+	 */
+	static JsonArray doubles(double[] values) {
+		JsonArray array = new JsonArray(values.length);
+		for (double value : values) {
+			if (Double.isFinite(value)) {
+				array.add(value);
+			} else {
+				array.add(Double.toString(value));
+			}
+		}
+		return array;
+	}
+
+	static JsonArray strings(Collection<String> values) {
+		JsonArray array = new JsonArray(values.size());
+		for (var value : values) array.add(value);
+		return array;
+	}
+
+	static JsonObject numberListMap(Map<String, ? extends List<? extends Number>> map) {
+		JsonObject obj = new JsonObject();
+		for (var entry : map.entrySet()) obj.add(entry.getKey(), numbers(entry.getValue()));
+		return obj;
+	}
+
+	static JsonObject numberMap(Map<String, ? extends Number> map) {
+		JsonObject obj = new JsonObject();
+		for (var entry : map.entrySet()) obj.addProperty(entry.getKey(), entry.getValue());
+		return obj;
+	}
+
+	private AnalysisJson() {}
+}
@@ -0,0 +1,152 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import com.google.gson.JsonObject;
+import nl.andrewl.email_indexer.data.EmailEntry;
+import nl.andrewl.email_indexer.data.Tag;
+import nl.andrewl.emaildatasetreportgen.DatasetEmailConsumer;
+import nl.andrewl.emaildatasetreportgen.JsonOutput;
+import nl.andrewl.emaildatasetreportgen.ReportOptions;
+import nl.andrewl.emaildatasetreportgen.metrics.Metrics;
+import nl.andrewl.emaildatasetreportgen.metrics.Stage;
+import nl.andrewl.emaildatasetreportgen.thread.ThreadIndex;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Consumer that collects a compact {@link AnalysisEmail} for each email during
+ * a dataset scan. Afterwards, together with the {@link ThreadIndex} built in
+ * the same scan, they make up the {@link EmailSet} that a list of
+ * {@link Analysis analyses} runs over, and that search results are evaluated
+ * against with a {@link SearchPrecisionEvaluator}, to produce
+ * analysis_results.json without first writing and re-parsing emails.json.
+ */
+public class AnalysisRunner implements DatasetEmailConsumer {
+	public static final List<String> AK_TAGS = List.of(
+			"existence", "existence-behavioral", "existence-structural", "property", "process", "technology"
+	);
+
+	private final List<AnalysisEmail> emails = new ArrayList<>();
+	private final List<Analysis> analyses;
+
+	public AnalysisRunner(List<Analysis> analyses) {
+		this.analyses = analyses;
+	}
+
+	public AnalysisRunner(ReportOptions options) {
+		this(defaultAnalyses(options));
+	}
+
+	public AnalysisRunner() {
+		this(defaultAnalyses());
+	}
+
+	/**
+	 * @param options The report options, which determine how analyses
+	 *                export their data.
+	 * @return A new list of the standard email analyses.
+	 */
+	public static List<Analysis> defaultAnalyses(ReportOptions options) {
+		return new ArrayList<>(List.of(
+				new CharacteristicAnalysis(options.characteristicSummaries()),
+				new CountAnalysis(),
+				new RelevanceAnalysis(),
+				new CoOccurrenceAnalysis(2),
+				new CoOccurrenceAnalysis(3),
+				new NGramAnalysis(2, false),
+				new NGramAnalysis(2, true),
+				new NGramAnalysis(3, false),
+				new NGramAnalysis(3, true)
+		));
+	}
+
+	/**
+	 * @return A new list of the standard email analyses, with the default options.
+	 */
+	public static List<Analysis> defaultAnalyses() {
+		return defaultAnalyses(ReportOptions.DEFAULT);
+	}
+
+	@Override
+	public void consumeEmail(EmailEntry email, Collection<Tag> tags) {
+		emails.add(AnalysisEmail.of(
+				email.id(),
+				email.parentId(),
+				email.sentFrom(),
+				tags.stream().map(Tag::name).toList(),
+				email.body()
+		));
+	}
+
+	/**
+	 * Adds an already-serialized email, such as one from a previous export.
+	 * @param email The email's JSON object.
+	 */
+	public void addEmail(JsonObject email) {
+		List<String> tags = new ArrayList<>();
+		for (var tag : email.getAsJsonArray("tags")) tags.add(tag.getAsString());
+		emails.add(AnalysisEmail.of(
+				email.get("id").getAsLong(),
+				email.get("parent_id").isJsonNull() ? null : email.get("parent_id").getAsLong(),
+				email.get("sent_from").isJsonNull() ? null : email.get("sent_from").getAsString(),
+				tags,
+				email.get("body").isJsonNull() ? null : email.get("body").getAsString()
+		));
+	}
+
+	/**
+	 * Runs all analyses over the collected emails, evaluates the given search
+	 * results against them, and writes everything to analysis_results.json.
+	 * @param output The JSON output settings. The results are always written
+	 *               uncompressed.
+	 * @param outputPath The directory to write to.
+	 * @param index The thread index of the same emails.
+	 * @param searchResults The results of each search query, as written to
+	 *                      searches.json.
+	 * @param workers The number of search evaluations to run in parallel.
+	 * @return The results object.
+	 * @throws IOException If the results couldn't be written.
+	 * @throws InterruptedException If interrupted while evaluating searches.
+	 */
+	public JsonObject finish(
+			JsonOutput output,
+			Path outputPath,
+			ThreadIndex index,
+			List<JsonObject> searchResults,
+			int workers
+	) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		EmailSet set = new EmailSet(index, emails);
+		JsonObject result = new JsonObject();
+		result.addProperty("timestamp", Instant.now().toString());
+		try (Stage stage = Metrics.stage("analyses", set.getEmails().size())) {
+			for (var analysis : analyses) analysis.initialize(set, AK_TAGS);
+			for (var email : set.getEmails()) {
+				for (var analysis : analyses) analysis.accept(email, set, AK_TAGS);
+				stage.addItem();
+			}
+			for (var analysis : analyses) analysis.addToJson(result);
+		}
+		System.out.printf(
+				"Ran %d analyses over %d emails in %.1f seconds.%n",
+				analyses.size(), set.getEmails().size(), (System.nanoTime() - start) / 1_000_000_000.0
+		);
+		try (Stage stage = Metrics.stage("search_precision", searchResults.size())) {
+			new SearchPrecisionEvaluator(set, AK_TAGS, workers).evaluate(
+					searchResults.stream().map(SearchPrecisionEvaluator.RankedResults::fromJson).toList(),
+					result
+			);
+			stage.addItems(searchResults.size());
+		}
+		try (Stage stage = Metrics.stage("analysis_export")) {
+			// Never compressed, since the visualizer memory-maps the raw JSON.
+			JsonOutput plain = new JsonOutput(output.pretty(), false);
+			plain.write(result, plain.resolve(outputPath, "analysis_results.json"));
+		}
+		return result;
+	}
+}
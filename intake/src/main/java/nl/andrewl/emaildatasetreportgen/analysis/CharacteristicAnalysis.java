@@ -0,0 +1,168 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Gathers the body size and word count of emails, and the size and number of
+ * participants of threads, for architectural emails (in total and per tag)
+ * and non-architectural emails.
+ * <p>
+ *     By default, every value is exported. In summary mode, each series is
+ *     exported as an {@link IntDistribution} summary instead, which has all
+ *     that's needed to draw a box plot, and whose size doesn't depend on the
+ *     number of emails.
+ * </p>
+ */
+public class CharacteristicAnalysis implements Analysis {
+	/**
+	 * A series of integer values.
+	 */
+	private interface Series {
+		void add(int value);
+
+		JsonElement toJson();
+	}
+
+	/**
+	 * A series that keeps every value, in order.
+	 */
+	private static class ValueSeries implements Series {
+		private int[] values = new int[16];
+		private int size = 0;
+
+		@Override
+		public void add(int value) {
+			if (size == values.length) values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		@Override
+		public JsonElement toJson() {
+			return AnalysisJson.ints(values, size);
+		}
+	}
+
+	/**
+	 * A series that only keeps the distribution of its values.
+	 */
+	private static class SummarySeries implements Series {
+		private final IntDistribution distribution = new IntDistribution();
+
+		@Override
+		public void add(int value) {
+			distribution.add(value);
+		}
+
+		@Override
+		public JsonElement toJson() {
+			return distribution.toJson();
+		}
+	}
+
+	/**
+	 * A series of values for "any tag", "not ak", and each tag.
+	 */
+	private static class FrequencyData {
+		final Supplier<Series> seriesSupplier;
+		final Series anyTag;
+		final Series notAk;
+		final Map<String, Series> tagData = new LinkedHashMap<>();
+
+		FrequencyData(Supplier<Series> seriesSupplier) {
+			this.seriesSupplier = seriesSupplier;
+			this.anyTag = seriesSupplier.get();
+			this.notAk = seriesSupplier.get();
+		}
+
+		void addTag(String tag, int value) {
+			tagData.computeIfAbsent(tag, t -> seriesSupplier.get()).add(value);
+		}
+
+		JsonObject toJson() {
+			JsonObject obj = new JsonObject();
+			obj.add("any_tag", anyTag.toJson());
+			obj.add("not_ak", notAk.toJson());
+			JsonObject tagObj = new JsonObject();
+			for (var entry : tagData.entrySet()) tagObj.add(entry.getKey(), entry.getValue().toJson());
+			obj.add("tag_data", tagObj);
+			return obj;
+		}
+	}
+
+	private final FrequencyData bodySizeData;
+	private final FrequencyData wordCountData;
+	private final FrequencyData threadSizeData;
+	private final FrequencyData threadParticipationData;
+
+	/**
+	 * Creates a new characteristic analysis.
+	 * @param summaries Whether to export distribution summaries, instead of
+	 *                  every value.
+	 */
+	public CharacteristicAnalysis(boolean summaries) {
+		Supplier<Series> seriesSupplier = summaries ? SummarySeries::new : ValueSeries::new;
+		bodySizeData = new FrequencyData(seriesSupplier);
+		wordCountData = new FrequencyData(seriesSupplier);
+		threadSizeData = new FrequencyData(seriesSupplier);
+		threadParticipationData = new FrequencyData(seriesSupplier);
+	}
+
+	public CharacteristicAnalysis() {
+		this(false);
+	}
+
+	@Override
+	public void initialize(EmailSet set, List<String> akTags) {}
+
+	@Override
+	public void accept(AnalysisEmail email, EmailSet set, List<String> akTags) {
+		if (EmailSet.hasAk(email, akTags)) {
+			bodySizeData.anyTag.add(email.bodySize());
+			wordCountData.anyTag.add(email.wordCount());
+			for (var tag : akTags) {
+				if (email.tags().contains(tag)) {
+					bodySizeData.addTag(tag, email.bodySize());
+					wordCountData.addTag(tag, email.wordCount());
+				}
+			}
+		} else {
+			bodySizeData.notAk.add(email.bodySize());
+			wordCountData.notAk.add(email.wordCount());
+		}
+
+		if (email.isThreadRoot()) {
+			int threadSize = set.threadSize(email);
+			int participantCount = set.threadParticipantCount(email);
+			if (set.threadHasAk(email, akTags)) {
+				threadSizeData.anyTag.add(threadSize);
+				threadParticipationData.anyTag.add(participantCount);
+				for (var tag : akTags) {
+					if (set.threadHasAk(email, List.of(tag))) {
+						threadSizeData.addTag(tag, threadSize);
+						threadParticipationData.addTag(tag, participantCount);
+					}
+				}
+			} else {
+				threadSizeData.notAk.add(threadSize);
+				threadParticipationData.notAk.add(participantCount);
+			}
+		}
+	}
+
+	@Override
+	public void addToJson(JsonObject obj) {
+		JsonObject o = new JsonObject();
+		o.add("body_size", bodySizeData.toJson());
+		o.add("word_count", wordCountData.toJson());
+		o.add("thread_size", threadSizeData.toJson());
+		o.add("thread_participation", threadParticipationData.toJson());
+		obj.add("characteristic", o);
+	}
+}
@@ -0,0 +1,51 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import com.google.gson.JsonObject;
+
+import java.util.*;
+
+/**
+ * Looks for patterns where multiple tags appear together on the same email.
+ */
+public class CoOccurrenceAnalysis implements Analysis {
+	static final String KEY_DELIM = "__";
+
+	private final int size;
+	private final List<List<String>> patterns = new ArrayList<>();
+	private final Map<String, List<Long>> resultMap = new LinkedHashMap<>();
+
+	public CoOccurrenceAnalysis(int size) {
+		this.size = size;
+	}
+
+	@Override
+	public void initialize(EmailSet set, List<String> akTags) {
+		// Patterns are treated as sets, so only keep the first permutation of each.
+		Set<Set<String>> seen = new HashSet<>();
+		for (var pattern : EmailSet.generateTagPermutations(size, akTags)) {
+			if (seen.add(Set.copyOf(pattern))) patterns.add(pattern);
+		}
+	}
+
+	@Override
+	public void accept(AnalysisEmail email, EmailSet set, List<String> akTags) {
+		for (var pattern : patterns) {
+			if (email.tags().containsAll(pattern)) {
+				resultMap.computeIfAbsent(String.join(KEY_DELIM, pattern), k -> new ArrayList<>()).add(email.id());
+			}
+		}
+	}
+
+	@Override
+	public void addToJson(JsonObject obj) {
+		JsonObject o = new JsonObject();
+		for (var entry : resultMap.entrySet()) {
+			JsonObject patternData = new JsonObject();
+			patternData.addProperty("count", entry.getValue().size());
+			patternData.add("pattern", AnalysisJson.strings(Arrays.asList(entry.getKey().split(KEY_DELIM))));
+			patternData.add("email_ids", AnalysisJson.numbers(entry.getValue()));
+			o.add(entry.getKey(), patternData);
+		}
+		obj.add("co-occurrence_" + size, o);
+	}
+}
@@ -0,0 +1,52 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import com.google.gson.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts emails and threads, in total, with architectural knowledge, and per
+ * tag.
+ */
+public class CountAnalysis implements Analysis {
+	private int akEmailCount;
+	private int akThreadCount;
+	private long emailCount;
+	private long threadCount;
+	private final Map<String, Integer> emailTagCounts = new LinkedHashMap<>();
+	private final Map<String, Integer> threadTagCounts = new LinkedHashMap<>();
+
+	@Override
+	public void initialize(EmailSet set, List<String> akTags) {
+		emailCount = set.getEmails().size();
+		threadCount = set.getRootEmails().size();
+		for (var tag : akTags) {
+			emailTagCounts.put(tag, 0);
+			threadTagCounts.put(tag, 0);
+		}
+	}
+
+	@Override
+	public void accept(AnalysisEmail email, EmailSet set, List<String> akTags) {
+		for (var tag : email.tags()) emailTagCounts.merge(tag, 1, Integer::sum);
+		if (EmailSet.hasAk(email, akTags)) akEmailCount++;
+		if (email.isThreadRoot()) {
+			for (var tag : set.threadTags(email)) threadTagCounts.merge(tag, 1, Integer::sum);
+			if (set.threadHasAk(email, akTags)) akThreadCount++;
+		}
+	}
+
+	@Override
+	public void addToJson(JsonObject obj) {
+		JsonObject o = new JsonObject();
+		o.addProperty("total_emails", emailCount);
+		o.addProperty("total_threads", threadCount);
+		o.addProperty("total_ak_emails", akEmailCount);
+		o.addProperty("total_ak_threads", akThreadCount);
+		o.add("email_tag_counts", AnalysisJson.numberMap(emailTagCounts));
+		o.add("thread_tag_counts", AnalysisJson.numberMap(threadTagCounts));
+		obj.add("count", o);
+	}
+}
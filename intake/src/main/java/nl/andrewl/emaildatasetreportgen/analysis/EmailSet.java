@@ -0,0 +1,175 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import nl.andrewl.emaildatasetreportgen.thread.ThreadIndex;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A set of emails, with helper methods for the thread-level measurements that
+ * analyses share. The thread structure comes from a {@link ThreadIndex} of the
+ * same emails, so threads are navigated and measured with its primitive
+ * arrays, and each thread method also works for the sub-thread below an
+ * email that isn't a root.
+ */
+public class EmailSet {
+	private final ThreadIndex index;
+	private final List<AnalysisEmail> emails;
+	private final List<AnalysisEmail> rootEmails;
+	/**
+	 * The emails, by their number in the index.
+	 */
+	private final AnalysisEmail[] indexedEmails;
+	private final Map<Collection<String>, long[]> tagMasks = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new set.
+	 * @param index The thread index of the emails.
+	 * @param emails The emails, in the order that analyses should see them.
+	 * @throws IllegalArgumentException If the emails aren't exactly those of
+	 * the index.
+	 */
+	public EmailSet(ThreadIndex index, List<AnalysisEmail> emails) {
+		if (emails.size() != index.getEmailCount()) {
+			throw new IllegalArgumentException("Got " + emails.size() + " emails for an index of " + index.getEmailCount() + ".");
+		}
+		this.index = index;
+		this.emails = emails;
+		this.rootEmails = emails.stream().filter(AnalysisEmail::isThreadRoot).toList();
+		this.indexedEmails = new AnalysisEmail[emails.size()];
+		for (var email : emails) {
+			int n = index.indexOf(email.id());
+			if (n < 0 || indexedEmails[n] != null) {
+				throw new IllegalArgumentException("Email " + email.id() + " isn't in the index, or is in the set more than once.");
+			}
+			indexedEmails[n] = email;
+		}
+	}
+
+	public ThreadIndex getIndex() {
+		return index;
+	}
+
+	public List<AnalysisEmail> getEmails() {
+		return emails;
+	}
+
+	public List<AnalysisEmail> getRootEmails() {
+		return rootEmails;
+	}
+
+	public AnalysisEmail getEmail(long id) {
+		int n = index.indexOf(id);
+		return n < 0 ? null : indexedEmails[n];
+	}
+
+	public List<AnalysisEmail> getReplies(AnalysisEmail email) {
+		int n = index.indexOf(email.id());
+		int count = index.getChildCount(n);
+		if (count == 0) return Collections.emptyList();
+		List<AnalysisEmail> replies = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) replies.add(indexedEmails[index.getChild(n, i)]);
+		return replies;
+	}
+
+	/**
+	 * Determines if an email has any of the given architectural tags.
+	 */
+	public static boolean hasAk(AnalysisEmail email, Collection<String> akTags) {
+		for (var tag : email.tags()) {
+			if (akTags.contains(tag)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Determines if any email in a thread has any of the given architectural
+	 * tags.
+	 */
+	public boolean threadHasAk(AnalysisEmail root, Collection<String> akTags) {
+		int n = index.indexOf(root.id());
+		return index.countEmails(n, index.getSubtreeEnd(n), getTagMask(akTags)) > 0;
+	}
+
+	/**
+	 * Counts the number of emails in a thread, including the root.
+	 */
+	public int threadSize(AnalysisEmail root) {
+		int n = index.indexOf(root.id());
+		return index.getSubtreeEnd(n) - n;
+	}
+
+	/**
+	 * Counts the distinct addresses that have sent an email in a thread.
+	 * Unlike the other thread methods, this only works for thread roots.
+	 */
+	public int threadParticipantCount(AnalysisEmail root) {
+		return index.getThreadParticipantCount(index.getThread(index.indexOf(root.id())));
+	}
+
+	/**
+	 * Gets the distinct tags of all emails in a thread, in the order they're
+	 * first found.
+	 */
+	public Set<String> threadTags(AnalysisEmail root) {
+		int n = index.indexOf(root.id());
+		Set<String> tags = new LinkedHashSet<>();
+		for (int e = n; e < index.getSubtreeEnd(n); e++) tags.addAll(indexedEmails[e].tags());
+		return tags;
+	}
+
+	/**
+	 * The relevance of an email: 1 if it has any architectural tags, or 0.
+	 */
+	public static double emailRelevance(AnalysisEmail email, Collection<String> akTags) {
+		return hasAk(email, akTags) ? 1.0 : 0.0;
+	}
+
+	/**
+	 * The relevance of a thread, as computed by
+	 * {@link ThreadIndex#getRelevance(int, int, long[], double)}.
+	 */
+	public double threadRelevance(AnalysisEmail root, Collection<String> akTags, double maxRelevance) {
+		int n = index.indexOf(root.id());
+		return index.getRelevance(n, index.getSubtreeEnd(n), getTagMask(akTags), maxRelevance);
+	}
+
+	/**
+	 * The "max relevance" of all threads in the set, as computed by
+	 * {@link ThreadIndex#getMaxRelevance(long[])}.
+	 */
+	public double getMaxRelevance(Collection<String> akTags) {
+		return index.getMaxRelevance(getTagMask(akTags));
+	}
+
+	private long[] getTagMask(Collection<String> tags) {
+		return tagMasks.computeIfAbsent(tags, index::getTagMask);
+	}
+
+	/**
+	 * Generates all ordered permutations of the given size of a list of tags.
+	 * For example, the permutations of size 2 of {@code [a, b, c]} are
+	 * {@code [a, b], [a, c], [b, a], [b, c], [c, a], [c, b]}.
+	 * @param size The size of each permutation.
+	 * @param tags The tags to use.
+	 * @return The list of permutations.
+	 */
+	public static List<List<String>> generateTagPermutations(int size, List<String> tags) {
+		List<List<String>> permutations = new ArrayList<>();
+		if (size == 0) return permutations;
+		if (size == 1) {
+			for (var tag : tags) permutations.add(List.of(tag));
+			return permutations;
+		}
+		for (var permutation : generateTagPermutations(size - 1, tags)) {
+			for (var tag : tags) {
+				if (!permutation.contains(tag)) {
+					List<String> newPermutation = new ArrayList<>(permutation);
+					newPermutation.add(tag);
+					permutations.add(List.copyOf(newPermutation));
+				}
+			}
+		}
+		return permutations;
+	}
+}
@@ -0,0 +1,166 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The exact distribution of a series of integers, kept as the number of times
+ * each distinct value occurs, so that its size depends on the range of the
+ * values instead of on how many there are. It's summarized as the values that
+ * a box plot is drawn from:
+ * <ul>
+ *     <li>The count, min, max and mean.</li>
+ *     <li>The median, and the first and third quartiles, which are the
+ *     medians of the lower and upper half of the values, both including the
+ *     median if the count is odd (Tukey's hinges).</li>
+ *     <li>The whiskers, which are the lowest and highest values within 1.5
+ *     times the interquartile range from the quartiles.</li>
+ *     <li>The outliers beyond the whiskers, up to 2 times the interquartile
+ *     range from the quartiles, with their counts. Values further out are
+ *     only counted.</li>
+ * </ul>
+ * These are the same definitions that JFreeChart uses, so a box plot drawn
+ * from the summary is the same as one drawn from all values.
+ */
+public class IntDistribution {
+	/**
+	 * Values from 0 up to this limit are counted in an array, and any others
+	 * in a map.
+	 */
+	private static final int DENSE_LIMIT = 1 << 16;
+
+	private int[] denseCounts = new int[64];
+	private final Map<Integer, Integer> sparseCounts = new HashMap<>();
+	private long count;
+	private long sum;
+
+	public void add(int value) {
+		if (value >= 0 && value < DENSE_LIMIT) {
+			if (value >= denseCounts.length) {
+				denseCounts = Arrays.copyOf(denseCounts, Math.min(DENSE_LIMIT, Math.max(value + 1, denseCounts.length * 2)));
+			}
+			denseCounts[value]++;
+		} else {
+			sparseCounts.merge(value, 1, Integer::sum);
+		}
+		count++;
+		sum += value;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the summary of this distribution. An empty distribution only has
+	 * a count of 0.
+	 * @return The summary.
+	 */
+	public JsonObject toJson() {
+		JsonObject obj = new JsonObject();
+		obj.addProperty("count", count);
+		if (count == 0) return obj;
+		Sorted sorted = sort();
+		double q1 = sorted.median(0, count % 2 == 1 ? count / 2 : count / 2 - 1);
+		double median = sorted.median(0, count - 1);
+		double q3 = sorted.median(count / 2, count - 1);
+		double iqr = q3 - q1;
+		double lowerOutlierThreshold = q1 - iqr * 1.5;
+		double upperOutlierThreshold = q3 + iqr * 1.5;
+		double lowerFarOutThreshold = q1 - iqr * 2.0;
+		double upperFarOutThreshold = q3 + iqr * 2.0;
+
+		int whiskerLow = Integer.MAX_VALUE;
+		int whiskerHigh = Integer.MIN_VALUE;
+		JsonArray outlierValues = new JsonArray();
+		JsonArray outlierCounts = new JsonArray();
+		long farOutlierCount = 0;
+		for (int i = 0; i < sorted.values.length; i++) {
+			int value = sorted.values[i];
+			if (value < lowerOutlierThreshold || value > upperOutlierThreshold) {
+				if (value >= lowerFarOutThreshold && value <= upperFarOutThreshold) {
+					outlierValues.add(value);
+					outlierCounts.add(sorted.count(i));
+				} else {
+					farOutlierCount += sorted.count(i);
+				}
+			} else {
+				whiskerLow = Math.min(whiskerLow, value);
+				whiskerHigh = Math.max(whiskerHigh, value);
+			}
+		}
+
+		obj.addProperty("min", sorted.values[0]);
+		obj.addProperty("q1", q1);
+		obj.addProperty("median", median);
+		obj.addProperty("q3", q3);
+		obj.addProperty("max", sorted.values[sorted.values.length - 1]);
+		obj.addProperty("mean", (double) sum / count);
+		obj.addProperty("whisker_low", whiskerLow);
+		obj.addProperty("whisker_high", whiskerHigh);
+		obj.add("outlier_values", outlierValues);
+		obj.add("outlier_counts", outlierCounts);
+		obj.addProperty("far_outlier_count", farOutlierCount);
+		return obj;
+	}
+
+	private Sorted sort() {
+		int distinct = sparseCounts.size();
+		for (int c : denseCounts) if (c > 0) distinct++;
+		int[] values = new int[distinct];
+		long[] cumulativeCounts = new long[distinct];
+		int[] sparseValues = sparseCounts.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+		int i = 0;
+		int s = 0;
+		long total = 0;
+		// Merge the negative sparse values, the dense values, and the large sparse values, in order.
+		for (; s < sparseValues.length && sparseValues[s] < 0; s++) {
+			total += sparseCounts.get(sparseValues[s]);
+			values[i] = sparseValues[s];
+			cumulativeCounts[i++] = total;
+		}
+		for (int value = 0; value < denseCounts.length; value++) {
+			if (denseCounts[value] == 0) continue;
+			total += denseCounts[value];
+			values[i] = value;
+			cumulativeCounts[i++] = total;
+		}
+		for (; s < sparseValues.length; s++) {
+			total += sparseCounts.get(sparseValues[s]);
+			values[i] = sparseValues[s];
+			cumulativeCounts[i++] = total;
+		}
+		return new Sorted(values, cumulativeCounts);
+	}
+
+	/**
+	 * The distinct values in ascending order, with the number of values up to
+	 * and including each one.
+	 */
+	private record Sorted(int[] values, long[] cumulativeCounts) {
+		long count(int i) {
+			return cumulativeCounts[i] - (i == 0 ? 0 : cumulativeCounts[i - 1]);
+		}
+
+		/**
+		 * Gets the value at a position among all values, in ascending order.
+		 */
+		int at(long position) {
+			int idx = Arrays.binarySearch(cumulativeCounts, position + 1);
+			return values[idx >= 0 ? idx : -idx - 1];
+		}
+
+		/**
+		 * Gets the median of the values from a start to an end position, inclusive.
+		 */
+		double median(long start, long end) {
+			long n = end - start + 1;
+			if (n % 2 == 1) return at(start + (n - 1) / 2);
+			return (at(start + n / 2 - 1) + (double) at(start + n / 2)) / 2.0;
+		}
+	}
+}
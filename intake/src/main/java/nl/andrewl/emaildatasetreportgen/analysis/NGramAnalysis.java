@@ -0,0 +1,86 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.*;
+
+/**
+ * Looks for sequences of replies in threads whose tags follow a pattern. If
+ * skipping is enabled, emails without a matching tag may appear between the
+ * emails of a sequence.
+ */
+public class NGramAnalysis implements Analysis {
+	private final int size;
+	private final boolean skip;
+	private final Map<String, List<List<String>>> patternsByFirstTag = new HashMap<>();
+	private final Map<String, List<List<Long>>> emailIdSequences = new LinkedHashMap<>();
+
+	public NGramAnalysis(int size, boolean skip) {
+		this.size = size;
+		this.skip = skip;
+	}
+
+	@Override
+	public void initialize(EmailSet set, List<String> akTags) {
+		for (var pattern : EmailSet.generateTagPermutations(size, akTags)) {
+			patternsByFirstTag.computeIfAbsent(pattern.get(0), t -> new ArrayList<>()).add(pattern);
+		}
+	}
+
+	@Override
+	public void accept(AnalysisEmail email, EmailSet set, List<String> akTags) {
+		for (var tag : email.tags()) {
+			for (var pattern : patternsByFirstTag.getOrDefault(tag, Collections.emptyList())) {
+				emailIdSequences.computeIfAbsent(String.join(CoOccurrenceAnalysis.KEY_DELIM, pattern), k -> new ArrayList<>())
+						.addAll(findMatchingSequences(email, set, pattern));
+			}
+		}
+	}
+
+	@Override
+	public void addToJson(JsonObject obj) {
+		JsonObject o = new JsonObject();
+		for (var entry : emailIdSequences.entrySet()) {
+			JsonObject patternData = new JsonObject();
+			patternData.addProperty("count", entry.getValue().size());
+			patternData.add("pattern", AnalysisJson.strings(Arrays.asList(entry.getKey().split(CoOccurrenceAnalysis.KEY_DELIM))));
+			JsonArray sequences = new JsonArray(entry.getValue().size());
+			for (var sequence : entry.getValue()) sequences.add(AnalysisJson.numbers(sequence));
+			patternData.add("sequences", sequences);
+			o.add(entry.getKey(), patternData);
+		}
+		obj.add("ngram_" + size + (skip ? "_skip" : "_no-skip"), o);
+	}
+
+	/**
+	 * Finds all sequences of email ids, starting at the given email and
+	 * following replies, whose emails have the tags of the given pattern, in
+	 * the same order.
+	 * @param email The email to start at.
+	 * @param set The email set.
+	 * @param pattern The tag pattern to search for.
+	 * @return The list of matching email id sequences.
+	 */
+	private List<List<Long>> findMatchingSequences(AnalysisEmail email, EmailSet set, List<String> pattern) {
+		List<List<Long>> sequences = new ArrayList<>();
+		if (pattern.isEmpty()) return sequences;
+		if (email.tags().contains(pattern.get(0))) {
+			if (pattern.size() == 1) {
+				sequences.add(new ArrayList<>(List.of(email.id())));
+			} else {
+				for (var reply : set.getReplies(email)) {
+					for (var sequence : findMatchingSequences(reply, set, pattern.subList(1, pattern.size()))) {
+						sequence.add(0, email.id());
+						sequences.add(sequence);
+					}
+				}
+			}
+		} else if (skip) {
+			for (var reply : set.getReplies(email)) {
+				sequences.addAll(findMatchingSequences(reply, set, pattern));
+			}
+		}
+		return sequences;
+	}
+}
@@ -0,0 +1,58 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the relevance of every email and thread, for all architectural
+ * tags together, and for each tag.
+ */
+public class RelevanceAnalysis implements Analysis {
+	private final List<Double> emailRelevances = new ArrayList<>();
+	private final List<Double> threadRelevances = new ArrayList<>();
+	private final Map<String, List<Double>> emailTagRelevances = new LinkedHashMap<>();
+	private final Map<String, List<Double>> threadTagRelevances = new LinkedHashMap<>();
+
+	private double threadMaxRelevance;
+	private final Map<String, Double> threadTagMaxRelevances = new LinkedHashMap<>();
+
+	@Override
+	public void initialize(EmailSet set, List<String> akTags) {
+		threadMaxRelevance = set.getMaxRelevance(akTags);
+		for (var tag : akTags) {
+			threadTagMaxRelevances.put(tag, set.getMaxRelevance(List.of(tag)));
+		}
+	}
+
+	@Override
+	public void accept(AnalysisEmail email, EmailSet set, List<String> akTags) {
+		emailRelevances.add(EmailSet.emailRelevance(email, akTags));
+		for (var tag : akTags) {
+			emailTagRelevances.computeIfAbsent(tag, t -> new ArrayList<>())
+					.add(EmailSet.emailRelevance(email, List.of(tag)));
+		}
+		if (email.isThreadRoot()) {
+			threadRelevances.add(set.threadRelevance(email, akTags, threadMaxRelevance));
+			for (var tag : akTags) {
+				threadTagRelevances.computeIfAbsent(tag, t -> new ArrayList<>())
+						.add(set.threadRelevance(email, List.of(tag), threadTagMaxRelevances.get(tag)));
+			}
+		}
+	}
+
+	@Override
+	public void addToJson(JsonObject obj) {
+		JsonObject o = new JsonObject();
+		o.addProperty("max_relevance_all_tags", threadMaxRelevance);
+		o.add("max_tag_relevances", AnalysisJson.numberMap(threadTagMaxRelevances));
+		o.add("email_relevances", AnalysisJson.numbers(emailRelevances));
+		o.add("thread_relevances", AnalysisJson.numbers(threadRelevances));
+		o.add("email_tag_relevances", AnalysisJson.numberListMap(emailTagRelevances));
+		o.add("thread_tag_relevances", AnalysisJson.numberListMap(threadTagRelevances));
+		obj.add("relevance", o);
+	}
+}
@@ -0,0 +1,250 @@
+package nl.andrewl.emaildatasetreportgen.analysis;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import nl.andrewl.emaildatasetreportgen.thread.ThreadIndex;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Evaluates the quality of search results, as precision@k and NDCG@k for
+ * every k, for all architectural tags together, and for each tag. The results
+ * are added as "search_precision_[query name]" objects.
+ * <p>
+ *     Everything that doesn't depend on a query is computed once per tag set:
+ *     the relevance of every email and thread, and the ideal discounted
+ *     cumulative gain of each prefix. Each (query, tag set) combination is then
+ *     evaluated in a single pass over the query's results, and all
+ *     combinations are evaluated in parallel.
+ * </p>
+ */
+public class SearchPrecisionEvaluator {
+	/**
+	 * The ranked results of a search query.
+	 * @param queryName The name of the query.
+	 * @param query The query.
+	 * @param threadIds The ids of the root emails of the matching threads, best first.
+	 * @param emailIds The ids of the matching emails, best first.
+	 */
+	public record RankedResults(String queryName, String query, long[] threadIds, long[] emailIds) {
+		public static RankedResults fromJson(JsonObject queryData) {
+			return new RankedResults(
+					queryData.get("name").getAsString(),
+					queryData.get("query").getAsString(),
+					toLongArray(queryData.getAsJsonArray("threads")),
+					toLongArray(queryData.getAsJsonArray("emails"))
+			);
+		}
+
+		private static long[] toLongArray(JsonArray array) {
+			long[] values = new long[array.size()];
+			for (int i = 0; i < values.length; i++) values[i] = array.get(i).getAsLong();
+			return values;
+		}
+	}
+
+	/**
+	 * The precomputed relevance data for one set of tags, by the number of
+	 * each email in the set's thread index. Thread relevances are only
+	 * precomputed for thread roots, and are NaN for other emails.
+	 */
+	private record TagSetIndex(
+			List<String> tags,
+			double threadMaxRelevance,
+			double[] emailRelevances,
+			double[] threadRelevances,
+			double[] idealEmailDcg,
+			double[] idealThreadDcg
+	) {}
+
+	private record Evaluation(
+			double[] emailPrecision,
+			double[] emailNdcg,
+			double[] threadPrecision,
+			double[] threadNdcg
+	) {}
+
+	private final EmailSet set;
+	private final List<String> akTags;
+	private final int workers;
+	private final ThreadIndex threadIndex;
+
+	/**
+	 * Creates a new evaluator.
+	 * @param set The set of emails to judge relevance by.
+	 * @param akTags The tags which are considered architectural.
+	 * @param workers The number of evaluations to run in parallel.
+	 */
+	public SearchPrecisionEvaluator(EmailSet set, List<String> akTags, int workers) {
+		this.set = set;
+		this.akTags = akTags;
+		this.workers = workers;
+		this.threadIndex = set.getIndex();
+	}
+
+	/**
+	 * Evaluates the results of all given queries, and adds them to a JSON
+	 * object, in the given order.
+	 * @param results The ranked results of each query.
+	 * @param obj The object to add the evaluations to.
+	 * @throws InterruptedException If interrupted while waiting for evaluations.
+	 */
+	public void evaluate(List<RankedResults> results, JsonObject obj) throws InterruptedException {
+		long start = System.nanoTime();
+		List<List<String>> tagSets = new ArrayList<>();
+		tagSets.add(akTags);
+		for (var tag : akTags) tagSets.add(List.of(tag));
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			List<Callable<TagSetIndex>> indexTasks = new ArrayList<>();
+			for (var tags : tagSets) indexTasks.add(() -> buildIndex(tags));
+			List<TagSetIndex> indexes = getAll(executor.invokeAll(indexTasks));
+
+			List<Callable<Evaluation>> evaluationTasks = new ArrayList<>();
+			for (var result : results) {
+				for (var index : indexes) evaluationTasks.add(() -> evaluate(result, index));
+			}
+			List<Evaluation> evaluations = getAll(executor.invokeAll(evaluationTasks));
+
+			int i = 0;
+			for (var result : results) {
+				JsonObject precisionData = new JsonObject();
+				precisionData.addProperty("query_name", result.queryName());
+				precisionData.addProperty("query", result.query());
+				for (var index : indexes) {
+					String key = index.tags() == akTags ? "all_tags" : index.tags().get(0);
+					precisionData.add(key, toJson(index, evaluations.get(i++)));
+				}
+				obj.add("search_precision_" + result.queryName(), precisionData);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		System.out.printf(
+				"Evaluated %d search queries for %d tag sets in %.1f seconds.%n",
+				results.size(), tagSets.size(), (System.nanoTime() - start) / 1_000_000_000.0
+		);
+	}
+
+	private TagSetIndex buildIndex(List<String> tags) {
+		List<AnalysisEmail> emails = set.getEmails();
+		double maxRelevance = set.getMaxRelevance(tags);
+		double[] emailRelevances = new double[emails.size()];
+		double[] threadRelevances = new double[emails.size()];
+		Arrays.fill(threadRelevances, Double.NaN);
+		double[] idealThreads = new double[set.getRootEmails().size()];
+		int rootCount = 0;
+		for (var email : emails) {
+			int n = threadIndex.indexOf(email.id());
+			emailRelevances[n] = EmailSet.emailRelevance(email, tags);
+			if (email.isThreadRoot()) {
+				threadRelevances[n] = set.threadRelevance(email, tags, maxRelevance);
+				idealThreads[rootCount++] = threadRelevances[n];
+			}
+		}
+		double[] idealEmails = emailRelevances.clone();
+		sortDescending(idealEmails);
+		sortDescending(idealThreads);
+		return new TagSetIndex(tags, maxRelevance, emailRelevances, threadRelevances, dcgPrefixes(idealEmails), dcgPrefixes(idealThreads));
+	}
+
+	private Evaluation evaluate(RankedResults result, TagSetIndex index) {
+		double[] emailRelevances = new double[result.emailIds().length];
+		for (int i = 0; i < emailRelevances.length; i++) {
+			int n = threadIndex.indexOf(result.emailIds()[i]);
+			emailRelevances[i] = n < 0 ? 0 : index.emailRelevances()[n];
+		}
+		double[] threadRelevances = new double[result.threadIds().length];
+		for (int i = 0; i < threadRelevances.length; i++) {
+			int n = threadIndex.indexOf(result.threadIds()[i]);
+			if (n < 0) continue;
+			double relevance = index.threadRelevances()[n];
+			// A result that isn't a thread root is judged by the sub-thread below it.
+			if (Double.isNaN(relevance)) {
+				relevance = set.threadRelevance(set.getEmail(result.threadIds()[i]), index.tags(), index.threadMaxRelevance());
+			}
+			threadRelevances[i] = relevance;
+		}
+		return new Evaluation(
+				precision(emailRelevances),
+				ndcg(emailRelevances, index.idealEmailDcg()),
+				precision(threadRelevances),
+				ndcg(threadRelevances, index.idealThreadDcg())
+		);
+	}
+
+	/**
+	 * Computes precision@k for every k: the fraction of the first k results
+	 * that are relevant at all.
+	 */
+	private static double[] precision(double[] relevances) {
+		double[] values = new double[relevances.length];
+		int relevantCount = 0;
+		for (int i = 0; i < relevances.length; i++) {
+			if (relevances[i] > 0) relevantCount++;
+			values[i] = (double) relevantCount / (i + 1);
+		}
+		return values;
+	}
+
+	/**
+	 * Computes NDCG@k for every k, up to the number of ideal results.
+	 */
+	private static double[] ndcg(double[] relevances, double[] idealDcg) {
+		double[] values = new double[Math.min(relevances.length, idealDcg.length)];
+		double dcg = 0;
+		for (int i = 0; i < values.length; i++) {
+			dcg += relevances[i] / log2(i + 2);
+			values[i] = dcg / idealDcg[i];
+		}
+		return values;
+	}
+
+	private static double[] dcgPrefixes(double[] relevances) {
+		double[] prefixes = new double[relevances.length];
+		double sum = 0;
+		for (int i = 0; i < relevances.length; i++) {
+			sum += relevances[i] / log2(i + 2);
+			prefixes[i] = sum;
+		}
+		return prefixes;
+	}
+
+	private static double log2(int x) {
+		return Math.log(x) / Math.log(2);
+	}
+
+	private static void sortDescending(double[] values) {
+		Arrays.sort(values);
+		for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+			double tmp = values[i];
+			values[i] = values[j];
+			values[j] = tmp;
+		}
+	}
+
+	private JsonObject toJson(TagSetIndex index, Evaluation evaluation) {
+		JsonObject j = new JsonObject();
+		j.add("tags", AnalysisJson.strings(index.tags()));
+		j.addProperty("thread_max_relevance", index.threadMaxRelevance());
+		j.add("email_precision", AnalysisJson.doubles(evaluation.emailPrecision()));
+		j.add("email_ndcg", AnalysisJson.doubles(evaluation.emailNdcg()));
+		j.add("thread_precision", AnalysisJson.doubles(evaluation.threadPrecision()));
+		j.add("thread_ndcg", AnalysisJson.doubles(evaluation.threadNdcg()));
+		return j;
+	}
+
+	private static <T> List<T> getAll(List<Future<T>> futures) throws InterruptedException {
+		List<T> values = new ArrayList<>(futures.size());
+		for (var future : futures) {
+			try {
+				values.add(future.get());
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Search evaluation failed.", e.getCause());
+			}
+		}
+		return values;
+	}
+}
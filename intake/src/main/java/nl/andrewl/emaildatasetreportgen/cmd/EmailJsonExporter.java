@@ -0,0 +1,60 @@
+package nl.andrewl.emaildatasetreportgen.cmd;
+
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonWriter;
+import nl.andrewl.email_indexer.data.EmailEntry;
+import nl.andrewl.email_indexer.data.Tag;
+import nl.andrewl.emaildatasetreportgen.DatasetEmailConsumer;
+import nl.andrewl.emaildatasetreportgen.JsonOutput;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+
+/**
+ * Consumer that writes each email it receives as an element of a JSON array
+ * in a file, as soon as it's received.
+ */
+public class EmailJsonExporter implements DatasetEmailConsumer, Closeable {
+	private final JsonOutput output;
+	private final JsonWriter writer;
+
+	public EmailJsonExporter(JsonOutput output, Path file) throws IOException {
+		this.output = output;
+		this.writer = output.open(file);
+		writer.beginArray();
+	}
+
+	@Override
+	public void consumeEmail(EmailEntry email, Collection<Tag> tags) throws Exception {
+		writer.beginObject();
+		writer.name("id").value(email.id());
+		writer.name("parent_id").value(email.parentId());
+		writer.name("message_id").value(email.messageId());
+		writer.name("subject").value(email.subject());
+		writer.name("in_reply_to").value(email.inReplyTo());
+		writer.name("sent_from").value(email.sentFrom());
+		writer.name("date").value(email.date().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+		writer.name("body").value(email.body());
+		writer.name("tags").beginArray();
+		for (var tag : tags) writer.value(tag.name());
+		writer.endArray();
+		writer.endObject();
+	}
+
+	/**
+	 * Writes an already-serialized email, such as one from a previous export.
+	 * @param email The email's JSON object.
+	 */
+	public void copyEmail(JsonElement email) {
+		output.write(email, writer);
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.endArray();
+		writer.close();
+	}
+}
@@ -0,0 +1,276 @@
+package nl.andrewl.emaildatasetreportgen.cmd;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import nl.andrewl.email_indexer.data.EmailDataset;
+import nl.andrewl.email_indexer.data.EmailRepository;
+import nl.andrewl.email_indexer.data.MutationEntry;
+import nl.andrewl.emaildatasetreportgen.*;
+import nl.andrewl.emaildatasetreportgen.analysis.AnalysisRunner;
+import nl.andrewl.emaildatasetreportgen.columnar.ColumnarEmailWriter;
+import nl.andrewl.emaildatasetreportgen.metrics.Metrics;
+import nl.andrewl.emaildatasetreportgen.nlp.Lemmatizer;
+import nl.andrewl.emaildatasetreportgen.thread.ThreadIndex;
+import nl.andrewl.emaildatasetreportgen.thread.ThreadIndexBuilder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Generator that produces the same files as the {@link JsonDataGenerator}, but
+ * starts from a previous report instead of from scratch. It works out which
+ * emails were affected by mutations that the previous report didn't include,
+ * and only reloads, re-annotates and re-searches for those.
+ * <ul>
+ *     <li>emails.json is copied from the previous report, with affected emails
+ *     replaced in place (or dropped, if they're no longer tagged, are now
+ *     hidden, or were deleted), and newly tagged emails appended at the
+ *     end. The same goes for emails.col, the thread index and the
+ *     analyses.</li>
+ *     <li>Lemma counts start from the previous report's lemma_counts.json;
+ *     the old versions of affected emails are subtracted, and the new
+ *     versions added. This needs the same lemmatizer engine and
+ *     configuration as the previous report, so if its lemmas_info.json says
+ *     otherwise, a full report is generated instead.</li>
+ *     <li>A search query is only run again if it's new or changed, if its
+ *     cut-offs changed, or if any of its previous results were affected.</li>
+ * </ul>
+ */
+public class IncrementalJsonDataGenerator implements ReportGenerator {
+	private final ReportOptions options;
+	private final JsonOutput output;
+	private final Path previousReport;
+
+	public IncrementalJsonDataGenerator(ReportOptions options, Path previousReport) {
+		this.options = options;
+		this.output = options.output();
+		this.previousReport = previousReport;
+	}
+
+	@Override
+	public void generate(Path outputPath, EmailDataset ds) throws Exception {
+		System.out.println("Generating incremental JSON export from " + previousReport + ".");
+		Lemmatizer lemmatizer = Lemmatizer.create(options.lemmatizer());
+		String incompatibility = LemmaExporter.findIncompatibility(previousReport, lemmatizer);
+		if (incompatibility != null) {
+			System.out.println("Can't update the previous report, since " + incompatibility + ". Generating a full report instead.");
+			new JsonDataGenerator(options).generate(outputPath, ds);
+			return;
+		}
+		Set<Long> affectedIds;
+		Map<Long, EmailBatchLoader.LoadedEmail> updatedEmails;
+		try (var stage = Metrics.stage("find_changes")) {
+			Set<Long> previousMutationIds = readMutationIds();
+			List<Long> newMutationIds = new EmailRepository(ds).getAllMutations().stream()
+					.map(MutationEntry::id)
+					.filter(id -> !previousMutationIds.contains(id))
+					.toList();
+			affectedIds = findAffectedEmailIds(ds, newMutationIds);
+			System.out.printf("Found %d new mutations, affecting %d emails.%n", newMutationIds.size(), affectedIds.size());
+			// Emails that were deleted since are still in MUTATION_EMAIL, but have no row anymore.
+			updatedEmails = loadEmails(ds, affectedIds);
+			stage.addItems(updatedEmails.size());
+			System.out.printf("%d affected emails no longer exist.%n", affectedIds.size() - updatedEmails.size());
+		}
+		// A change to a reply can change the search results for its whole thread, so its ancestors count as affected for
+		// searches. The old parents are added while the previous emails are read, and the rest of the ancestors after.
+		Set<Long> searchAffectedIds = new HashSet<>(affectedIds);
+		for (var updated : updatedEmails.values()) {
+			if (updated.email().parentId() != null) searchAffectedIds.add(updated.email().parentId());
+		}
+		// Only keep the emails that still pass the tagged-emails filter.
+		updatedEmails.values().removeIf(e -> e.email().hidden() || e.tags().isEmpty());
+
+		AnalysisRunner analysisRunner = new AnalysisRunner(options);
+		ThreadIndex threadIndex = exportEmailsAndLemmas(ds, outputPath, lemmatizer, affectedIds, updatedEmails, searchAffectedIds, analysisRunner);
+		addAncestors(ds, searchAffectedIds, affectedIds);
+		List<JsonObject> searchResults = exportSearches(ds, outputPath, searchAffectedIds);
+		System.out.println("Running email and search analyses.");
+		analysisRunner.finish(output, outputPath, threadIndex, searchResults, options.searchWorkers());
+		JsonDataGenerator.exportMutations(output, ds, outputPath);
+		System.out.println("Incremental JSON export complete.");
+	}
+
+	private static Map<Long, EmailBatchLoader.LoadedEmail> loadEmails(EmailDataset ds, Set<Long> emailIds) throws SQLException {
+		var loader = new EmailBatchLoader(ds);
+		// Sorted by id, which is the order that newly tagged emails are appended in.
+		Map<Long, EmailBatchLoader.LoadedEmail> emails = new TreeMap<>();
+		List<Long> ids = new ArrayList<>(emailIds);
+		for (int i = 0; i < ids.size(); i += AnalysisUtils.PAGE_SIZE) {
+			emails.putAll(loader.loadExisting(ids.subList(i, Math.min(ids.size(), i + AnalysisUtils.PAGE_SIZE))));
+		}
+		return emails;
+	}
+
+	/**
+	 * Adds the ancestors of the given emails, up to their thread roots, as
+	 * they are in the dataset now. Emails that no longer exist end the walk.
+	 * @param ds The dataset.
+	 * @param ids The email ids to add the ancestors to.
+	 * @param loadedIds The ids whose parents are already in the set, so they
+	 *                  don't need to be loaded again.
+	 * @throws SQLException If a database error occurs.
+	 */
+	private static void addAncestors(EmailDataset ds, Set<Long> ids, Set<Long> loadedIds) throws SQLException {
+		Set<Long> frontier = new HashSet<>(ids);
+		frontier.removeAll(loadedIds);
+		while (!frontier.isEmpty()) {
+			Set<Long> parentIds = new HashSet<>();
+			for (var loaded : loadEmails(ds, frontier).values()) {
+				Long parentId = loaded.email().parentId();
+				if (parentId != null && ids.add(parentId)) parentIds.add(parentId);
+			}
+			frontier = parentIds;
+		}
+	}
+
+	private ThreadIndex exportEmailsAndLemmas(
+			EmailDataset ds,
+			Path outputPath,
+			Lemmatizer lemmatizer,
+			Set<Long> affectedIds,
+			Map<Long, EmailBatchLoader.LoadedEmail> updatedEmails,
+			Set<Long> searchAffectedIds,
+			AnalysisRunner analysisRunner
+	) throws Exception {
+		System.out.println("Updating emails and NLP lemmatization data.");
+		ThreadIndexBuilder threadIndexBuilder = new ThreadIndexBuilder(JsonDataGenerator.getTagNames(ds));
+		Set<Long> writtenIds = new HashSet<>();
+		try (LemmaExporter lemmaExporter = new LemmaExporter(options, lemmatizer)) {
+			lemmaExporter.addBaseCounts(previousReport);
+			try (
+					var stage = Metrics.stage("scan");
+					var emailExporter = new EmailJsonExporter(output, output.resolve(outputPath, "emails.json"));
+					var columnarWriter = new ColumnarEmailWriter(outputPath.resolve(JsonDataGenerator.COLUMNAR_FILE), JsonDataGenerator.getTagNames(ds));
+					JsonReader reader = JsonOutput.openReader(previousReport, "emails.json")
+			) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					JsonObject oldEmail = JsonParser.parseReader(reader).getAsJsonObject();
+					long id = oldEmail.get("id").getAsLong();
+					stage.addItem();
+					if (!affectedIds.contains(id)) {
+						emailExporter.copyEmail(oldEmail);
+						columnarWriter.copyEmail(oldEmail);
+						threadIndexBuilder.copyEmail(oldEmail);
+						analysisRunner.addEmail(oldEmail);
+						continue;
+					}
+					// The old parent's thread changes too, if the email was deleted or moved.
+					JsonElement oldParentId = oldEmail.get("parent_id");
+					if (!oldParentId.isJsonNull()) searchAffectedIds.add(oldParentId.getAsLong());
+					JsonElement oldBody = oldEmail.get("body");
+					if (!oldBody.isJsonNull()) {
+						List<String> oldTags = new ArrayList<>();
+						for (var tag : oldEmail.getAsJsonArray("tags")) oldTags.add(tag.getAsString());
+						lemmaExporter.removeEmail(oldBody.getAsString(), oldTags);
+					}
+					var updated = updatedEmails.get(id);
+					if (updated != null) {
+						emailExporter.consumeEmail(updated.email(), updated.tags());
+						columnarWriter.consumeEmail(updated.email(), updated.tags());
+						threadIndexBuilder.consumeEmail(updated.email(), updated.tags());
+						analysisRunner.consumeEmail(updated.email(), updated.tags());
+						lemmaExporter.consumeEmail(updated.email(), updated.tags());
+						writtenIds.add(id);
+					}
+				}
+				reader.endArray();
+				for (var updated : updatedEmails.values()) {
+					if (writtenIds.contains(updated.email().id())) continue;
+					emailExporter.consumeEmail(updated.email(), updated.tags());
+					columnarWriter.consumeEmail(updated.email(), updated.tags());
+					threadIndexBuilder.consumeEmail(updated.email(), updated.tags());
+					analysisRunner.consumeEmail(updated.email(), updated.tags());
+					lemmaExporter.consumeEmail(updated.email(), updated.tags());
+					stage.addItem();
+				}
+			}
+			System.out.println("Writing lemma data to file.");
+			try (var stage = Metrics.stage("lemma_export")) {
+				lemmaExporter.finish(output, outputPath);
+			}
+		}
+		return JsonDataGenerator.exportThreads(output, threadIndexBuilder, outputPath);
+	}
+
+	private List<JsonObject> exportSearches(EmailDataset ds, Path outputPath, Set<Long> affectedIds) throws Exception {
+		System.out.println("Updating Lucene search results.");
+		Map<String, JsonObject> previousResults = new HashMap<>();
+		try (JsonReader reader = JsonOutput.openReader(previousReport, "searches.json")) {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				JsonObject queryData = JsonParser.parseReader(reader).getAsJsonObject();
+				previousResults.put(queryData.get("name").getAsString(), queryData);
+			}
+			reader.endArray();
+		}
+		Map<String, String> queries = ReportGen.getQueries();
+		SearchExporter searchExporter = new SearchExporter(ds, options.searchWorkers(), options.threadCutoffs(), options.emailCutoffs());
+		try {
+			Map<String, JsonObject> unchangedResults = new HashMap<>();
+			for (var entry : queries.entrySet()) {
+				JsonObject previous = previousResults.get(entry.getKey());
+				if (previous == null || !previous.get("query").getAsString().equals(entry.getValue())) continue;
+				if (searchExporter.hasSameCutoffs(previous) && !isAffected(previous, affectedIds)) {
+					unchangedResults.put(entry.getKey(), previous);
+				}
+			}
+			List<JsonObject> results = searchExporter.export(output, outputPath, queries, unchangedResults);
+			System.out.printf("Re-ran %d of %d search queries.%n", queries.size() - unchangedResults.size(), queries.size());
+			return results;
+		} finally {
+			searchExporter.shutdown();
+		}
+	}
+
+	private static boolean isAffected(JsonObject queryData, Set<Long> affectedIds) {
+		for (var key : List.of("threads", "emails")) {
+			for (var id : queryData.getAsJsonArray(key)) {
+				if (affectedIds.contains(id.getAsLong())) return true;
+			}
+		}
+		return false;
+	}
+
+	private Set<Long> readMutationIds() throws IOException {
+		Set<Long> ids = new HashSet<>();
+		try (JsonReader reader = JsonOutput.openReader(previousReport, "mutations.json")) {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				ids.add(JsonParser.parseReader(reader).getAsJsonObject().get("id").getAsLong());
+			}
+			reader.endArray();
+		}
+		return ids;
+	}
+
+	/**
+	 * Finds the ids of all emails affected by any of the given mutations.
+	 * @param ds The dataset.
+	 * @param mutationIds The mutation ids.
+	 * @return The set of affected email ids.
+	 * @throws SQLException If a database error occurs.
+	 */
+	private static Set<Long> findAffectedEmailIds(EmailDataset ds, List<Long> mutationIds) throws SQLException {
+		Set<Long> ids = new HashSet<>();
+		if (mutationIds.isEmpty()) return ids;
+		String sql = "SELECT DISTINCT EMAIL_ID FROM MUTATION_EMAIL WHERE MUTATION_ID IN (" +
+				String.join(",", Collections.nCopies(mutationIds.size(), "?")) + ")";
+		try (PreparedStatement stmt = ds.getConnection().prepareStatement(sql)) {
+			for (int i = 0; i < mutationIds.size(); i++) {
+				stmt.setLong(i + 1, mutationIds.get(i));
+			}
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) ids.add(rs.getLong(1));
+			}
+		}
+		return ids;
+	}
+}
@@ -1,211 +1,143 @@
 package nl.andrewl.emaildatasetreportgen.cmd;
 
-import com.google.gson.*;
-import edu.stanford.nlp.pipeline.CoreDocument;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import nl.andrewl.email_indexer.data.EmailDataset;
 import nl.andrewl.email_indexer.data.EmailRepository;
 import nl.andrewl.email_indexer.data.MutationEntry;
+import nl.andrewl.email_indexer.data.Tag;
 import nl.andrewl.email_indexer.data.TagRepository;
-import nl.andrewl.email_indexer.data.search.EmailIndexSearcher;
-import nl.andrewl.emaildatasetreportgen.AnalysisUtils;
+import nl.andrewl.emaildatasetreportgen.DatasetScan;
 import nl.andrewl.emaildatasetreportgen.Filters;
+import nl.andrewl.emaildatasetreportgen.JsonOutput;
 import nl.andrewl.emaildatasetreportgen.ReportGen;
 import nl.andrewl.emaildatasetreportgen.ReportGenerator;
+import nl.andrewl.emaildatasetreportgen.ReportOptions;
+import nl.andrewl.emaildatasetreportgen.analysis.AnalysisRunner;
+import nl.andrewl.emaildatasetreportgen.columnar.ColumnarEmailWriter;
+import nl.andrewl.emaildatasetreportgen.metrics.Metrics;
+import nl.andrewl.emaildatasetreportgen.thread.ThreadExporter;
+import nl.andrewl.emaildatasetreportgen.thread.ThreadIndex;
+import nl.andrewl.emaildatasetreportgen.thread.ThreadIndexBuilder;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.format.DateTimeFormatter;
-import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Simple generator that serializes every tagged email as a JSON object and writes an array to a file.
+ * All files are written in a streaming fashion, according to the configured {@link JsonOutput}. The
+ * email export (both JSON and the binary columnar emails.col), the NLP export, the
+ * thread index and the email analyses share a single {@link DatasetScan}, so the
+ * dataset is only read once.
+ * Each step is recorded as a {@link Metrics} stage.
  */
 public class JsonDataGenerator implements ReportGenerator {
-	public static final int MIN_LEMMA_COUNT = 10;
+	static final String COLUMNAR_FILE = "emails.col";
+
+	private final ReportOptions options;
+	private final JsonOutput output;
+
+	public JsonDataGenerator(ReportOptions options) {
+		this.options = options;
+		this.output = options.output();
+	}
+
+	public JsonDataGenerator() {
+		this(ReportOptions.DEFAULT);
+	}
 
 	@Override
 	public void generate(Path outputPath, EmailDataset ds) throws Exception {
 		System.out.println("Generating JSON export.");
-		exportAllEmails(ds, outputPath);
-		exportSearches(ds, outputPath);
-		exportMutations(ds, outputPath);
-		exportNLP(ds, outputPath);
+		AnalysisRunner analysisRunner = new AnalysisRunner(options);
+		ThreadIndex threadIndex = exportScannedData(ds, outputPath, analysisRunner);
+		List<JsonObject> searchResults = exportSearches(ds, outputPath);
+		System.out.println("Running email and search analyses.");
+		analysisRunner.finish(output, outputPath, threadIndex, searchResults, options.searchWorkers());
+		exportMutations(output, ds, outputPath);
 		System.out.println("JSON export complete.");
 	}
 
-	private void exportSearches(EmailDataset ds, Path outputPath) throws Exception {
-		System.out.println("Exporting Lucene search results.");
-		EmailIndexSearcher searcher = new EmailIndexSearcher();
-		JsonArray searchData = new JsonArray();
-		for (var entry : ReportGen.getQueries().entrySet()) {
-			JsonObject queryData = new JsonObject();
-			String queryName = entry.getKey();
-			String query = entry.getValue();
-			queryData.addProperty("name", queryName);
-			queryData.addProperty("query", query);
-			JsonArray threadsArray = new JsonArray(75);
-			for (var id : searcher.search(ds, query, 75)) threadsArray.add(id);
-			JsonArray emailsArray = new JsonArray(1800);
-			for (var id : searcher.searchEmails(ds, query, 1800)) emailsArray.add(id);
-			queryData.add("threads", threadsArray);
-			queryData.add("emails", emailsArray);
-			searchData.add(queryData);
+	private ThreadIndex exportScannedData(EmailDataset ds, Path outputPath, AnalysisRunner analysisRunner) throws IOException, InterruptedException {
+		System.out.println("Exporting all emails and NLP lemmatization data.");
+		ThreadIndexBuilder threadIndexBuilder = new ThreadIndexBuilder(getTagNames(ds));
+		try (LemmaExporter lemmaExporter = new LemmaExporter(options)) {
+			try (
+					var stage = Metrics.stage("scan");
+					var emailExporter = new EmailJsonExporter(output, output.resolve(outputPath, "emails.json"));
+					var columnarWriter = new ColumnarEmailWriter(outputPath.resolve(COLUMNAR_FILE), getTagNames(ds))
+			) {
+				new DatasetScan(options.scanReaders())
+						.addConsumer("emails", emailExporter)
+						.addConsumer("columnar", columnarWriter)
+						.addConsumer("nlp", lemmaExporter)
+						.addConsumer("threads", threadIndexBuilder)
+						.addConsumer("analysis", analysisRunner)
+						.run(ds, Filters.taggedEmails(new TagRepository(ds)));
+			}
+			System.out.println("Writing lemma data to file.");
+			try (var stage = Metrics.stage("lemma_export")) {
+				lemmaExporter.finish(output, outputPath);
+			}
 		}
-		writeJson(searchData, outputPath.resolve("searches.json"));
-	}
-
-	private void exportAllEmails(EmailDataset ds, Path outputPath) throws IOException {
-		System.out.println("Exporting all emails.");
-		JsonArray emailsArray = new JsonArray();
-		AnalysisUtils.doForAllEmails(ds, Filters.taggedEmails(new TagRepository(ds)), (email, tags) -> {
-			JsonObject obj = new JsonObject();
-			obj.addProperty("id", email.id());
-			obj.addProperty("parent_id", email.parentId());
-			obj.addProperty("message_id", email.messageId());
-			obj.addProperty("subject", email.subject());
-			obj.addProperty("in_reply_to", email.inReplyTo());
-			obj.addProperty("sent_from", email.sentFrom());
-			obj.addProperty("date", email.date().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
-			obj.addProperty("body", email.body());
-			JsonArray tagsArray = new JsonArray(tags.size());
-			for (var tag : tags) tagsArray.add(tag.name());
-			obj.add("tags", tagsArray);
-			emailsArray.add(obj);
-		});
-		System.out.println("Writing emails to file.");
-		Path emailsFile = outputPath.resolve("emails.json");
-		writeJson(emailsArray, emailsFile);
+		return exportThreads(output, threadIndexBuilder, outputPath);
 	}
 
-	private void exportMutations(EmailDataset ds, Path outputPath) throws IOException {
-		System.out.println("Exporting mutations.");
-		JsonArray mutationsArray = new JsonArray();
-		for (MutationEntry mutation : new EmailRepository(ds).getAllMutations()) {
-			JsonObject obj = new JsonObject();
-			obj.addProperty("id", mutation.id());
-			obj.addProperty("affected_email_count", mutation.affectedEmailCount());
-			obj.addProperty("description", mutation.description());
-			mutationsArray.add(obj);
+	private List<JsonObject> exportSearches(EmailDataset ds, Path outputPath) throws Exception {
+		System.out.println("Exporting Lucene search results.");
+		SearchExporter searchExporter = new SearchExporter(ds, options.searchWorkers(), options.threadCutoffs(), options.emailCutoffs());
+		try {
+			return searchExporter.export(output, outputPath, ReportGen.getQueries(), Map.of());
+		} finally {
+			searchExporter.shutdown();
 		}
-		Path mutationsFile = outputPath.resolve("mutations.json");
-		writeJson(mutationsArray, mutationsFile);
 	}
 
-	private void exportNLP(EmailDataset ds, Path outputPath) throws IOException, InterruptedException {
-		System.out.println("Exporting NLP lemmatization data.");
-		Properties props = new Properties();
-		props.setProperty("annotators", "tokenize,ssplit,pos,lemma");
-		props.setProperty("coref.algorithm", "neural");
-
-		StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
-		Map<Long, CoreDocument> emailData = new HashMap<>();
-		Map<String, Set<Long>> taggedEmails = new HashMap<>();
-
-		// Run the document annotation in parallel, since the pipeline is threadsafe, and it's really slow.
-		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-		AnalysisUtils.doForAllEmails(ds, Filters.taggedEmails(new TagRepository(ds)), (email, tags) -> {
-			executor.submit(() -> {
-				CoreDocument doc = new CoreDocument(email.body());
-				pipeline.annotate(doc);
-				emailData.put(email.id(), doc);
-				for (var tag : tags) {
-					Set<Long> emailIds = taggedEmails.computeIfAbsent(tag.name(), s -> new HashSet<>());
-					emailIds.add(email.id());
-				}
-			});
-		});
-		executor.shutdown();
-		boolean finished;
-		do {
-			finished = executor.awaitTermination(1, TimeUnit.MINUTES);
-		} while (!finished);
-
-		JsonObject lemmaJson = new JsonObject();
-		JsonObject allTags = getLemmaData(Set.of("existence", "technology", "process", "property"), emailData, taggedEmails);
-		JsonObject existence = getLemmaData(Set.of("existence"), emailData, taggedEmails);
-		JsonObject technology = getLemmaData(Set.of("technology"), emailData, taggedEmails);
-		JsonObject process = getLemmaData(Set.of("process"), emailData, taggedEmails);
-		JsonObject property = getLemmaData(Set.of("property"), emailData, taggedEmails);
-		JsonObject notAk = getLemmaData(Set.of("not-ak"), emailData, taggedEmails);
-		lemmaJson.add("all_tags", allTags);
-		lemmaJson.add("existence", existence);
-		lemmaJson.add("technology", technology);
-		lemmaJson.add("process", process);
-		lemmaJson.add("property", property);
-		lemmaJson.add("not_ak", notAk);
-		writeJson(lemmaJson, outputPath.resolve("lemmas.json"));
+	static List<String> getTagNames(EmailDataset ds) {
+		return new TagRepository(ds).findAll().stream().map(Tag::name).toList();
 	}
 
-	private static JsonObject getLemmaData(Set<String> tags, Map<Long, CoreDocument> documents, Map<String, Set<Long>> taggedEmailIds) throws IOException {
-		JsonObject obj = new JsonObject();
-		JsonArray tagsArray = new JsonArray(tags.size());
-		tags.stream().sorted().forEachOrdered(tagsArray::add);
-		obj.add("tags", tagsArray);
-		// Find all applicable emails that have at least one of the specified tags.
-		Set<Long> applicableEmailIds = new HashSet<>();
-		for (var entry : taggedEmailIds.entrySet()) {
-			if (tags.contains(entry.getKey())) applicableEmailIds.addAll(entry.getValue());
-		}
-		// Find all applicable documents for emails that have the right tags.
-		List<CoreDocument> applicableDocuments = new ArrayList<>();
-		for (var emailId : applicableEmailIds) {
-			CoreDocument doc = documents.get(emailId);
-			if (doc != null) applicableDocuments.add(doc);
-		}
-		// Count up all the lemmas in all applicable documents.
-		Map<String, Integer> lemmaCounts = new HashMap<>();
-		for (var doc : applicableDocuments) {
-			for (var token : doc.tokens()) {
-				if (!getStopWords().contains(token.lemma().toLowerCase())) {
-					int count = lemmaCounts.computeIfAbsent(token.lemma(), s -> 0);
-					lemmaCounts.put(token.lemma(), count + 1);
+	/**
+	 * Builds the thread index, and writes the aggregates of each thread to
+	 * threads.json.
+	 * @return The thread index, for the analyses to use.
+	 */
+	static ThreadIndex exportThreads(JsonOutput output, ThreadIndexBuilder threadIndexBuilder, Path outputPath) throws IOException {
+		System.out.println("Exporting thread aggregates.");
+		try (var stage = Metrics.stage("thread_export")) {
+			ThreadIndex index = threadIndexBuilder.build();
+			try (var exporter = new ThreadExporter(output, output.resolve(outputPath, "threads.json"), index, AnalysisRunner.AK_TAGS)) {
+				for (int thread = 0; thread < index.getThreadCount(); thread++) {
+					exporter.consumeThread(index, thread);
+					stage.addItem();
 				}
 			}
+			int threadEmails = index.getThreadCount() == 0 ? 0 : index.getThreadEnd(index.getThreadCount() - 1);
+			System.out.printf(
+					"Indexed %d threads of %d emails (%d in no thread).%n",
+					index.getThreadCount(),
+					index.getEmailCount(),
+					index.getEmailCount() - threadEmails
+			);
+			return index;
 		}
-
-		// Serialize the data into a JSON object with key-value pairs being the lemmas and their frequencies.
-		JsonObject lemmasObj = new JsonObject();
-		List<Map.Entry<String, Integer>> values = lemmaCounts.entrySet().stream()
-				.filter(entry -> entry.getValue() >= MIN_LEMMA_COUNT) // Filter out all the garbage lemmas that don't occur much.
-				.sorted(Collections.reverseOrder(Comparator.comparingInt(Map.Entry::getValue)))
-				.toList();
-		for (var value : values) {
-			lemmasObj.addProperty(value.getKey(), value.getValue());
-		}
-		obj.add("lemmas", lemmasObj);
-		return obj;
 	}
 
-	private static Set<String> stopWords = null;
-	private static Set<String> getStopWords() throws IOException {
-		if (stopWords == null) {
-			try (var in = JsonDataGenerator.class.getClassLoader().getResourceAsStream("stopwords-en.txt")) {
-				if (in == null) throw new IOException("Couldn't load stopwords file from resources.");
-				var reader = new BufferedReader(new InputStreamReader(in));
-				String line;
-				stopWords = new HashSet<>();
-				while ((line = reader.readLine()) != null) {
-					stopWords.add(line.strip());
-				}
+	static void exportMutations(JsonOutput output, EmailDataset ds, Path outputPath) throws IOException {
+		System.out.println("Exporting mutations.");
+		try (var stage = Metrics.stage("mutations")) {
+			JsonArray mutationsArray = new JsonArray();
+			for (MutationEntry mutation : new EmailRepository(ds).getAllMutations()) {
+				JsonObject obj = new JsonObject();
+				obj.addProperty("id", mutation.id());
+				obj.addProperty("affected_email_count", mutation.affectedEmailCount());
+				obj.addProperty("description", mutation.description());
+				mutationsArray.add(obj);
+				stage.addItem();
 			}
-		}
-		return stopWords;
-	}
-
-	private static void writeJson(JsonElement j, Path file) throws IOException {
-		try (var out = Files.newBufferedWriter(file)) {
-			Gson gson = new GsonBuilder()
-					.serializeNulls()
-					.setPrettyPrinting()
-					.create();
-			gson.toJson(j, out);
+			output.write(mutationsArray, output.resolve(outputPath, "mutations.json"));
 		}
 	}
 }
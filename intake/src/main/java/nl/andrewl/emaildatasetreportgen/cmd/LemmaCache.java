@@ -0,0 +1,162 @@
+package nl.andrewl.emaildatasetreportgen.cmd;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of the lemma sequences of email bodies, so that unchanged
+ * and duplicate bodies don't need to be annotated again. Entries are keyed by
+ * a hash of the body and the annotator configuration, and stored as one file
+ * per entry. When the cache grows beyond its maximum size, the least recently
+ * used entries are evicted.
+ */
+public class LemmaCache implements Closeable {
+	private final Path dir;
+	private final long maxBytes;
+	private final String configKey;
+	private final Map<String, CompletableFuture<List<String>>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a cache in the given directory.
+	 * @param dir The directory to store cache entries in. It's created if needed.
+	 * @param maxBytes The maximum total size of all cache entries.
+	 * @param annotatorConfig The annotator configuration. Entries produced with
+	 *                        a different configuration are never used.
+	 * @throws IOException If the directory couldn't be created.
+	 */
+	public LemmaCache(Path dir, long maxBytes, Properties annotatorConfig) throws IOException {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		StringBuilder sb = new StringBuilder();
+		annotatorConfig.stringPropertyNames().stream().sorted()
+				.forEachOrdered(key -> sb.append(key).append('=').append(annotatorConfig.getProperty(key)).append(';'));
+		this.configKey = sb.toString();
+		Files.createDirectories(dir);
+	}
+
+	/**
+	 * Gets the lemmas of a body from the cache, or computes and stores them if
+	 * they're not cached yet. If the same body is already being computed by
+	 * another thread, this waits for that result instead of computing it again.
+	 * @param body The email body.
+	 * @param annotator A function that annotates the body and returns its lemmas.
+	 * @return The body's lemmas.
+	 */
+	public List<String> getLemmas(String body, Supplier<List<String>> annotator) {
+		String key = hash(body);
+		Path file = entryFile(key);
+		List<String> cached = read(file);
+		if (cached != null) {
+			hits.incrementAndGet();
+			return cached;
+		}
+		CompletableFuture<List<String>> future = new CompletableFuture<>();
+		CompletableFuture<List<String>> existing = inFlight.putIfAbsent(key, future);
+		if (existing != null) {
+			hits.incrementAndGet();
+			return existing.join();
+		}
+		misses.incrementAndGet();
+		try {
+			List<String> lemmas = annotator.get();
+			write(file, lemmas);
+			future.complete(lemmas);
+			return lemmas;
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key);
+		}
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache fits in its
+	 * maximum size, and prints the cache statistics.
+	 * @throws IOException If the cache directory couldn't be read.
+	 */
+	@Override
+	public void close() throws IOException {
+		record Entry(Path file, long size, FileTime lastModified) {}
+		List<Entry> entries = new ArrayList<>();
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (var file : files.filter(Files::isRegularFile).toList()) {
+				var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				entries.add(new Entry(file, attributes.size(), attributes.lastModifiedTime()));
+			}
+		}
+		long totalSize = entries.stream().mapToLong(Entry::size).sum();
+		entries.sort(Comparator.comparing(Entry::lastModified));
+		int evicted = 0;
+		for (var entry : entries) {
+			if (totalSize <= maxBytes) break;
+			Files.deleteIfExists(entry.file());
+			totalSize -= entry.size();
+			evicted++;
+		}
+		long h = hits.get();
+		long m = misses.get();
+		System.out.printf(
+				"[lemma-cache] %d hits, %d misses (%.1f%% hit rate), %d entries evicted, %.1f MB in %s%n",
+				h, m, h + m > 0 ? 100.0 * h / (h + m) : 0, evicted, totalSize / (1024.0 * 1024.0), dir
+		);
+	}
+
+	private Path entryFile(String key) {
+		return dir.resolve(key.substring(0, 2)).resolve(key);
+	}
+
+	private List<String> read(Path file) {
+		if (!Files.exists(file)) return null;
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			int count = in.readInt();
+			List<String> lemmas = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) lemmas.add(in.readUTF());
+			// Mark the entry as recently used, for eviction.
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			return lemmas;
+		} catch (IOException e) {
+			// Treat unreadable entries as missing; they'll be overwritten.
+			return null;
+		}
+	}
+
+	private void write(Path file, List<String> lemmas) {
+		try {
+			Files.createDirectories(file.getParent());
+			Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(lemmas.size());
+				for (var lemma : lemmas) out.writeUTF(lemma);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Couldn't write lemma cache entry " + file + ": " + e.getMessage());
+		}
+	}
+
+	private String hash(String body) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(configKey.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(body.getBytes(StandardCharsets.UTF_8));
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
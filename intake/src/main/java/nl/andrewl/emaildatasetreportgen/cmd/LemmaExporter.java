@@ -0,0 +1,468 @@
+package nl.andrewl.emaildatasetreportgen.cmd;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import nl.andrewl.email_indexer.data.EmailEntry;
+import nl.andrewl.email_indexer.data.Tag;
+import nl.andrewl.emaildatasetreportgen.DatasetEmailConsumer;
+import nl.andrewl.emaildatasetreportgen.JsonOutput;
+import nl.andrewl.emaildatasetreportgen.ReportOptions;
+import nl.andrewl.emaildatasetreportgen.WorkScheduler;
+import nl.andrewl.emaildatasetreportgen.nlp.LemmaDictionary;
+import nl.andrewl.emaildatasetreportgen.nlp.Lemmatizer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consumer that lemmatizes the body of each email it receives, and once all
+ * emails have been received, writes the lemma frequencies for each group of
+ * tags to a file.
+ * <p>
+ *     Each annotated document is reduced to lemma counts for every tag group
+ *     it belongs to as soon as it's annotated, and then discarded, so memory
+ *     use depends on the vocabulary size rather than the corpus size.
+ * </p>
+ * <p>
+ *     Annotation runs on a {@link WorkScheduler} with a bounded queue, so the
+ *     dataset scan is held back when annotation can't keep up. Its queue
+ *     depth and worker utilization are recorded in the "scan.nlp.workers"
+ *     metrics stage.
+ * </p>
+ * <p>
+ *     Lemmas are interned to integer ids by a shared {@link LemmaDictionary},
+ *     which also decides once per distinct lemma whether it's a stop word.
+ *     The counts are kept in one primitive int array per tag group, indexed
+ *     by lemma id, which all workers share. Each worker collects its changes
+ *     to the counts in a small sparse map of its own, and adds them to the
+ *     shared counts under a lock once the map holds {@value #FLUSH_SIZE}
+ *     counters, so the lock is rarely contended, and the counters' memory
+ *     doesn't grow with the number of workers.
+ * </p>
+ * <p>
+ *     Besides the filtered lemmas.json, the complete lemma counts for each tag
+ *     group are written to lemma_counts.json, so that later incremental runs
+ *     can start from them, adding and removing only the emails that changed.
+ * </p>
+ * <p>
+ *     The annotation threads are started by the constructor, and stopped by
+ *     {@link #finish(JsonOutput, Path)}. If the scan fails before that, the
+ *     exporter must be closed instead, which stops them and closes the cache.
+ * </p>
+ */
+public class LemmaExporter implements DatasetEmailConsumer, Closeable {
+	public static final int MIN_LEMMA_COUNT = 10;
+
+	/**
+	 * The groups of tags for which lemma frequencies are exported. An email
+	 * belongs to a group if it has at least one of the group's tags.
+	 */
+	public static final Map<String, Set<String>> LEMMA_GROUPS = lemmaGroups();
+
+	public static final int QUEUE_CAPACITY_PER_WORKER = 16;
+	/**
+	 * The number of distinct counters that a worker collects changes to
+	 * before adding them to the shared counts.
+	 */
+	public static final int FLUSH_SIZE = 1 << 14;
+
+	private final Lemmatizer lemmatizer;
+	private final LemmaCache cache;
+	private final WorkScheduler<Job> scheduler;
+	private final LemmaDictionary dictionary;
+	private final List<String> groupNames = new ArrayList<>(LEMMA_GROUPS.keySet());
+	/**
+	 * For each worker, its changes to the counts that haven't been added yet.
+	 */
+	private final List<CountDeltas> deltas;
+	/**
+	 * The lemma counts of each tag group, including any counts from a
+	 * previous report. Guarded by its own lock.
+	 */
+	private final Counts counts = new Counts(LEMMA_GROUPS.size());
+	private final AtomicLong documentCount = new AtomicLong();
+	private final AtomicLong tokenCount = new AtomicLong();
+	private final long startNanos = System.nanoTime();
+	private boolean closed;
+
+	/**
+	 * A body to annotate, whose lemma counts are added to (sign 1) or removed
+	 * from (sign -1) the groups of the given tags.
+	 */
+	private record Job(String body, Collection<String> tagNames, int sign) {}
+
+	/**
+	 * Lemma counters for each tag group, indexed by lemma id.
+	 */
+	private static final class Counts {
+		private final int[][] counts;
+
+		Counts(int groupCount) {
+			this.counts = new int[groupCount][1024];
+		}
+
+		void ensureCapacity(int id) {
+			if (id < counts[0].length) return;
+			int newLength = Math.max(counts[0].length * 2, id + 1);
+			for (int g = 0; g < counts.length; g++) {
+				counts[g] = Arrays.copyOf(counts[g], newLength);
+			}
+		}
+	}
+
+	/**
+	 * Sparse changes to the counters of a {@link Counts}, as an open-addressing
+	 * map from counter keys ({@code id * groupCount + group}) to deltas. Only
+	 * ever used by one thread at a time.
+	 */
+	private static final class CountDeltas {
+		private final int groupCount;
+		private final int[] keys = new int[FLUSH_SIZE * 2];
+		private final int[] values = new int[FLUSH_SIZE * 2];
+		private int size = 0;
+
+		CountDeltas(int groupCount) {
+			this.groupCount = groupCount;
+			Arrays.fill(keys, -1);
+		}
+
+		/**
+		 * Adds to a counter.
+		 * @return True if the map is full, and should be added to the counts.
+		 */
+		boolean add(int id, int group, int delta) {
+			int key = id * groupCount + group;
+			int mask = keys.length - 1;
+			int slot = (key * 0x9E3779B9) >>> 1 & mask;
+			while (keys[slot] != -1 && keys[slot] != key) slot = (slot + 1) & mask;
+			if (keys[slot] == -1) {
+				keys[slot] = key;
+				size++;
+			}
+			values[slot] += delta;
+			return size >= FLUSH_SIZE;
+		}
+
+		/**
+		 * Adds all changes to the counts, and clears them.
+		 */
+		void flush(Counts counts) {
+			if (size == 0) return;
+			synchronized (counts) {
+				for (int slot = 0; slot < keys.length; slot++) {
+					int key = keys[slot];
+					if (key == -1) continue;
+					int id = key / groupCount;
+					counts.ensureCapacity(id);
+					counts.counts[key % groupCount][id] += values[slot];
+				}
+			}
+			Arrays.fill(keys, -1);
+			Arrays.fill(values, 0);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Creates a new lemma exporter.
+	 * @param options The report options, which determine the lemmatizer
+	 *                engine, the number of annotation threads, and the lemma
+	 *                cache to use.
+	 * @throws IOException If the stop words or cache couldn't be loaded.
+	 */
+	public LemmaExporter(ReportOptions options) throws IOException {
+		this(options, Lemmatizer.create(options.lemmatizer()));
+	}
+
+	/**
+	 * Creates a new lemma exporter that uses an existing lemmatizer engine.
+	 * @param options The report options, which determine the number of
+	 *                annotation threads, and the lemma cache to use.
+	 * @param lemmatizer The lemmatizer engine.
+	 * @throws IOException If the stop words or cache couldn't be loaded.
+	 */
+	public LemmaExporter(ReportOptions options, Lemmatizer lemmatizer) throws IOException {
+		int workerCount = options.nlpWorkers();
+		this.dictionary = new LemmaDictionary(loadStopWords());
+		this.deltas = new ArrayList<>(workerCount);
+		for (int i = 0; i < workerCount; i++) {
+			deltas.add(new CountDeltas(LEMMA_GROUPS.size()));
+		}
+		this.lemmatizer = lemmatizer;
+		this.cache = options.lemmaCacheDir() == null
+				? null
+				: new LemmaCache(options.lemmaCacheDir(), options.lemmaCacheMaxBytes(), lemmatizer.config());
+		// Run the document annotation in parallel, since lemmatizers are threadsafe, and it's really slow.
+		this.scheduler = new WorkScheduler<>(
+				"nlp",
+				"scan.nlp.workers",
+				workerCount,
+				workerCount * QUEUE_CAPACITY_PER_WORKER,
+				this::annotate
+		);
+	}
+
+	@Override
+	public void consumeEmail(EmailEntry email, Collection<Tag> tags) throws InterruptedException {
+		addEmail(email.body(), tags.stream().map(Tag::name).toList());
+	}
+
+	/**
+	 * Adds an email's lemmas to the counts of its tag groups.
+	 * @param body The email's body.
+	 * @param tagNames The names of the email's tags.
+	 * @throws InterruptedException If interrupted while waiting for queue space.
+	 */
+	public void addEmail(String body, Collection<String> tagNames) throws InterruptedException {
+		scheduler.submit(new Job(body, tagNames, 1));
+	}
+
+	/**
+	 * Removes an email's lemmas from the counts of its tag groups. This is
+	 * used to undo an email's contribution to counts from a previous report.
+	 * @param body The email's body, as it was counted before.
+	 * @param tagNames The names of the email's tags, as they were counted before.
+	 * @throws InterruptedException If interrupted while waiting for queue space.
+	 */
+	public void removeEmail(String body, Collection<String> tagNames) throws InterruptedException {
+		scheduler.submit(new Job(body, tagNames, -1));
+	}
+
+	/**
+	 * Checks whether the lemma counts of a previous report were produced by
+	 * the same lemmatizer engine and configuration, according to its
+	 * lemmas_info.json. Only then can they be used by
+	 * {@link #addBaseCounts(Path)}, since the old versions of changed emails
+	 * are lemmatized again to remove them from the counts.
+	 * @param reportDir The previous report's directory.
+	 * @param lemmatizer The lemmatizer engine that would be used.
+	 * @return Why the counts can't be used, or null if they can.
+	 * @throws IOException If the previous report's lemma info couldn't be read.
+	 */
+	public static String findIncompatibility(Path reportDir, Lemmatizer lemmatizer) throws IOException {
+		JsonObject info;
+		try (JsonReader reader = JsonOutput.openReader(reportDir, "lemmas_info.json")) {
+			info = JsonParser.parseReader(reader).getAsJsonObject();
+		} catch (FileNotFoundException e) {
+			return "it has no lemmas_info.json";
+		}
+		String engine = info.has("engine") ? info.get("engine").getAsString() : null;
+		if (!lemmatizer.name().equals(engine)) {
+			return "its lemmas were produced by the " + engine + " engine, not " + lemmatizer.name();
+		}
+		if (!getConfigData(lemmatizer).equals(info.get("config"))) {
+			return "its lemmas were produced with another " + engine + " configuration";
+		}
+		return null;
+	}
+
+	/**
+	 * Starts from the complete lemma counts of a previous report, instead of
+	 * from zero. Must be called before {@link #finish(JsonOutput, Path)}.
+	 * @param reportDir The previous report's directory.
+	 * @throws IOException If the previous lemma counts couldn't be read.
+	 */
+	public void addBaseCounts(Path reportDir) throws IOException {
+		try (JsonReader reader = JsonOutput.openReader(reportDir, "lemma_counts.json")) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				int group = groupNames.indexOf(reader.nextName());
+				reader.beginObject();
+				while (reader.hasNext()) {
+					int id = dictionary.intern(reader.nextName());
+					int count = reader.nextInt();
+					if (group == -1 || id == LemmaDictionary.STOP_WORD) continue;
+					synchronized (counts) {
+						counts.ensureCapacity(id);
+						counts.counts[group][id] += count;
+					}
+				}
+				reader.endObject();
+			}
+			reader.endObject();
+		}
+	}
+
+	private void annotate(int worker, Job job) {
+		List<String> lemmas = cache == null
+				? lemmatizer.lemmatize(job.body())
+				: cache.getLemmas(job.body(), () -> lemmatizer.lemmatize(job.body()));
+		documentCount.incrementAndGet();
+		tokenCount.addAndGet(lemmas.size());
+		int[] groups = getGroupIndexes(job.tagNames());
+		if (groups.length == 0) return;
+		CountDeltas workerDeltas = deltas.get(worker);
+		int sign = job.sign();
+		for (var lemma : lemmas) {
+			int id = dictionary.intern(lemma);
+			if (id == LemmaDictionary.STOP_WORD) continue;
+			for (int g : groups) {
+				if (workerDeltas.add(id, g, sign)) workerDeltas.flush(counts);
+			}
+		}
+	}
+
+	/**
+	 * Gets the indexes of all tag groups that an email with the given tags
+	 * belongs to.
+	 * @param tagNames The names of the email's tags.
+	 * @return The group indexes.
+	 */
+	private int[] getGroupIndexes(Collection<String> tagNames) {
+		int[] groups = new int[groupNames.size()];
+		int count = 0;
+		for (int g = 0; g < groupNames.size(); g++) {
+			Set<String> groupTags = LEMMA_GROUPS.get(groupNames.get(g));
+			for (var tagName : tagNames) {
+				if (groupTags.contains(tagName)) {
+					groups[count++] = g;
+					break;
+				}
+			}
+		}
+		return Arrays.copyOf(groups, count);
+	}
+
+	/**
+	 * Waits for all annotation to finish, and writes the lemma data, along
+	 * with a lemmas_info.json file that records which lemmatizer engine and
+	 * configuration produced it, and how fast it was.
+	 * @param output The output settings to use.
+	 * @param outputPath The directory to write the lemma data to.
+	 * @throws IOException If the data couldn't be written.
+	 * @throws InterruptedException If interrupted while waiting for annotation.
+	 */
+	public void finish(JsonOutput output, Path outputPath) throws IOException, InterruptedException {
+		scheduler.finish();
+		close();
+		writeInfo(output, outputPath);
+
+		// The workers are done, so their last changes can be added.
+		for (var workerDeltas : deltas) workerDeltas.flush(counts);
+		int lemmaCount = dictionary.size();
+		counts.ensureCapacity(lemmaCount);
+		int[][] totals = counts.counts;
+		Map<String, Map<String, Integer>> groupCounts = new LinkedHashMap<>();
+		for (int g = 0; g < groupNames.size(); g++) {
+			Map<String, Integer> lemmaCounts = new HashMap<>();
+			for (int id = 0; id < lemmaCount; id++) {
+				if (totals[g][id] > 0) lemmaCounts.put(dictionary.getLemma(id), totals[g][id]);
+			}
+			groupCounts.put(groupNames.get(g), lemmaCounts);
+		}
+
+		try (JsonWriter writer = output.open(output.resolve(outputPath, "lemmas.json"))) {
+			writer.beginObject();
+			for (var group : LEMMA_GROUPS.entrySet()) {
+				writer.name(group.getKey());
+				output.write(getLemmaData(group.getValue(), groupCounts.get(group.getKey())), writer);
+			}
+			writer.endObject();
+		}
+		try (JsonWriter writer = output.open(output.resolve(outputPath, "lemma_counts.json"))) {
+			writer.beginObject();
+			for (var group : groupCounts.entrySet()) {
+				writer.name(group.getKey()).beginObject();
+				for (var entry : group.getValue().entrySet()) {
+					writer.name(entry.getKey()).value(entry.getValue());
+				}
+				writer.endObject();
+			}
+			writer.endObject();
+		}
+	}
+
+	/**
+	 * Stops the annotation threads without waiting for them, and closes the
+	 * lemma cache. This is done by {@link #finish(JsonOutput, Path)}, so it
+	 * only needs to be called if that wasn't reached.
+	 * @throws IOException If the cache couldn't be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		scheduler.shutdown();
+		if (cache != null) cache.close();
+	}
+
+	private void writeInfo(JsonOutput output, Path outputPath) throws IOException {
+		double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+		JsonObject info = new JsonObject();
+		info.addProperty("engine", lemmatizer.name());
+		info.add("config", getConfigData(lemmatizer));
+		info.addProperty("workers", scheduler.getWorkerCount());
+		info.addProperty("documents", documentCount.get());
+		info.addProperty("tokens", tokenCount.get());
+		info.addProperty("seconds", seconds);
+		info.addProperty("documents_per_second", seconds > 0 ? documentCount.get() / seconds : 0);
+		info.addProperty("tokens_per_second", seconds > 0 ? tokenCount.get() / seconds : 0);
+		lemmatizer.getStatistics().forEach(info::addProperty);
+		System.out.printf(
+				"Lemmatized %d documents (%d tokens) with the %s engine in %.1f seconds.%n",
+				documentCount.get(), tokenCount.get(), lemmatizer.name(), seconds
+		);
+		output.write(info, output.resolve(outputPath, "lemmas_info.json"));
+	}
+
+	private static JsonObject getConfigData(Lemmatizer lemmatizer) {
+		JsonObject obj = new JsonObject();
+		Properties config = lemmatizer.config();
+		config.stringPropertyNames().stream().sorted()
+				.forEachOrdered(key -> obj.addProperty(key, config.getProperty(key)));
+		return obj;
+	}
+
+	static JsonObject getLemmaData(Set<String> tags, Map<String, Integer> lemmaCounts) {
+		JsonObject obj = new JsonObject();
+		JsonArray tagsArray = new JsonArray(tags.size());
+		tags.stream().sorted().forEachOrdered(tagsArray::add);
+		obj.add("tags", tagsArray);
+
+		// Serialize the data into a JSON object with key-value pairs being the lemmas and their frequencies.
+		JsonObject lemmasObj = new JsonObject();
+		List<Map.Entry<String, Integer>> values = lemmaCounts.entrySet().stream()
+				.filter(entry -> entry.getValue() >= MIN_LEMMA_COUNT) // Filter out all the garbage lemmas that don't occur much.
+				// Most frequent first, and equally-frequent lemmas in alphabetical order.
+				.sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+				.toList();
+		for (var value : values) {
+			lemmasObj.addProperty(value.getKey(), value.getValue());
+		}
+		obj.add("lemmas", lemmasObj);
+		return obj;
+	}
+
+	private static Map<String, Set<String>> lemmaGroups() {
+		Map<String, Set<String>> groups = new LinkedHashMap<>();
+		groups.put("all_tags", Set.of("existence", "technology", "process", "property"));
+		groups.put("existence", Set.of("existence"));
+		groups.put("technology", Set.of("technology"));
+		groups.put("process", Set.of("process"));
+		groups.put("property", Set.of("property"));
+		groups.put("not_ak", Set.of("not-ak"));
+		return Collections.unmodifiableMap(groups);
+	}
+
+	private static Set<String> loadStopWords() throws IOException {
+		try (var in = LemmaExporter.class.getClassLoader().getResourceAsStream("stopwords-en.txt")) {
+			if (in == null) throw new IOException("Couldn't load stopwords file from resources.");
+			var reader = new BufferedReader(new InputStreamReader(in));
+			String line;
+			Set<String> words = new HashSet<>();
+			while ((line = reader.readLine()) != null) {
+				words.add(line.strip());
+			}
+			return words;
+		}
+	}
+}
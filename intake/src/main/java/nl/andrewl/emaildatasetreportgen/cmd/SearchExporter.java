@@ -0,0 +1,275 @@
+package nl.andrewl.emaildatasetreportgen.cmd;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import nl.andrewl.email_indexer.data.EmailDataset;
+import nl.andrewl.email_indexer.data.search.EmailIndexSearcher;
+import nl.andrewl.emaildatasetreportgen.JsonOutput;
+import nl.andrewl.emaildatasetreportgen.metrics.Metrics;
+import nl.andrewl.emaildatasetreportgen.metrics.Stage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs Lucene search queries concurrently, and exports their results.
+ * <p>
+ *     Each query is exported at a list of cut-offs for threads and for
+ *     emails. Results are cached per query and kind (threads or emails), and
+ *     the deepest cut-off is requested first, so only it is ever searched for;
+ *     since Lucene returns results ranked by score, the results for any
+ *     shallower cut-off are a prefix of those, and are derived from them. The
+ *     cache also means that queries with identical text, but different names,
+ *     are only searched once.
+ * </p>
+ * <p>
+ *     All searches share a single {@link EmailIndexSearcher}, and run on a
+ *     fixed pool of threads. The time spent searching for each query is
+ *     recorded, and written along with the results.
+ * </p>
+ */
+public class SearchExporter {
+	public enum Kind {THREADS, EMAILS}
+
+	private record CacheKey(String query, Kind kind) {}
+
+	private record SearchResult(List<Long> ids, double millis) {}
+
+	private record CachedResults(int depth, CompletableFuture<SearchResult> result) {}
+
+	/**
+	 * The time taken by the searches that produced a query's results, in
+	 * milliseconds.
+	 */
+	public record QueryLatency(double threadsMillis, double emailsMillis) {
+		public double totalMillis() {
+			return threadsMillis + emailsMillis;
+		}
+	}
+
+	private final EmailDataset ds;
+	private final EmailIndexSearcher searcher = new EmailIndexSearcher();
+	private final List<Integer> threadCutoffs;
+	private final List<Integer> emailCutoffs;
+	private final ExecutorService executor;
+	private final Map<CacheKey, CachedResults> cache = new ConcurrentHashMap<>();
+	private final Map<String, QueryLatency> latencies = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new search exporter.
+	 * @param ds The dataset to search.
+	 * @param workers The number of searches to run concurrently.
+	 * @param threadCutoffs The numbers of top threads to export for each
+	 *                      query, in ascending order.
+	 * @param emailCutoffs The numbers of top emails to export for each query,
+	 *                     in ascending order.
+	 */
+	public SearchExporter(EmailDataset ds, int workers, List<Integer> threadCutoffs, List<Integer> emailCutoffs) {
+		this.ds = ds;
+		this.threadCutoffs = threadCutoffs;
+		this.emailCutoffs = emailCutoffs;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(workers, r -> {
+			Thread t = new Thread(r, "search-" + threadCount.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Gets the top results of a query, searching only if the cache doesn't
+	 * already hold at least {@code depth} results for it.
+	 * @param query The query.
+	 * @param kind The kind of results.
+	 * @param depth The cut-off; the maximum number of results.
+	 * @return A future that completes with the results.
+	 */
+	public CompletableFuture<List<Long>> getResults(String query, Kind kind, int depth) {
+		return getSearchResult(query, kind, depth).thenApply(SearchResult::ids);
+	}
+
+	private CompletableFuture<SearchResult> getSearchResult(String query, Kind kind, int depth) {
+		CachedResults cached = cache.compute(new CacheKey(query, kind), (key, existing) -> {
+			if (existing != null && existing.depth() >= depth) return existing;
+			return new CachedResults(depth, CompletableFuture.supplyAsync(() -> search(query, kind, depth), executor));
+		});
+		if (cached.depth() == depth) return cached.result();
+		return cached.result().thenApply(result -> new SearchResult(
+				result.ids().subList(0, Math.min(depth, result.ids().size())),
+				result.millis()
+		));
+	}
+
+	/**
+	 * Gets the results of a query at each of the given cut-offs, requesting
+	 * the deepest first, so that the others are derived from it.
+	 * @return A future that completes with the results by cut-off, in
+	 * ascending order.
+	 */
+	private CompletableFuture<SortedMap<Integer, SearchResult>> getCutoffResults(String query, Kind kind, List<Integer> cutoffs) {
+		Map<Integer, CompletableFuture<SearchResult>> futures = new LinkedHashMap<>();
+		for (int i = cutoffs.size() - 1; i >= 0; i--) {
+			futures.put(cutoffs.get(i), getSearchResult(query, kind, cutoffs.get(i)));
+		}
+		return CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new)).thenApply(v -> {
+			SortedMap<Integer, SearchResult> results = new TreeMap<>();
+			futures.forEach((cutoff, future) -> results.put(cutoff, future.join()));
+			return results;
+		});
+	}
+
+	private SearchResult search(String query, Kind kind, int depth) {
+		long start = System.nanoTime();
+		try {
+			List<Long> ids = switch (kind) {
+				case THREADS -> searcher.search(ds, query, depth);
+				case EMAILS -> searcher.searchEmails(ds, query, depth);
+			};
+			return new SearchResult(ids, (System.nanoTime() - start) / 1_000_000.0);
+		} catch (Exception e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Runs a query at the configured cut-offs, and records its latency. The
+	 * query's JSON data has the results at the deepest cut-offs as "threads"
+	 * and "emails", and the results at each cut-off as "thread_cutoffs" and
+	 * "email_cutoffs" objects.
+	 * @param queryName The name of the query.
+	 * @param query The query.
+	 * @return A future that completes with the query's JSON data.
+	 */
+	public CompletableFuture<JsonObject> runQuery(String queryName, String query) {
+		var threadsFuture = getCutoffResults(query, Kind.THREADS, threadCutoffs);
+		var emailsFuture = getCutoffResults(query, Kind.EMAILS, emailCutoffs);
+		return threadsFuture.thenCombine(emailsFuture, (threads, emails) -> {
+			SearchResult deepestThreads = threads.get(threads.lastKey());
+			SearchResult deepestEmails = emails.get(emails.lastKey());
+			latencies.put(queryName, new QueryLatency(deepestThreads.millis(), deepestEmails.millis()));
+			JsonObject queryData = new JsonObject();
+			queryData.addProperty("name", queryName);
+			queryData.addProperty("query", query);
+			queryData.add("threads", toJson(deepestThreads.ids()));
+			queryData.add("emails", toJson(deepestEmails.ids()));
+			JsonObject threadCutoffsObj = new JsonObject();
+			threads.forEach((cutoff, result) -> threadCutoffsObj.add(cutoff.toString(), toJson(result.ids())));
+			queryData.add("thread_cutoffs", threadCutoffsObj);
+			JsonObject emailCutoffsObj = new JsonObject();
+			emails.forEach((cutoff, result) -> emailCutoffsObj.add(cutoff.toString(), toJson(result.ids())));
+			queryData.add("email_cutoffs", emailCutoffsObj);
+			return queryData;
+		});
+	}
+
+	/**
+	 * Checks whether a query's previously exported JSON data has the results
+	 * at exactly the configured cut-offs.
+	 * @param queryData The query's JSON data.
+	 * @return True if the data has the same cut-offs.
+	 */
+	public boolean hasSameCutoffs(JsonObject queryData) {
+		return hasCutoffs(queryData, "thread_cutoffs", threadCutoffs)
+				&& hasCutoffs(queryData, "email_cutoffs", emailCutoffs);
+	}
+
+	private static boolean hasCutoffs(JsonObject queryData, String key, List<Integer> cutoffs) {
+		if (!queryData.has(key)) return false;
+		List<Integer> previousCutoffs = queryData.getAsJsonObject(key).keySet().stream().map(Integer::parseInt).toList();
+		return previousCutoffs.equals(cutoffs);
+	}
+
+	private static JsonArray toJson(List<Long> ids) {
+		JsonArray array = new JsonArray(ids.size());
+		for (var id : ids) array.add(id);
+		return array;
+	}
+
+	/**
+	 * Writes the results of a set of queries to searches.json, in the order of
+	 * the given map. Queries which have a precomputed result are written as-is,
+	 * and all others are run concurrently. Afterwards, the latency of each
+	 * query is printed, and written to searches_info.json.
+	 * @param output The JSON output settings.
+	 * @param outputPath The directory to write to.
+	 * @param queries A map of query names to queries.
+	 * @param precomputed A map of query names to results which don't need to
+	 *                    be run again.
+	 * @return The results of all queries, in order.
+	 * @throws Exception If a query fails, or the results couldn't be written.
+	 */
+	public List<JsonObject> export(
+			JsonOutput output,
+			Path outputPath,
+			Map<String, String> queries,
+			Map<String, JsonObject> precomputed
+	) throws Exception {
+		long start = System.nanoTime();
+		Stage stage = Metrics.stage("searches", queries.size());
+		Map<String, CompletableFuture<JsonObject>> results = new LinkedHashMap<>();
+		for (var entry : queries.entrySet()) {
+			JsonObject existing = precomputed.get(entry.getKey());
+			results.put(entry.getKey(), existing != null
+					? CompletableFuture.completedFuture(existing)
+					: runQuery(entry.getKey(), entry.getValue())
+			);
+		}
+		List<JsonObject> resultObjects = new ArrayList<>(results.size());
+		try (stage; JsonWriter writer = output.open(output.resolve(outputPath, "searches.json"))) {
+			writer.beginArray();
+			for (var result : results.values()) {
+				try {
+					JsonObject queryData = result.join();
+					output.write(queryData, writer);
+					resultObjects.add(queryData);
+					stage.addItem();
+				} catch (CompletionException e) {
+					throw e.getCause() instanceof Exception cause ? cause : e;
+				}
+			}
+			writer.endArray();
+		}
+		double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+		writeInfo(output, outputPath, seconds);
+		return resultObjects;
+	}
+
+	private void writeInfo(JsonOutput output, Path outputPath, double seconds) throws IOException {
+		List<Map.Entry<String, QueryLatency>> sorted = new ArrayList<>(latencies.entrySet());
+		sorted.sort(Map.Entry.<String, QueryLatency>comparingByValue(Comparator.comparingDouble(QueryLatency::totalMillis)).reversed());
+		JsonObject info = new JsonObject();
+		info.addProperty("seconds", seconds);
+		info.addProperty("queries_run", latencies.size());
+		JsonArray threadCutoffsArray = new JsonArray(threadCutoffs.size());
+		threadCutoffs.forEach(threadCutoffsArray::add);
+		info.add("thread_cutoffs", threadCutoffsArray);
+		JsonArray emailCutoffsArray = new JsonArray(emailCutoffs.size());
+		emailCutoffs.forEach(emailCutoffsArray::add);
+		info.add("email_cutoffs", emailCutoffsArray);
+		JsonObject queriesObj = new JsonObject();
+		for (var entry : sorted) {
+			JsonObject latency = new JsonObject();
+			latency.addProperty("threads_ms", entry.getValue().threadsMillis());
+			latency.addProperty("emails_ms", entry.getValue().emailsMillis());
+			queriesObj.add(entry.getKey(), latency);
+			System.out.printf(
+					"  %-40s %8.1f ms (threads %.1f ms, emails %.1f ms)%n",
+					entry.getKey(), entry.getValue().totalMillis(), entry.getValue().threadsMillis(), entry.getValue().emailsMillis()
+			);
+		}
+		info.add("queries", queriesObj);
+		System.out.printf("Ran %d search queries in %.1f seconds.%n", latencies.size(), seconds);
+		output.write(info, output.resolve(outputPath, "searches_info.json"));
+	}
+
+	/**
+	 * Stops the search threads.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,263 @@
+package nl.andrewl.emaildatasetreportgen.columnar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+import static nl.andrewl.emaildatasetreportgen.columnar.ColumnarFormat.*;
+
+/**
+ * Reads a binary columnar email file, as written by {@link ColumnarEmailWriter}.
+ * The file is memory-mapped, so only the pages of the columns that are
+ * actually accessed are ever read from disk. Emails are addressed by their
+ * row; use {@link #findRow(long)} to look up the row of an email id.
+ * <p>
+ *     The reader is safe to use from multiple threads.
+ * </p>
+ */
+public class ColumnarEmailReader implements Closeable {
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	private final FileChannel channel;
+	private final int rowCount;
+	private final int tagWords;
+	private final List<String> tagNames;
+	private final Map<Section, MappedSection> sections = new EnumMap<>(Section.class);
+
+	private ColumnarEmailReader(FileChannel channel) throws IOException {
+		this.channel = channel;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(header, 0);
+		byte[] magic = new byte[MAGIC.length];
+		header.flip().get(magic);
+		if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a columnar email file.");
+		int version = header.getInt();
+		if (version != VERSION) throw new IOException("Unsupported columnar email file version " + version + ".");
+		int sectionCount = header.getInt();
+		if (sectionCount != Section.values().length) throw new IOException("Unexpected section count " + sectionCount + ".");
+		this.rowCount = Math.toIntExact(header.getLong());
+
+		ByteBuffer table = ByteBuffer.allocate(sectionCount * SECTION_ENTRY_SIZE);
+		readFully(table, HEADER_SIZE);
+		table.flip();
+		for (var section : Section.values()) {
+			sections.put(section, new MappedSection(channel, table.getLong(), table.getLong()));
+		}
+
+		MappedSection names = sections.get(Section.TAG_NAMES);
+		int tagCount = names.getInt(0);
+		List<String> tagNamesList = new ArrayList<>(tagCount);
+		long pos = 4;
+		for (int i = 0; i < tagCount; i++) {
+			int length = names.getInt(pos);
+			tagNamesList.add(names.getString(pos + 4, length));
+			pos += 4 + length;
+		}
+		this.tagNames = Collections.unmodifiableList(tagNamesList);
+		this.tagWords = tagWords(tagCount);
+	}
+
+	/**
+	 * Opens a columnar email file for reading.
+	 * @param file The file to open.
+	 * @return The reader.
+	 * @throws IOException If the file couldn't be opened, or isn't valid.
+	 */
+	public static ColumnarEmailReader open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return new ColumnarEmailReader(channel);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The number of emails in the file.
+	 */
+	public int size() {
+		return rowCount;
+	}
+
+	/**
+	 * @return The names of all tags, in the order of the tag bitmaps.
+	 */
+	public List<String> getTagNames() {
+		return tagNames;
+	}
+
+	/**
+	 * Finds the row of an email, using the sorted id index.
+	 * @param id The email's id.
+	 * @return The email's row, or -1 if there's no email with the given id.
+	 */
+	public int findRow(long id) {
+		MappedSection ids = sections.get(Section.ID_INDEX_IDS);
+		int low = 0;
+		int high = rowCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midId = ids.getLong((long) mid * 8);
+			if (midId < id) {
+				low = mid + 1;
+			} else if (midId > id) {
+				high = mid - 1;
+			} else {
+				return sections.get(Section.ID_INDEX_ROWS).getInt((long) mid * 4);
+			}
+		}
+		return -1;
+	}
+
+	public long getId(int row) {
+		return sections.get(Section.ID).getLong(checkRow(row) * 8L);
+	}
+
+	/**
+	 * @return The id of the email's parent, or null if it has none.
+	 */
+	public Long getParentId(int row) {
+		long parentId = sections.get(Section.PARENT_ID).getLong(checkRow(row) * 8L);
+		return parentId == NULL_ID ? null : parentId;
+	}
+
+	public OffsetDateTime getDate(int row) {
+		long millis = sections.get(Section.DATE).getLong(checkRow(row) * 8L);
+		int offsetSeconds = sections.get(Section.DATE_OFFSET).getInt(row * 4L);
+		return OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.ofTotalSeconds(offsetSeconds));
+	}
+
+	public String getMessageId(int row) {
+		return getString(Section.MESSAGE_ID_OFFSETS, Section.MESSAGE_ID_DATA, row);
+	}
+
+	public String getSubject(int row) {
+		return getString(Section.SUBJECT_OFFSETS, Section.SUBJECT_DATA, row);
+	}
+
+	public String getInReplyTo(int row) {
+		return getString(Section.IN_REPLY_TO_OFFSETS, Section.IN_REPLY_TO_DATA, row);
+	}
+
+	public String getSentFrom(int row) {
+		return getString(Section.SENT_FROM_OFFSETS, Section.SENT_FROM_DATA, row);
+	}
+
+	public String getBody(int row) {
+		return getString(Section.BODY_OFFSETS, Section.BODY_DATA, row);
+	}
+
+	/**
+	 * Checks if an email has a tag, without decoding any strings.
+	 * @param row The email's row.
+	 * @param tagIndex The index of the tag in {@link #getTagNames()}.
+	 * @return True if the email has the tag.
+	 */
+	public boolean hasTag(int row, int tagIndex) {
+		long word = sections.get(Section.TAGS).getLong(((long) checkRow(row) * tagWords + tagIndex / 64) * 8);
+		return (word & (1L << (tagIndex % 64))) != 0;
+	}
+
+	/**
+	 * @return The names of the email's tags, in tag order.
+	 */
+	public List<String> getTags(int row) {
+		List<String> tags = new ArrayList<>();
+		for (int i = 0; i < tagNames.size(); i++) {
+			if (hasTag(row, i)) tags.add(tagNames.get(i));
+		}
+		return tags;
+	}
+
+	private String getString(Section offsetsSection, Section dataSection, int row) {
+		MappedSection offsets = sections.get(offsetsSection);
+		long start = offsets.getLong(checkRow(row) * 8L) & ~NULL_BIT;
+		long end = offsets.getLong((row + 1) * 8L);
+		if ((end & NULL_BIT) != 0) return null;
+		return sections.get(dataSection).getString(start, Math.toIntExact(end - start));
+	}
+
+	private int checkRow(int row) {
+		if (row < 0 || row >= rowCount) throw new IndexOutOfBoundsException("Invalid row " + row + " of " + rowCount + ".");
+		return row;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) throw new IOException("Unexpected end of file.");
+			position += read;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * A section of the file, mapped in segments so that sections larger than
+	 * 2GB can be addressed. Absolute reads never modify a buffer's state, so
+	 * they're safe to share between threads.
+	 */
+	private static class MappedSection {
+		private final MappedByteBuffer[] segments;
+
+		MappedSection(FileChannel channel, long offset, long length) throws IOException {
+			int count = (int) Math.max(1, (length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			segments = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = i * SEGMENT_SIZE;
+				long size = Math.min(SEGMENT_SIZE, length - start);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start, size);
+			}
+		}
+
+		long getLong(long pos) {
+			int segment = (int) (pos / SEGMENT_SIZE);
+			int index = (int) (pos % SEGMENT_SIZE);
+			if (index + 8 <= SEGMENT_SIZE) return segments[segment].getLong(index);
+			long value = 0;
+			for (int i = 0; i < 8; i++) value = (value << 8) | (getByte(pos + i) & 0xFF);
+			return value;
+		}
+
+		int getInt(long pos) {
+			int segment = (int) (pos / SEGMENT_SIZE);
+			int index = (int) (pos % SEGMENT_SIZE);
+			if (index + 4 <= SEGMENT_SIZE) return segments[segment].getInt(index);
+			int value = 0;
+			for (int i = 0; i < 4; i++) value = (value << 8) | (getByte(pos + i) & 0xFF);
+			return value;
+		}
+
+		byte getByte(long pos) {
+			return segments[(int) (pos / SEGMENT_SIZE)].get((int) (pos % SEGMENT_SIZE));
+		}
+
+		String getString(long pos, int length) {
+			byte[] bytes = new byte[length];
+			int segment = (int) (pos / SEGMENT_SIZE);
+			int index = (int) (pos % SEGMENT_SIZE);
+			int copied = 0;
+			while (copied < length) {
+				int n = (int) Math.min(length - copied, segments[segment].capacity() - index);
+				segments[segment].get(index, bytes, copied, n);
+				copied += n;
+				segment++;
+				index = 0;
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package nl.andrewl.emaildatasetreportgen.columnar;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import nl.andrewl.email_indexer.data.EmailEntry;
+import nl.andrewl.email_indexer.data.Tag;
+import nl.andrewl.emaildatasetreportgen.DatasetEmailConsumer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static nl.andrewl.emaildatasetreportgen.columnar.ColumnarFormat.*;
+
+/**
+ * Consumer that writes each email it receives to a binary columnar file, as
+ * described by {@link ColumnarFormat}. While emails are being received, each
+ * column is streamed to its own temporary file; when the writer is closed,
+ * the columns are assembled into the final file.
+ */
+public class ColumnarEmailWriter implements DatasetEmailConsumer, Closeable {
+	private static final Section[][] STRING_COLUMNS = {
+			{Section.MESSAGE_ID_OFFSETS, Section.MESSAGE_ID_DATA},
+			{Section.SUBJECT_OFFSETS, Section.SUBJECT_DATA},
+			{Section.IN_REPLY_TO_OFFSETS, Section.IN_REPLY_TO_DATA},
+			{Section.SENT_FROM_OFFSETS, Section.SENT_FROM_DATA},
+			{Section.BODY_OFFSETS, Section.BODY_DATA}
+	};
+
+	private final Path file;
+	private final Path tmpDir;
+	private final List<String> tagNames;
+	private final Map<String, Integer> tagIndexes = new HashMap<>();
+	private final int tagWords;
+	private final Map<Section, DataOutputStream> columns = new EnumMap<>(Section.class);
+	private final Map<Section, Long> dataSizes = new EnumMap<>(Section.class);
+	private long[] ids = new long[1024];
+	private int rowCount = 0;
+
+	/**
+	 * Creates a new writer.
+	 * @param file The file to write.
+	 * @param tagNames The names of all tags in the dataset.
+	 * @throws IOException If the temporary column files couldn't be created.
+	 */
+	public ColumnarEmailWriter(Path file, List<String> tagNames) throws IOException {
+		this.file = file;
+		this.tmpDir = Files.createTempDirectory(file.toAbsolutePath().getParent(), file.getFileName() + ".tmp");
+		this.tagNames = List.copyOf(tagNames);
+		for (int i = 0; i < tagNames.size(); i++) tagIndexes.put(tagNames.get(i), i);
+		this.tagWords = tagWords(tagNames.size());
+		for (var section : List.of(Section.ID, Section.PARENT_ID, Section.DATE, Section.DATE_OFFSET, Section.TAGS)) {
+			columns.put(section, openColumn(section));
+		}
+		for (var pair : STRING_COLUMNS) {
+			DataOutputStream offsets = openColumn(pair[0]);
+			offsets.writeLong(0);
+			columns.put(pair[0], offsets);
+			columns.put(pair[1], openColumn(pair[1]));
+			dataSizes.put(pair[1], 0L);
+		}
+	}
+
+	@Override
+	public void consumeEmail(EmailEntry email, Collection<Tag> tags) throws IOException {
+		write(
+				email.id(),
+				email.parentId(),
+				email.messageId(),
+				email.subject(),
+				email.inReplyTo(),
+				email.sentFrom(),
+				OffsetDateTime.from(email.date()),
+				email.body(),
+				tags.stream().map(Tag::name).toList()
+		);
+	}
+
+	/**
+	 * Writes a single email as the next row.
+	 * @throws IOException If an error occurs while writing.
+	 */
+	public void write(
+			long id,
+			Long parentId,
+			String messageId,
+			String subject,
+			String inReplyTo,
+			String sentFrom,
+			OffsetDateTime date,
+			String body,
+			Collection<String> emailTagNames
+	) throws IOException {
+		columns.get(Section.ID).writeLong(id);
+		columns.get(Section.PARENT_ID).writeLong(parentId == null ? NULL_ID : parentId);
+		columns.get(Section.DATE).writeLong(date.toInstant().toEpochMilli());
+		columns.get(Section.DATE_OFFSET).writeInt(date.getOffset().getTotalSeconds());
+		String[] values = {messageId, subject, inReplyTo, sentFrom, body};
+		for (int i = 0; i < values.length; i++) {
+			writeString(STRING_COLUMNS[i][0], STRING_COLUMNS[i][1], values[i]);
+		}
+		long[] bitmap = new long[tagWords];
+		for (var tagName : emailTagNames) {
+			Integer idx = tagIndexes.get(tagName);
+			if (idx != null) bitmap[idx / 64] |= 1L << (idx % 64);
+		}
+		DataOutputStream tagsOut = columns.get(Section.TAGS);
+		for (long word : bitmap) tagsOut.writeLong(word);
+
+		if (rowCount == ids.length) ids = Arrays.copyOf(ids, ids.length * 2);
+		ids[rowCount++] = id;
+	}
+
+	/**
+	 * Writes an already-serialized email, such as one from a previous JSON
+	 * export, as the next row.
+	 * @param email The email's JSON object.
+	 * @throws IOException If an error occurs while writing.
+	 */
+	public void copyEmail(JsonObject email) throws IOException {
+		List<String> emailTagNames = new ArrayList<>();
+		for (var tag : email.getAsJsonArray("tags")) emailTagNames.add(tag.getAsString());
+		write(
+				email.get("id").getAsLong(),
+				email.get("parent_id").isJsonNull() ? null : email.get("parent_id").getAsLong(),
+				getString(email, "message_id"),
+				getString(email, "subject"),
+				getString(email, "in_reply_to"),
+				getString(email, "sent_from"),
+				OffsetDateTime.parse(email.get("date").getAsString()),
+				getString(email, "body"),
+				emailTagNames
+		);
+	}
+
+	private static String getString(JsonObject obj, String name) {
+		JsonElement element = obj.get(name);
+		return element == null || element.isJsonNull() ? null : element.getAsString();
+	}
+
+	private void writeString(Section offsetsSection, Section dataSection, String value) throws IOException {
+		long size = dataSizes.get(dataSection);
+		if (value != null) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			columns.get(dataSection).write(bytes);
+			size += bytes.length;
+			dataSizes.put(dataSection, size);
+		}
+		columns.get(offsetsSection).writeLong(value == null ? size | NULL_BIT : size);
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (var out : columns.values()) out.close();
+		Map<Section, byte[]> computed = new EnumMap<>(Section.class);
+		computed.put(Section.TAG_NAMES, tagNamesSection());
+		int[] sortedRows = IntStream.range(0, rowCount).boxed()
+				.sorted(Comparator.comparingLong(row -> ids[row]))
+				.mapToInt(Integer::intValue)
+				.toArray();
+		ByteBuffer indexIds = ByteBuffer.allocate(rowCount * 8);
+		ByteBuffer indexRows = ByteBuffer.allocate(rowCount * 4);
+		for (int row : sortedRows) {
+			indexIds.putLong(ids[row]);
+			indexRows.putInt(row);
+		}
+		computed.put(Section.ID_INDEX_IDS, indexIds.array());
+		computed.put(Section.ID_INDEX_ROWS, indexRows.array());
+
+		Section[] sections = Section.values();
+		try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer table = ByteBuffer.allocate(sections.length * SECTION_ENTRY_SIZE);
+			long position = align(HEADER_SIZE + table.capacity());
+			for (var section : sections) {
+				long length;
+				if (computed.containsKey(section)) {
+					byte[] bytes = computed.get(section);
+					writeFully(channel, ByteBuffer.wrap(bytes), position);
+					length = bytes.length;
+				} else {
+					Path columnFile = columnFile(section);
+					try (var in = FileChannel.open(columnFile, StandardOpenOption.READ)) {
+						length = in.size();
+						long transferred = 0;
+						while (transferred < length) {
+							transferred += in.transferTo(transferred, length - transferred, channel.position(position + transferred));
+						}
+					}
+					Files.delete(columnFile);
+				}
+				table.putLong(position);
+				table.putLong(length);
+				position = align(position + length);
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.put(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(sections.length);
+			header.putLong(rowCount);
+			writeFully(channel, header.flip(), 0);
+			writeFully(channel, table.flip(), HEADER_SIZE);
+		}
+		Files.delete(tmpDir);
+	}
+
+	private byte[] tagNamesSection() throws IOException {
+		var bytesOut = new ByteArrayOutputStream();
+		try (var out = new DataOutputStream(bytesOut)) {
+			out.writeInt(tagNames.size());
+			for (var name : tagNames) {
+				byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+		return bytesOut.toByteArray();
+	}
+
+	private DataOutputStream openColumn(Section section) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(columnFile(section)), 1 << 16));
+	}
+
+	private Path columnFile(Section section) {
+		return tmpDir.resolve(section.name().toLowerCase());
+	}
+
+	private static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+}
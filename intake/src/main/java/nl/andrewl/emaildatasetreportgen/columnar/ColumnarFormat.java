@@ -0,0 +1,77 @@
+package nl.andrewl.emaildatasetreportgen.columnar;
+
+/**
+ * Constants describing the binary columnar email file format. All values are
+ * big-endian. A file is laid out as follows:
+ * <ol>
+ *     <li>An 8-byte magic value, "EMAILCOL".</li>
+ *     <li>An int format version, and an int number of sections.</li>
+ *     <li>A long number of rows (emails).</li>
+ *     <li>The section table: for each {@link Section}, in order, a long
+ *     offset and a long length in bytes.</li>
+ *     <li>The sections themselves, each starting at an 8-byte aligned
+ *     offset.</li>
+ * </ol>
+ * Fixed-width columns hold one value per row. String columns are split into
+ * an offsets section of {@code rows + 1} longs, and a data section of UTF-8
+ * bytes; the bytes of row {@code i} lie between offsets {@code i} and
+ * {@code i + 1}, and if {@link #NULL_BIT} is set on offset {@code i + 1}, the
+ * value is null. The tags section holds a bitmap of {@code tagWords} longs
+ * per row, where bit {@code t} is set if the email has the tag at index
+ * {@code t} of the tag names section.
+ */
+public final class ColumnarFormat {
+	public static final byte[] MAGIC = {'E', 'M', 'A', 'I', 'L', 'C', 'O', 'L'};
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = MAGIC.length + 4 + 4 + 8;
+	public static final int SECTION_ENTRY_SIZE = 16;
+
+	/**
+	 * The value stored in the parent id column for emails without a parent.
+	 */
+	public static final long NULL_ID = Long.MIN_VALUE;
+	/**
+	 * The bit set on a string column's end offset when the value is null.
+	 */
+	public static final long NULL_BIT = 1L << 63;
+
+	public enum Section {
+		/** An int count, then for each tag an int length and UTF-8 bytes. */
+		TAG_NAMES,
+		/** A long per row. */
+		ID,
+		/** A long per row, or {@link #NULL_ID}. */
+		PARENT_ID,
+		/** A long per row: milliseconds since the epoch. */
+		DATE,
+		/** An int per row: the date's UTC offset, in seconds. */
+		DATE_OFFSET,
+		MESSAGE_ID_OFFSETS,
+		MESSAGE_ID_DATA,
+		SUBJECT_OFFSETS,
+		SUBJECT_DATA,
+		IN_REPLY_TO_OFFSETS,
+		IN_REPLY_TO_DATA,
+		SENT_FROM_OFFSETS,
+		SENT_FROM_DATA,
+		BODY_OFFSETS,
+		BODY_DATA,
+		/** {@code tagWords} longs per row. */
+		TAGS,
+		/** All ids, sorted ascending, for binary search. */
+		ID_INDEX_IDS,
+		/** An int per row: the row of the id at the same position in {@link #ID_INDEX_IDS}. */
+		ID_INDEX_ROWS
+	}
+
+	/**
+	 * Gets the number of longs needed per row for a tag bitmap.
+	 * @param tagCount The number of tags.
+	 * @return The number of longs.
+	 */
+	public static int tagWords(int tagCount) {
+		return Math.max(1, (tagCount + 63) / 64);
+	}
+
+	private ColumnarFormat() {}
+}
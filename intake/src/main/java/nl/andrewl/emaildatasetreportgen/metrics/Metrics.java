@@ -0,0 +1,177 @@
+package nl.andrewl.emaildatasetreportgen.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import jdk.jfr.FlightRecorder;
+import nl.andrewl.emaildatasetreportgen.JsonOutput;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide stage metrics for a report generation run.
+ * <p>
+ *     Between {@link #begin(Path)} and {@link #end()}, every {@link Stage} is
+ *     recorded, and the metrics file is rewritten every few seconds, so that
+ *     the progress, throughput and ETA of a long run can be followed while it
+ *     runs. The progress of running stages is also printed now and then.
+ * </p>
+ * <p>
+ *     Stages are always recorded as JFR events ({@link StageEvent} when a
+ *     stage ends, and a periodic {@link StageProgressEvent} for running
+ *     stages), so they can be correlated with GC and CPU profiles, for example
+ *     with {@code java -XX:StartFlightRecording=filename=report.jfr ...}.
+ * </p>
+ */
+public final class Metrics {
+	public static final String FILENAME = "metrics.json";
+	private static final int SAMPLE_INTERVAL_MILLIS = 250;
+	private static final int WRITE_INTERVAL_SECONDS = 5;
+	private static final int PRINT_INTERVAL_SECONDS = 30;
+
+	private static final List<Stage> runningStages = new CopyOnWriteArrayList<>();
+	private static final List<Stage> stages = new CopyOnWriteArrayList<>();
+	private static final AtomicLong heapHighWaterMark = new AtomicLong();
+	private static volatile Path file;
+	private static volatile Instant started;
+	private static volatile Instant finished;
+	private static ScheduledExecutorService sampler;
+
+	static {
+		FlightRecorder.addPeriodicEvent(StageProgressEvent.class, () -> {
+			for (var stage : runningStages) stage.commitProgressEvent();
+		});
+	}
+
+	private Metrics() {}
+
+	/**
+	 * Starts recording a run's stages.
+	 * @param metricsFile The file to write the metrics to.
+	 */
+	public static synchronized void begin(Path metricsFile) {
+		stages.clear();
+		heapHighWaterMark.set(0);
+		file = metricsFile;
+		started = Instant.now();
+		finished = null;
+		sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "metrics");
+			t.setDaemon(true);
+			return t;
+		});
+		sampler.scheduleAtFixedRate(Metrics::sampleHeap, 0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		sampler.scheduleAtFixedRate(Metrics::tryWrite, WRITE_INTERVAL_SECONDS, WRITE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		sampler.scheduleAtFixedRate(Metrics::printProgress, PRINT_INTERVAL_SECONDS, PRINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops recording, and writes the final metrics file.
+	 * @throws IOException If the metrics file couldn't be written.
+	 */
+	public static synchronized void end() throws IOException {
+		if (file == null) return;
+		sampler.shutdownNow();
+		finished = Instant.now();
+		write();
+		System.out.println("Stage metrics written to " + file + ".");
+		file = null;
+	}
+
+	/**
+	 * Starts a new stage.
+	 * @param name The name of the stage. Sub-stages are named like "scan.read".
+	 * @param expectedItems The number of items the stage is expected to
+	 *                      process, or 0 if unknown.
+	 * @return The stage, which must be closed when it's done.
+	 */
+	public static Stage stage(String name, long expectedItems) {
+		Stage stage = new Stage(name, expectedItems);
+		runningStages.add(stage);
+		// Outside a run, stages are only recorded as JFR events.
+		if (file != null) stages.add(stage);
+		return stage;
+	}
+
+	public static Stage stage(String name) {
+		return stage(name, 0);
+	}
+
+	static void stageClosed(Stage stage) {
+		runningStages.remove(stage);
+	}
+
+	static long heapUsed() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static void sampleHeap() {
+		heapHighWaterMark.accumulateAndGet(heapUsed(), Math::max);
+		for (var stage : runningStages) stage.sampleHeap();
+	}
+
+	private static void printProgress() {
+		for (var stage : runningStages) {
+			System.out.println("[metrics] " + stage);
+		}
+	}
+
+	private static void tryWrite() {
+		try {
+			write();
+		} catch (IOException e) {
+			System.err.println("Couldn't write metrics: " + e.getMessage());
+		}
+	}
+
+	private static synchronized void write() throws IOException {
+		Path target = file;
+		if (target == null) return;
+		JsonObject obj = new JsonObject();
+		obj.addProperty("started", started.toString());
+		obj.addProperty("updated", Instant.now().toString());
+		obj.addProperty("finished", finished == null ? null : finished.toString());
+		obj.addProperty("seconds", ((finished == null ? Instant.now() : finished).toEpochMilli() - started.toEpochMilli()) / 1000.0);
+		obj.addProperty("heap_max_bytes", Runtime.getRuntime().maxMemory());
+		long highWaterMark = heapHighWaterMark.get();
+		JsonArray stagesArray = new JsonArray();
+		for (var stage : new ArrayList<>(stages)) {
+			stagesArray.add(stage.toJson());
+			highWaterMark = Math.max(highWaterMark, stage.getHeapHighWaterMark());
+		}
+		obj.addProperty("heap_high_water_mark_bytes", highWaterMark);
+		obj.addProperty("heap_pool_peak_bytes", heapPoolPeak());
+		obj.add("stages", stagesArray);
+		// Write to a temporary file first, so that readers never see a partial file.
+		Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+		JsonOutput.DEFAULT.write(obj, tmp);
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Sums the peak usage of each heap memory pool, as tracked by the JVM. The
+	 * pools don't necessarily peak at the same time, so this is an upper bound
+	 * on the peak heap usage, which unlike the sampled high-water mark never
+	 * misses a short spike.
+	 */
+	private static long heapPoolPeak() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+}
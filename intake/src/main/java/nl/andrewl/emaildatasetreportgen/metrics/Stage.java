@@ -0,0 +1,206 @@
+package nl.andrewl.emaildatasetreportgen.metrics;
+
+import com.google.gson.JsonObject;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A named, timed stage of the report generation, which counts the items it
+ * has processed. Stages are obtained from {@link Metrics#stage(String, long)}
+ * and must be closed when done, preferably with try-with-resources. Items may
+ * be added from any thread. A stage may also have gauges, like the depth of
+ * a queue, which are read whenever the stage's progress is reported.
+ */
+public final class Stage implements AutoCloseable {
+	private final String name;
+	private final String thread;
+	private final Instant started;
+	private final long startNanos;
+	private final LongAdder items = new LongAdder();
+	private final AtomicLong heapHighWaterMark = new AtomicLong();
+	private final StageEvent event = new StageEvent();
+	private final Map<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+	private volatile long expectedItems;
+	private volatile Instant finished;
+	private volatile long endNanos;
+
+	Stage(String name, long expectedItems) {
+		this.name = name;
+		this.thread = Thread.currentThread().getName();
+		this.started = Instant.now();
+		this.startNanos = System.nanoTime();
+		this.expectedItems = expectedItems;
+		sampleHeap();
+		event.begin();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Adds to the number of items this stage has processed.
+	 * @param count The number of items.
+	 */
+	public void addItems(long count) {
+		items.add(count);
+	}
+
+	public void addItem() {
+		items.increment();
+	}
+
+	public long getItems() {
+		return items.sum();
+	}
+
+	/**
+	 * Adds a gauge, whose current value is included whenever this stage's
+	 * progress is reported. Once the stage is closed, the gauge's last value
+	 * is kept.
+	 * @param name The name of the gauge, like "queue_depth".
+	 * @param value The supplier of the gauge's value.
+	 */
+	public void addGauge(String name, Supplier<? extends Number> value) {
+		gauges.put(name, value);
+	}
+
+	/**
+	 * Sets the number of items this stage is expected to process, which is
+	 * used to estimate the remaining time.
+	 * @param expectedItems The expected number of items, or 0 if unknown.
+	 */
+	public void setExpectedItems(long expectedItems) {
+		this.expectedItems = expectedItems;
+	}
+
+	public long getExpectedItems() {
+		return expectedItems;
+	}
+
+	public boolean isRunning() {
+		return finished == null;
+	}
+
+	public double getSeconds() {
+		return ((isRunning() ? System.nanoTime() : endNanos) - startNanos) / 1_000_000_000.0;
+	}
+
+	public double getItemsPerSecond() {
+		double seconds = getSeconds();
+		return seconds > 0 ? getItems() / seconds : 0;
+	}
+
+	/**
+	 * Estimates the time until this stage is done, from its average rate so far.
+	 * @return The estimated number of seconds remaining, or -1 if unknown.
+	 */
+	public double getEtaSeconds() {
+		if (!isRunning()) return 0;
+		long expected = expectedItems;
+		double rate = getItemsPerSecond();
+		if (expected <= 0 || rate <= 0) return -1;
+		return Math.max(0, expected - getItems()) / rate;
+	}
+
+	/**
+	 * Gets the highest heap usage seen while this stage ran. The heap is
+	 * sampled periodically, so short spikes between samples may be missed.
+	 * @return The heap high-water mark, in bytes.
+	 */
+	public long getHeapHighWaterMark() {
+		return heapHighWaterMark.get();
+	}
+
+	void sampleHeap() {
+		heapHighWaterMark.accumulateAndGet(Metrics.heapUsed(), Math::max);
+	}
+
+	/**
+	 * Ends this stage, and records its JFR event. Closing a stage twice has no effect.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!isRunning()) return;
+		sampleHeap();
+		gauges.replaceAll((gaugeName, value) -> {
+			Number last = value.get();
+			return () -> last;
+		});
+		endNanos = System.nanoTime();
+		finished = Instant.now();
+		event.end();
+		if (event.shouldCommit()) {
+			event.stage = name;
+			event.items = getItems();
+			event.itemsPerSecond = getItemsPerSecond();
+			event.heapHighWaterMark = getHeapHighWaterMark();
+			event.commit();
+		}
+		Metrics.stageClosed(this);
+	}
+
+	void commitProgressEvent() {
+		StageProgressEvent progress = new StageProgressEvent();
+		progress.stage = name;
+		progress.items = getItems();
+		progress.expectedItems = expectedItems;
+		progress.itemsPerSecond = getItemsPerSecond();
+		progress.etaSeconds = (long) Math.ceil(getEtaSeconds());
+		progress.heapUsed = Metrics.heapUsed();
+		progress.commit();
+	}
+
+	JsonObject toJson() {
+		JsonObject obj = new JsonObject();
+		obj.addProperty("name", name);
+		obj.addProperty("thread", thread);
+		obj.addProperty("started", started.toString());
+		obj.addProperty("finished", finished == null ? null : finished.toString());
+		obj.addProperty("seconds", getSeconds());
+		obj.addProperty("items", getItems());
+		obj.addProperty("expected_items", expectedItems > 0 ? expectedItems : null);
+		obj.addProperty("items_per_second", getItemsPerSecond());
+		double eta = getEtaSeconds();
+		obj.addProperty("eta_seconds", isRunning() && eta >= 0 ? eta : null);
+		obj.addProperty("heap_high_water_mark_bytes", getHeapHighWaterMark());
+		if (!gauges.isEmpty()) {
+			JsonObject gaugesObj = new JsonObject();
+			gauges.entrySet().stream()
+					.sorted(Map.Entry.comparingByKey())
+					.forEach(gauge -> gaugesObj.addProperty(gauge.getKey(), gauge.getValue().get()));
+			obj.add("gauges", gaugesObj);
+		}
+		return obj;
+	}
+
+	/**
+	 * Formats a one-line summary of this stage's progress.
+	 * @return The summary.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(name).append(": ");
+		long expected = expectedItems;
+		sb.append(getItems());
+		if (expected > 0) sb.append(" of ").append(expected);
+		sb.append(String.format(" items, %.1f items/sec, %.0fs elapsed", getItemsPerSecond(), getSeconds()));
+		double eta = getEtaSeconds();
+		if (isRunning() && eta >= 0) sb.append(String.format(", ETA %.0fs", eta));
+		sb.append(String.format(", heap high-water %.0f MB", getHeapHighWaterMark() / (1024.0 * 1024.0)));
+		gauges.entrySet().stream()
+				.sorted(Map.Entry.comparingByKey())
+				.forEach(gauge -> sb.append(", ").append(gauge.getKey()).append(' ').append(formatGauge(gauge.getValue().get())));
+		return sb.toString();
+	}
+
+	private static String formatGauge(Number value) {
+		if (value instanceof Double || value instanceof Float) return String.format("%.2f", value.doubleValue());
+		return value.toString();
+	}
+}
@@ -0,0 +1,27 @@
+package nl.andrewl.emaildatasetreportgen.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event recorded for each completed stage. Its duration is the stage's
+ * duration, so it lines up with GC and CPU events in the same recording.
+ */
+@Name("nl.andrewl.emaildatasetreportgen.Stage")
+@Label("Report Stage")
+@Category("Email Dataset Report Gen")
+@Description("A stage of the report generation.")
+@StackTrace(false)
+class StageEvent extends Event {
+	@Label("Stage")
+	String stage;
+
+	@Label("Items")
+	long items;
+
+	@Label("Items per Second")
+	double itemsPerSecond;
+
+	@Label("Heap High-Water Mark")
+	@DataAmount
+	long heapHighWaterMark;
+}
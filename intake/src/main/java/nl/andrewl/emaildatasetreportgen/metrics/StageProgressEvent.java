@@ -0,0 +1,34 @@
+package nl.andrewl.emaildatasetreportgen.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * Periodic JFR event with the progress of each running stage.
+ */
+@Name("nl.andrewl.emaildatasetreportgen.StageProgress")
+@Label("Report Stage Progress")
+@Category("Email Dataset Report Gen")
+@Description("The progress of a running stage of the report generation.")
+@Period("1 s")
+@StackTrace(false)
+class StageProgressEvent extends Event {
+	@Label("Stage")
+	String stage;
+
+	@Label("Items")
+	long items;
+
+	@Label("Expected Items")
+	long expectedItems;
+
+	@Label("Items per Second")
+	double itemsPerSecond;
+
+	@Label("Estimated Time Remaining")
+	@Timespan(Timespan.SECONDS)
+	long etaSeconds;
+
+	@Label("Heap Used")
+	@DataAmount
+	long heapUsed;
+}
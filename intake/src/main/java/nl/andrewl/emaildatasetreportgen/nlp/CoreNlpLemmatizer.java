@@ -0,0 +1,45 @@
+package nl.andrewl.emaildatasetreportgen.nlp;
+
+import edu.stanford.nlp.pipeline.CoreDocument;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Lemmatizer that runs the full CoreNLP tokenize, sentence split, part of
+ * speech and lemma pipeline on each text.
+ */
+public class CoreNlpLemmatizer implements Lemmatizer {
+	public static final String NAME = "corenlp";
+
+	private final Properties props;
+	private final StanfordCoreNLP pipeline;
+
+	public CoreNlpLemmatizer() {
+		this.props = new Properties();
+		props.setProperty("annotators", "tokenize,ssplit,pos,lemma");
+		this.pipeline = new StanfordCoreNLP(props);
+		props.setProperty("lemmatizer", NAME);
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	@Override
+	public Properties config() {
+		return props;
+	}
+
+	@Override
+	public List<String> lemmatize(String text) {
+		CoreDocument doc = new CoreDocument(text);
+		pipeline.annotate(doc);
+		List<String> lemmas = new ArrayList<>(doc.tokens().size());
+		for (var token : doc.tokens()) lemmas.add(token.lemma());
+		return lemmas;
+	}
+}
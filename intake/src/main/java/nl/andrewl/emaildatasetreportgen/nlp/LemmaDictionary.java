@@ -0,0 +1,65 @@
+package nl.andrewl.emaildatasetreportgen.nlp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe dictionary that assigns each distinct lemma a dense integer
+ * id, so lemmas can be counted with primitive arrays. Whether a lemma is a
+ * stop word is decided once, when it's first seen, instead of for every token;
+ * stop words are remembered with the id {@link #STOP_WORD}.
+ */
+public class LemmaDictionary {
+	public static final int STOP_WORD = -1;
+
+	private final Set<String> stopWords;
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private final List<String> lemmas = new ArrayList<>();
+
+	/**
+	 * Creates a new dictionary.
+	 * @param stopWords The set of lower-case stop words.
+	 */
+	public LemmaDictionary(Set<String> stopWords) {
+		this.stopWords = stopWords;
+	}
+
+	/**
+	 * Gets the id of a lemma, assigning it a new one if it hasn't been seen.
+	 * @param lemma The lemma.
+	 * @return The lemma's id, or {@link #STOP_WORD} if it's a stop word.
+	 */
+	public int intern(String lemma) {
+		Integer id = ids.get(lemma);
+		if (id != null) return id;
+		synchronized (lemmas) {
+			id = ids.get(lemma);
+			if (id != null) return id;
+			int newId = STOP_WORD;
+			if (!stopWords.contains(lemma.toLowerCase())) {
+				newId = lemmas.size();
+				lemmas.add(lemma);
+			}
+			ids.put(lemma, newId);
+			return newId;
+		}
+	}
+
+	public String getLemma(int id) {
+		synchronized (lemmas) {
+			return lemmas.get(id);
+		}
+	}
+
+	/**
+	 * @return The number of distinct lemmas that aren't stop words.
+	 */
+	public int size() {
+		synchronized (lemmas) {
+			return lemmas.size();
+		}
+	}
+}
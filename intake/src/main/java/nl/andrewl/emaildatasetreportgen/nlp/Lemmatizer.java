@@ -0,0 +1,49 @@
+package nl.andrewl.emaildatasetreportgen.nlp;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An engine that turns a piece of text into the sequence of lemmas of its
+ * tokens. Implementations must be safe to use from many threads at once.
+ */
+public interface Lemmatizer {
+	/**
+	 * @return The name of this engine, as used to select it.
+	 */
+	String name();
+
+	/**
+	 * @return The configuration of this engine. Engines with different
+	 * configurations may produce different lemmas for the same text.
+	 */
+	Properties config();
+
+	/**
+	 * Gets the lemmas of all tokens in a text, in order.
+	 * @param text The text to lemmatize.
+	 * @return The lemmas.
+	 */
+	List<String> lemmatize(String text);
+
+	/**
+	 * @return Engine-specific statistics to include in the report.
+	 */
+	default Map<String, Number> getStatistics() {
+		return Map.of();
+	}
+
+	/**
+	 * Creates a lemmatizer engine by its name.
+	 * @param name The name of the engine, either "corenlp" or "memoized".
+	 * @return The lemmatizer.
+	 */
+	static Lemmatizer create(String name) {
+		return switch (name) {
+			case CoreNlpLemmatizer.NAME -> new CoreNlpLemmatizer();
+			case MemoizingLemmatizer.NAME -> new MemoizingLemmatizer();
+			default -> throw new IllegalArgumentException("Unknown lemmatizer engine: " + name);
+		};
+	}
+}
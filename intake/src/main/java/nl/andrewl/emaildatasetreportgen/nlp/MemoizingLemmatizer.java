@@ -0,0 +1,166 @@
+package nl.andrewl.emaildatasetreportgen.nlp;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.pipeline.CoreDocument;
+import edu.stanford.nlp.pipeline.CoreSentence;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.process.Morphology;
+import edu.stanford.nlp.tagger.maxent.MaxentTagger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lemmatizer that memoizes lemmas, and skips part of speech tagging where
+ * the tags can't change the lemmas.
+ * <p>
+ *     Most tokens have the same lemma whatever their part of speech, like
+ *     "the", "kafka" or punctuation. The first time a token is seen, its
+ *     lemma is computed for every part of speech, and if they're all the
+ *     same, it's remembered by the token alone. Texts are only tokenized and
+ *     split into sentences by CoreNLP, and a sentence is only tagged if it
+ *     has a token whose lemma depends on its part of speech. The lemmas of
+ *     those tokens are memoized by (token, part of speech) pair. Tagging is
+ *     by far the most expensive step, so the speed-up depends on the
+ *     fraction of sentences that can skip it, which is recorded in the
+ *     statistics.
+ * </p>
+ * <p>
+ *     The lemmas are the same as when every sentence is tagged, since
+ *     sentences are tagged on their own either way, and the tag of a token
+ *     whose lemma doesn't depend on it is never used.
+ * </p>
+ */
+public class MemoizingLemmatizer implements Lemmatizer {
+	public static final String NAME = "memoized";
+	/**
+	 * The maximum number of tokens, and of (token, part of speech) pairs, to
+	 * remember. Once reached, new ones are still lemmatized, just not
+	 * remembered.
+	 */
+	public static final int MAX_CACHE_SIZE = 2_000_000;
+
+	/**
+	 * The Penn Treebank tags that the tagger can assign.
+	 */
+	private static final List<String> TAGS = List.of(
+			"CC", "CD", "DT", "EX", "FW", "IN", "JJ", "JJR", "JJS", "LS", "MD", "NN", "NNS", "NNP", "NNPS",
+			"PDT", "POS", "PRP", "PRP$", "RB", "RBR", "RBS", "RP", "SYM", "TO", "UH", "VB", "VBD", "VBG",
+			"VBN", "VBP", "VBZ", "WDT", "WP", "WP$", "WRB", "#", "$", ".", ",", ":", "``", "''", "-LRB-", "-RRB-"
+	);
+	/**
+	 * The value of a token in the token cache, if its lemma depends on its
+	 * part of speech.
+	 */
+	private static final String TAG_DEPENDENT = "\u0000";
+
+	private final Properties props;
+	private final StanfordCoreNLP pipeline;
+	private final MaxentTagger tagger;
+	private final Map<String, String> tokenLemmas = new ConcurrentHashMap<>();
+	private final Map<String, String> taggedLemmas = new ConcurrentHashMap<>();
+	private final ThreadLocal<Morphology> morphology = ThreadLocal.withInitial(Morphology::new);
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong sentencesTagged = new AtomicLong();
+	private final AtomicLong sentencesUntagged = new AtomicLong();
+
+	public MemoizingLemmatizer() {
+		Properties pipelineProps = new Properties();
+		pipelineProps.setProperty("annotators", "tokenize,ssplit");
+		this.pipeline = new StanfordCoreNLP(pipelineProps);
+		this.tagger = new MaxentTagger(MaxentTagger.DEFAULT_JAR_PATH);
+		// The lemmas are the same as when the pos annotator tags every sentence.
+		this.props = new Properties();
+		props.setProperty("annotators", "tokenize,ssplit,pos");
+		props.setProperty("lemmatizer", NAME);
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	@Override
+	public Properties config() {
+		return props;
+	}
+
+	@Override
+	public List<String> lemmatize(String text) {
+		CoreDocument doc = new CoreDocument(text);
+		pipeline.annotate(doc);
+		List<String> lemmas = new ArrayList<>(doc.tokens().size());
+		for (var sentence : doc.sentences()) {
+			lemmatizeSentence(sentence, lemmas);
+		}
+		return lemmas;
+	}
+
+	private void lemmatizeSentence(CoreSentence sentence, List<String> lemmas) {
+		List<CoreLabel> tokens = sentence.tokens();
+		String[] sentenceLemmas = new String[tokens.size()];
+		boolean needsTags = false;
+		for (int i = 0; i < sentenceLemmas.length; i++) {
+			sentenceLemmas[i] = getTokenLemma(tokens.get(i).word());
+			if (sentenceLemmas[i] == TAG_DEPENDENT) needsTags = true;
+		}
+		if (needsTags) {
+			sentencesTagged.incrementAndGet();
+			List<TaggedWord> tagged = tagger.tagSentence(tokens);
+			for (int i = 0; i < sentenceLemmas.length; i++) {
+				if (sentenceLemmas[i] == TAG_DEPENDENT) sentenceLemmas[i] = getTaggedLemma(tokens.get(i).word(), tagged.get(i).tag());
+			}
+		} else {
+			sentencesUntagged.incrementAndGet();
+		}
+		for (var lemma : sentenceLemmas) lemmas.add(lemma);
+	}
+
+	/**
+	 * Gets the lemma of a token if it's the same for every part of speech.
+	 * @return The lemma, or {@link #TAG_DEPENDENT} if it depends on the part
+	 * of speech.
+	 */
+	private String getTokenLemma(String word) {
+		String lemma = tokenLemmas.get(word);
+		if (lemma != null) return lemma;
+		Morphology m = morphology.get();
+		lemma = m.lemma(word, TAGS.get(0));
+		for (int i = 1; i < TAGS.size() && lemma != TAG_DEPENDENT; i++) {
+			if (!lemma.equals(m.lemma(word, TAGS.get(i)))) lemma = TAG_DEPENDENT;
+		}
+		if (tokenLemmas.size() < MAX_CACHE_SIZE) tokenLemmas.put(word, lemma);
+		return lemma;
+	}
+
+	private String getTaggedLemma(String word, String tag) {
+		String key = word + '\u0000' + tag;
+		String lemma = taggedLemmas.get(key);
+		if (lemma == null) {
+			misses.incrementAndGet();
+			lemma = morphology.get().lemma(word, tag);
+			if (taggedLemmas.size() < MAX_CACHE_SIZE) taggedLemmas.put(key, lemma);
+		} else {
+			hits.incrementAndGet();
+		}
+		return lemma;
+	}
+
+	@Override
+	public Map<String, Number> getStatistics() {
+		return Map.of(
+				"memo_hits", hits.get(),
+				"memo_misses", misses.get(),
+				"memo_size", taggedLemmas.size(),
+				"token_memo_size", tokenLemmas.size(),
+				"sentences_tagged", sentencesTagged.get(),
+				"sentences_untagged", sentencesUntagged.get()
+		);
+	}
+}
@@ -0,0 +1,109 @@
+package nl.andrewl.emaildatasetreportgen.synthetic;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import nl.andrewl.email_indexer.data.EmailDataset;
+import nl.andrewl.emaildatasetreportgen.JsonOutput;
+import nl.andrewl.emaildatasetreportgen.ReportOptions;
+import nl.andrewl.emaildatasetreportgen.cmd.IncrementalJsonDataGenerator;
+import nl.andrewl.emaildatasetreportgen.cmd.JsonDataGenerator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Check that an incremental report is the same as a full report of the same
+ * dataset. Both are generated from the dataset as it is now, and every output
+ * file that doesn't hold timings is compared.
+ * <p>
+ *     An incremental report keeps the emails in the previous report's order,
+ *     and appends newly tagged emails at the end, so the reports are only
+ *     expected to be the same after mutations that don't add emails, like
+ *     deleting, hiding or untagging them. To check deletions, generate a
+ *     report, delete some tagged emails (and their replies, or not) with the
+ *     email indexer, and run this check with that report as the previous one.
+ * </p>
+ * <p>
+ *     Usage: {@code IncrementalReportCheck <dataset> --incremental=<previous report>
+ *     [--work-dir=DIR] [report options...]}. The exit code is 1 if the reports
+ *     differ.
+ * </p>
+ */
+public class IncrementalReportCheck {
+	/**
+	 * The JSON files that must be the same, apart from the analysis results'
+	 * timestamp.
+	 */
+	private static final List<String> JSON_FILES = List.of(
+			"emails.json",
+			"threads.json",
+			"lemmas.json",
+			"lemma_counts.json",
+			"searches.json",
+			"analysis_results.json",
+			"mutations.json"
+	);
+
+	public static void main(String[] args) throws Exception {
+		ReportOptions options = ReportOptions.fromArgs(args);
+		if (options.previousReport() == null) throw new IllegalArgumentException("Missing --incremental=<previous report>.");
+		Path workDir = Path.of("incremental_check");
+		for (var arg : args) {
+			if (arg.startsWith("--work-dir=")) workDir = Path.of(arg.substring("--work-dir=".length()));
+		}
+		EmailDataset ds = EmailDataset.open(Path.of(args[0])).join();
+		List<String> differences;
+		try {
+			differences = check(ds, options, workDir);
+		} finally {
+			ds.close().join();
+		}
+		if (differences.isEmpty()) {
+			System.out.println("The incremental report is the same as the full report.");
+		} else {
+			System.out.println("The incremental report differs from the full report in " + String.join(", ", differences) + ".");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Generates a full and an incremental report of a dataset, and compares them.
+	 * @param ds The dataset.
+	 * @param options The report options, with the previous report to start
+	 *                the incremental report from.
+	 * @param workDir The directory to write both reports to.
+	 * @return The names of the files that differ.
+	 * @throws Exception If a report couldn't be generated.
+	 */
+	public static List<String> check(EmailDataset ds, ReportOptions options, Path workDir) throws Exception {
+		Path fullDir = Files.createDirectories(workDir.resolve("full"));
+		Path incrementalDir = Files.createDirectories(workDir.resolve("incremental"));
+		new JsonDataGenerator(options).generate(fullDir, ds);
+		new IncrementalJsonDataGenerator(options, options.previousReport()).generate(incrementalDir, ds);
+
+		List<String> differences = new ArrayList<>();
+		for (var filename : JSON_FILES) {
+			JsonElement full = read(fullDir, filename);
+			JsonElement incremental = read(incrementalDir, filename);
+			if (filename.equals("analysis_results.json")) {
+				full.getAsJsonObject().remove("timestamp");
+				incremental.getAsJsonObject().remove("timestamp");
+			}
+			if (!full.equals(incremental)) differences.add(filename);
+		}
+		byte[] fullColumns = Files.readAllBytes(fullDir.resolve("emails.col"));
+		byte[] incrementalColumns = Files.readAllBytes(incrementalDir.resolve("emails.col"));
+		if (!Arrays.equals(fullColumns, incrementalColumns)) differences.add("emails.col");
+		return differences;
+	}
+
+	private static JsonElement read(Path dir, String filename) throws Exception {
+		try (JsonReader reader = JsonOutput.openReader(dir, filename)) {
+			return JsonParser.parseReader(reader);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package nl.andrewl.emaildatasetreportgen.synthetic;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import nl.andrewl.emaildatasetreportgen.ReportGen;
+import nl.andrewl.emaildatasetreportgen.metrics.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Scale-test harness that generates synthetic datasets of increasing size,
+ * runs {@link ReportGen} over each of them, and records the wall time,
+ * throughput and peak resident memory of each stage to a CSV file.
+ * <p>
+ *     Each report is generated in a separate JVM, so runs don't share heap or
+ *     JIT state. The time of each stage is read from the report's
+ *     metrics.json, in which the report generator records all of its
+ *     top-level stages, along with the time from launching the JVM until
+ *     the first stage ("startup"), and after the last ("shutdown"). The
+ *     child's resident memory is sampled from /proc with a timestamp, and
+ *     attributed to the stages that were running at the time, so peak RSS is
+ *     only available on Linux.
+ * </p>
+ * <p>
+ *     Usage: {@code ScaleTest [--sizes=10000,100000,1000000] [--work-dir=DIR]
+ *     [--csv=FILE] [--seed=N] [report options...]}, where any other "--"
+ *     options are passed on to the report generator.
+ * </p>
+ */
+public class ScaleTest {
+	private static final long RSS_SAMPLE_MILLIS = 100;
+
+	private record StageResult(int size, String stage, double seconds, long peakRssBytes) {}
+
+	private record RssSample(long epochMillis, long bytes) {}
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = {10_000, 100_000, 1_000_000};
+		Path workDir = Path.of("scale_test");
+		Path csvFile = null;
+		long seed = 42;
+		List<String> reportArgs = new ArrayList<>();
+		for (var arg : args) {
+			if (arg.startsWith("--sizes=")) {
+				sizes = Arrays.stream(arg.substring("--sizes=".length()).split(",")).mapToInt(Integer::parseInt).toArray();
+			} else if (arg.startsWith("--work-dir=")) {
+				workDir = Path.of(arg.substring("--work-dir=".length()));
+			} else if (arg.startsWith("--csv=")) {
+				csvFile = Path.of(arg.substring("--csv=".length()));
+			} else if (arg.startsWith("--seed=")) {
+				seed = Long.parseLong(arg.substring("--seed=".length()));
+			} else {
+				reportArgs.add(arg);
+			}
+		}
+		Files.createDirectories(workDir);
+		if (csvFile == null) csvFile = workDir.resolve("scale_test.csv");
+
+		try (var csv = new PrintWriter(Files.newBufferedWriter(csvFile))) {
+			csv.println("emails,stage,seconds,emails_per_second,peak_rss_mb");
+			for (int size : sizes) {
+				Path sizeDir = workDir.resolve("size_" + size);
+				Files.createDirectories(sizeDir);
+				List<StageResult> results = new ArrayList<>();
+				results.add(generateDataset(sizeDir.resolve("dataset"), size, seed));
+				results.addAll(runReport(sizeDir, size, reportArgs));
+				for (var result : results) {
+					csv.printf(
+							"%d,%s,%.3f,%.1f,%.1f%n",
+							result.size(), result.stage(), result.seconds(),
+							result.seconds() > 0 ? result.size() / result.seconds() : 0,
+							result.peakRssBytes() < 0 ? -1 : result.peakRssBytes() / (1024.0 * 1024.0)
+					);
+					System.out.printf("[scale-test] %d emails: %s took %.1f seconds.%n", result.size(), result.stage(), result.seconds());
+				}
+				csv.flush();
+			}
+		}
+		System.out.println("Scale test results written to " + csvFile + ".");
+	}
+
+	private static StageResult generateDataset(Path dsDir, int size, long seed) throws Exception {
+		resetPeakRss();
+		long start = System.nanoTime();
+		if (!Files.exists(dsDir)) {
+			new SyntheticDatasetWriter(seed).write(dsDir, size);
+		} else {
+			System.out.println("Reusing existing synthetic dataset at " + dsDir + ".");
+		}
+		double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+		return new StageResult(size, "generate_dataset", seconds, readStatusKb(ProcessHandle.current().pid(), "VmHWM:") * 1024);
+	}
+
+	private static List<StageResult> runReport(Path sizeDir, int size, List<String> reportArgs) throws Exception {
+		List<String> command = new ArrayList<>();
+		command.add(ProcessHandle.current().info().command().orElse("java"));
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ReportGen.class.getName());
+		command.add(sizeDir.resolve("dataset").toAbsolutePath().toString());
+		command.addAll(reportArgs);
+		Set<Path> previousReports = findReports(sizeDir);
+		Instant launched = Instant.now();
+		Process process = new ProcessBuilder(command)
+				.directory(sizeDir.toFile())
+				.redirectErrorStream(true)
+				.start();
+
+		List<RssSample> rssSamples = new CopyOnWriteArrayList<>();
+		Thread sampler = new Thread(() -> {
+			while (process.isAlive()) {
+				long rss = readStatusKb(process.pid(), "VmRSS:");
+				if (rss >= 0) rssSamples.add(new RssSample(System.currentTimeMillis(), rss * 1024));
+				try {
+					Thread.sleep(RSS_SAMPLE_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "scale-test-rss");
+		sampler.setDaemon(true);
+		sampler.start();
+
+		try (var reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				System.out.println("  " + line);
+			}
+		}
+		int exitCode = process.waitFor();
+		Instant exited = Instant.now();
+		sampler.interrupt();
+		if (exitCode != 0) throw new IOException("Report generation for " + size + " emails failed with exit code " + exitCode + ".");
+
+		Set<Path> newReports = findReports(sizeDir);
+		newReports.removeAll(previousReports);
+		if (newReports.size() != 1) throw new IOException("Expected one new report in " + sizeDir + ", but found " + newReports.size() + ".");
+		JsonObject metrics;
+		try (var metricsReader = Files.newBufferedReader(newReports.iterator().next().resolve(Metrics.FILENAME))) {
+			metrics = JsonParser.parseReader(metricsReader).getAsJsonObject();
+		}
+
+		List<StageResult> results = new ArrayList<>();
+		Instant started = Instant.parse(metrics.get("started").getAsString());
+		Instant finished = Instant.parse(metrics.get("finished").getAsString());
+		results.add(stageResult(size, "startup", launched, started, rssSamples));
+		for (var element : metrics.getAsJsonArray("stages")) {
+			JsonObject stage = element.getAsJsonObject();
+			String name = stage.get("name").getAsString();
+			// Sub-stages, like "scan.read", run within their parent stage.
+			if (name.contains(".") || stage.get("finished").isJsonNull()) continue;
+			results.add(stageResult(
+					size,
+					name,
+					Instant.parse(stage.get("started").getAsString()),
+					Instant.parse(stage.get("finished").getAsString()),
+					rssSamples
+			));
+		}
+		results.add(stageResult(size, "shutdown", finished, exited, rssSamples));
+		return results;
+	}
+
+	private static StageResult stageResult(int size, String stage, Instant start, Instant end, List<RssSample> rssSamples) {
+		long peakRss = -1;
+		for (var sample : rssSamples) {
+			if (sample.epochMillis() >= start.toEpochMilli() && sample.epochMillis() <= end.toEpochMilli()) {
+				peakRss = Math.max(peakRss, sample.bytes());
+			}
+		}
+		return new StageResult(size, stage, Duration.between(start, end).toNanos() / 1_000_000_000.0, peakRss);
+	}
+
+	private static Set<Path> findReports(Path dir) throws IOException {
+		try (var paths = Files.list(dir)) {
+			return paths
+					.filter(p -> Files.isDirectory(p) && p.getFileName().toString().startsWith("report_"))
+					.collect(Collectors.toCollection(HashSet::new));
+		}
+	}
+
+	/**
+	 * Reads a memory value from a process' /proc status file.
+	 * @param pid The process id.
+	 * @param key The status key, like "VmRSS:".
+	 * @return The value in kilobytes, or -1 if it couldn't be read.
+	 */
+	private static long readStatusKb(long pid, String key) {
+		try {
+			for (var line : Files.readAllLines(Path.of("/proc", Long.toString(pid), "status"))) {
+				if (line.startsWith(key)) {
+					return Long.parseLong(line.substring(key.length()).replace("kB", "").strip());
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// Not available on this platform, or the process has exited.
+		}
+		return -1;
+	}
+
+	/**
+	 * Resets this process' peak RSS, so that VmHWM reflects only what follows.
+	 */
+	private static void resetPeakRss() {
+		try {
+			Files.writeString(Path.of("/proc/self/clear_refs"), "5");
+		} catch (IOException e) {
+			// Not available on this platform; the peak then covers the whole run.
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package nl.andrewl.emaildatasetreportgen.synthetic;
+
+import nl.andrewl.email_indexer.data.EmailDataset;
+import nl.andrewl.email_indexer.data.EmailEntry;
+import nl.andrewl.email_indexer.data.Tag;
+import nl.andrewl.email_indexer.gen.EmailDatasetGenerator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Writes a synthetic {@link EmailDataset} from {@link SyntheticEmails}.
+ * <p>
+ *     The emails are first written as mbox files, which are turned into a
+ *     dataset by the email indexer's own {@link EmailDatasetGenerator}, so the
+ *     dataset has the same database schema, threading (derived from the
+ *     In-Reply-To headers) and search index as a real one. Afterwards, the
+ *     synthetic tags are created, and applied to the emails by message id.
+ * </p>
+ */
+public class SyntheticDatasetWriter {
+	private static final int EMAILS_PER_MBOX = 50_000;
+	private static final int TAG_BATCH_SIZE = 10_000;
+
+	private final long seed;
+
+	public SyntheticDatasetWriter(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Writes a synthetic dataset.
+	 * @param dsDir The directory to write the dataset to.
+	 * @param count The number of emails to generate.
+	 * @throws Exception If the dataset couldn't be written.
+	 */
+	public void write(Path dsDir, int count) throws Exception {
+		Path mboxDir = Files.createTempDirectory("synthetic-mbox");
+		try {
+			System.out.printf("Writing %d synthetic emails as mbox files.%n", count);
+			Map<String, List<Tag>> tagsByMessageId = writeMbox(mboxDir, count);
+			System.out.println("Generating dataset from mbox files.");
+			new EmailDatasetGenerator().generate(List.of(mboxDir), dsDir).join();
+			System.out.println("Applying synthetic tags.");
+			EmailDataset ds = EmailDataset.open(dsDir).join();
+			try {
+				applyTags(ds.getConnection(), tagsByMessageId);
+			} finally {
+				ds.close().join();
+			}
+		} finally {
+			try (var files = Files.list(mboxDir)) {
+				for (var file : files.toList()) Files.delete(file);
+			}
+			Files.delete(mboxDir);
+		}
+	}
+
+	private Map<String, List<Tag>> writeMbox(Path mboxDir, int count) throws IOException {
+		SyntheticEmails emails = new SyntheticEmails(seed, count);
+		Map<String, List<Tag>> tagsByMessageId = new HashMap<>(count * 2);
+		BufferedWriter writer = null;
+		try {
+			for (int i = 0; i < count; i++) {
+				if (i % EMAILS_PER_MBOX == 0) {
+					if (writer != null) writer.close();
+					writer = Files.newBufferedWriter(mboxDir.resolve(String.format("synthetic-%04d.mbox", i / EMAILS_PER_MBOX)), StandardCharsets.UTF_8);
+				}
+				var generated = emails.next();
+				writeMessage(writer, generated.email());
+				tagsByMessageId.put(generated.email().messageId(), generated.tags());
+			}
+		} finally {
+			if (writer != null) writer.close();
+		}
+		return tagsByMessageId;
+	}
+
+	private static void writeMessage(BufferedWriter writer, EmailEntry email) throws IOException {
+		writer.write("From " + email.sentFrom() + " " + email.date().format(DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss yyyy", Locale.ENGLISH)) + "\n");
+		writer.write("From: " + email.sentFrom() + "\n");
+		writer.write("To: dev@example.org\n");
+		writer.write("Subject: " + email.subject() + "\n");
+		writer.write("Date: " + email.date().format(DateTimeFormatter.RFC_1123_DATE_TIME) + "\n");
+		writer.write("Message-ID: " + email.messageId() + "\n");
+		if (email.inReplyTo() != null) {
+			writer.write("In-Reply-To: " + email.inReplyTo() + "\n");
+			writer.write("References: " + email.inReplyTo() + "\n");
+		}
+		writer.write("MIME-Version: 1.0\n");
+		writer.write("Content-Type: text/plain; charset=UTF-8\n");
+		writer.write("\n");
+		for (var line : email.body().split("\n", -1)) {
+			// Escape lines that would otherwise be read as the start of a new message.
+			if (line.startsWith("From ")) writer.write('>');
+			writer.write(line);
+			writer.write('\n');
+		}
+		writer.write("\n");
+	}
+
+	private static void applyTags(Connection conn, Map<String, List<Tag>> tagsByMessageId) throws Exception {
+		Map<Integer, Integer> tagIds = new HashMap<>();
+		try (var stmt = conn.prepareStatement("INSERT INTO TAG (NAME, DESCRIPTION) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+			for (var tag : SyntheticEmails.TAGS) {
+				stmt.setString(1, tag.name());
+				stmt.setString(2, tag.description());
+				stmt.executeUpdate();
+				try (ResultSet keys = stmt.getGeneratedKeys()) {
+					keys.next();
+					tagIds.put(tag.id(), keys.getInt(1));
+				}
+			}
+		}
+		int tagged = 0;
+		try (
+				var select = conn.prepareStatement("SELECT ID, MESSAGE_ID FROM EMAIL");
+				PreparedStatement insert = conn.prepareStatement("INSERT INTO EMAIL_TAG (EMAIL_ID, TAG_ID) VALUES (?, ?)");
+				ResultSet rs = select.executeQuery()
+		) {
+			int batched = 0;
+			while (rs.next()) {
+				List<Tag> tags = tagsByMessageId.get(rs.getString(2));
+				if (tags == null) continue;
+				for (var tag : tags) {
+					insert.setLong(1, rs.getLong(1));
+					insert.setInt(2, tagIds.get(tag.id()));
+					insert.addBatch();
+					if (++batched == TAG_BATCH_SIZE) {
+						insert.executeBatch();
+						batched = 0;
+					}
+				}
+				tagged++;
+			}
+			if (batched > 0) insert.executeBatch();
+		}
+		System.out.printf("Tagged %d of %d synthetic emails.%n", tagged, tagsByMessageId.size());
+	}
+}
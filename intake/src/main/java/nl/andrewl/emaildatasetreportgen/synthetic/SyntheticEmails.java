@@ -0,0 +1,205 @@
+package nl.andrewl.emaildatasetreportgen.synthetic;
+
+import nl.andrewl.email_indexer.data.EmailEntry;
+import nl.andrewl.email_indexer.data.Tag;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator of synthetic emails, for benchmarks and scale
+ * tests on datasets that can be shared and scaled up on demand. For a given
+ * seed, the same sequence of emails is always generated.
+ * <ul>
+ *     <li>Threads: roughly a third of the emails start a new thread; the
+ *     rest reply to one of the recent emails, preferring the most recent
+ *     ones, so threads grow into trees of realistic depth.</li>
+ *     <li>Tags: a bit over half of the emails are tagged "not-ak", and the
+ *     rest have one to three of the architectural tags.</li>
+ *     <li>Bodies: the word count is log-normally distributed, and words are
+ *     drawn from a Zipf distribution over a fixed vocabulary.</li>
+ * </ul>
+ */
+public class SyntheticEmails {
+	public static final List<Tag> TAGS = List.of(
+			new Tag(1, "existence", "Synthetic existence decisions."),
+			new Tag(2, "process", "Synthetic process decisions."),
+			new Tag(3, "property", "Synthetic property decisions."),
+			new Tag(4, "technology", "Synthetic technology decisions."),
+			new Tag(5, "not-ak", "Synthetic emails without architectural knowledge.")
+	);
+	private static final Tag NOT_AK = TAGS.get(4);
+	private static final double NOT_AK_PROBABILITY = 0.55;
+	/**
+	 * The relative weights of the architectural tags, in the order of {@link #TAGS}.
+	 */
+	private static final double[] AK_TAG_WEIGHTS = {0.35, 0.15, 0.25, 0.25};
+	private static final double ROOT_PROBABILITY = 0.35;
+	private static final int RECENT_WINDOW = 256;
+	private static final double BODY_WORDS_MEDIAN = 120;
+	private static final double BODY_WORDS_SIGMA = 0.9;
+	private static final int BODY_WORDS_MAX = 5000;
+
+	private static final String[] VOCABULARY = (
+			"the a to of and in is that for it be this we on with as not are can have but or by would use should " +
+			"if from an will which at so there do some one all about also more like think just what they when need " +
+			"code patch change test build release version module component service interface api client server " +
+			"request response data database schema query index cache memory thread lock queue message event " +
+			"design architecture decision option approach alternative tradeoff performance scalability security " +
+			"reliability latency throughput compatibility dependency library framework plugin configuration " +
+			"deploy cluster node replica partition storage file stream buffer network protocol connection " +
+			"user issue bug fix problem error exception failure support feature proposal discussion review " +
+			"implementation class method function object type field value parameter default option flag " +
+			"java maven gradle hadoop kafka spark lucene http json xml yaml rest rpc jvm gc heap cpu disk " +
+			"consistent available durable scalable simple complex fast slow large small new old current previous " +
+			"agree disagree propose suggest prefer consider remove add move keep split merge refactor document"
+	).split(" ");
+	private static final double[] VOCABULARY_CDF = zipfCdf(VOCABULARY.length, 1.07);
+
+	private final Random random;
+	private final ZonedDateTime startDate = ZonedDateTime.of(2010, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+	private final EmailEntry[] recent = new EmailEntry[RECENT_WINDOW];
+	private final String[] recentRootSubjects = new String[RECENT_WINDOW];
+	private final double[] senderCdf;
+	private long nextId = 1;
+	private long minutes = 0;
+
+	/**
+	 * Creates a new generator.
+	 * @param seed The random seed.
+	 * @param expectedCount The approximate number of emails that will be
+	 *                      generated, which determines the number of senders.
+	 */
+	public SyntheticEmails(long seed, int expectedCount) {
+		this.random = new Random(seed);
+		this.senderCdf = zipfCdf(Math.max(20, expectedCount / 50), 1.2);
+	}
+
+	public SyntheticEmails(long seed) {
+		this(seed, 10_000);
+	}
+
+	/**
+	 * An email, along with its tags.
+	 */
+	public record Generated(EmailEntry email, List<Tag> tags) {}
+
+	/**
+	 * Generates the next email.
+	 * @return The email and its tags.
+	 */
+	public Generated next() {
+		long id = nextId++;
+		minutes += 1 + random.nextInt(90);
+		EmailEntry parent = null;
+		String rootSubject;
+		if (id > 1 && random.nextDouble() >= ROOT_PROBABILITY) {
+			int available = (int) Math.min(RECENT_WINDOW, id - 1);
+			// Square the uniform value, so that more recent emails are chosen more often.
+			double u = random.nextDouble();
+			int back = (int) (u * u * available);
+			int slot = (int) ((id - 2 - back) % RECENT_WINDOW);
+			parent = recent[slot];
+			rootSubject = recentRootSubjects[slot];
+		} else {
+			rootSubject = sentence(3 + random.nextInt(6), false);
+		}
+		String messageId = "<synthetic." + id + "@example.org>";
+		EmailEntry email = new EmailEntry(
+				id,
+				parent == null ? null : parent.id(),
+				messageId,
+				parent == null ? rootSubject : "Re: " + rootSubject,
+				parent == null ? null : parent.messageId(),
+				"user" + sample(senderCdf) + "@example.org",
+				startDate.plusMinutes(minutes),
+				body(),
+				false
+		);
+		int slot = (int) ((id - 1) % RECENT_WINDOW);
+		recent[slot] = email;
+		recentRootSubjects[slot] = rootSubject;
+		return new Generated(email, tags());
+	}
+
+	/**
+	 * Generates a number of emails.
+	 * @param count The number of emails to generate.
+	 * @return The list of generated emails.
+	 */
+	public List<Generated> generate(int count) {
+		List<Generated> emails = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) emails.add(next());
+		return emails;
+	}
+
+	private List<Tag> tags() {
+		if (random.nextDouble() < NOT_AK_PROBABILITY) return List.of(NOT_AK);
+		int tagCount = 1 + (random.nextDouble() < 0.3 ? 1 : 0) + (random.nextDouble() < 0.1 ? 1 : 0);
+		List<Tag> tags = new ArrayList<>(tagCount);
+		while (tags.size() < tagCount) {
+			Tag tag = TAGS.get(sampleWeighted(AK_TAG_WEIGHTS));
+			if (!tags.contains(tag)) tags.add(tag);
+		}
+		tags.sort((a, b) -> Integer.compare(a.id(), b.id()));
+		return tags;
+	}
+
+	private String body() {
+		double words = Math.exp(Math.log(BODY_WORDS_MEDIAN) + BODY_WORDS_SIGMA * random.nextGaussian());
+		int remaining = (int) Math.max(1, Math.min(BODY_WORDS_MAX, words));
+		StringBuilder sb = new StringBuilder(remaining * 7);
+		while (remaining > 0) {
+			int sentenceLength = Math.min(remaining, 6 + random.nextInt(15));
+			sb.append(sentence(sentenceLength, true));
+			remaining -= sentenceLength;
+			sb.append(random.nextDouble() < 0.2 ? "\n\n" : " ");
+		}
+		return sb.toString().strip();
+	}
+
+	private String sentence(int words, boolean period) {
+		StringBuilder sb = new StringBuilder(words * 7);
+		for (int i = 0; i < words; i++) {
+			String word = VOCABULARY[sample(VOCABULARY_CDF)];
+			if (i == 0) {
+				sb.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+			} else {
+				sb.append(' ').append(word);
+			}
+		}
+		if (period) sb.append('.');
+		return sb.toString();
+	}
+
+	private int sample(double[] cdf) {
+		int idx = Arrays.binarySearch(cdf, random.nextDouble());
+		return Math.min(cdf.length - 1, idx >= 0 ? idx : -idx - 1);
+	}
+
+	private int sampleWeighted(double[] weights) {
+		double total = 0;
+		for (double w : weights) total += w;
+		double r = random.nextDouble() * total;
+		for (int i = 0; i < weights.length; i++) {
+			r -= weights[i];
+			if (r < 0) return i;
+		}
+		return weights.length - 1;
+	}
+
+	private static double[] zipfCdf(int n, double exponent) {
+		double[] cdf = new double[n];
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += 1.0 / Math.pow(i + 1, exponent);
+			cdf[i] = sum;
+		}
+		for (int i = 0; i < n; i++) cdf[i] /= sum;
+		return cdf;
+	}
+}
@@ -0,0 +1,69 @@
+package nl.andrewl.emaildatasetreportgen.thread;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from long keys to non-negative int values,
+ * without boxing. Entries can't be removed.
+ */
+class LongIntMap {
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+
+	LongIntMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, -1);
+	}
+
+	/**
+	 * Gets the value of a key.
+	 * @param key The key.
+	 * @return The value, or -1 if there's none.
+	 */
+	int get(long key) {
+		int mask = keys.length - 1;
+		for (int slot = hash(key) & mask; values[slot] >= 0; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) return values[slot];
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a key, if it isn't in the map yet.
+	 * @param key The key.
+	 * @param value The value, which must not be negative.
+	 * @return True if the key was added, or false if it was already there.
+	 */
+	boolean putIfAbsent(long key, int value) {
+		if ((size + 1) * 2 > keys.length) grow();
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		for (; values[slot] >= 0; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) return false;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		return true;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+		Arrays.fill(values, -1);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] >= 0) putIfAbsent(oldKeys[i], oldValues[i]);
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,16 @@
+package nl.andrewl.emaildatasetreportgen.thread;
+
+/**
+ * Consumer of the threads of a {@link ThreadIndex}, which is the thread-level
+ * counterpart of a {@code DatasetEmailConsumer}.
+ */
+@FunctionalInterface
+public interface ThreadConsumer {
+	/**
+	 * Consumes a thread.
+	 * @param index The index that the thread is in.
+	 * @param thread The number of the thread in the index.
+	 * @throws Exception If the thread couldn't be consumed.
+	 */
+	void consumeThread(ThreadIndex index, int thread) throws Exception;
+}
@@ -0,0 +1,65 @@
+package nl.andrewl.emaildatasetreportgen.thread;
+
+import com.google.gson.stream.JsonWriter;
+import nl.andrewl.emaildatasetreportgen.JsonOutput;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Consumer that writes the aggregates of each thread it receives as an
+ * element of a JSON array in a file: its size, depth, participants, how many
+ * of its emails are architectural, its relevance, and how many of its emails
+ * have each tag.
+ */
+public class ThreadExporter implements ThreadConsumer, Closeable {
+	private final JsonWriter writer;
+	private final long[] akMask;
+	private final double maxRelevance;
+	private final long[][] tagMasks;
+
+	/**
+	 * Creates a new exporter.
+	 * @param output The JSON output settings.
+	 * @param file The file to write.
+	 * @param index The index whose threads will be exported.
+	 * @param akTags The architectural tags.
+	 * @throws IOException If the file couldn't be opened.
+	 */
+	public ThreadExporter(JsonOutput output, Path file, ThreadIndex index, Collection<String> akTags) throws IOException {
+		this.akMask = index.getTagMask(akTags);
+		this.maxRelevance = index.getMaxRelevance(akMask);
+		List<String> tagNames = index.getTagNames();
+		this.tagMasks = new long[tagNames.size()][];
+		for (int i = 0; i < tagMasks.length; i++) tagMasks[i] = index.getTagMask(List.of(tagNames.get(i)));
+		this.writer = output.open(file);
+		writer.beginArray();
+	}
+
+	@Override
+	public void consumeThread(ThreadIndex index, int thread) throws IOException {
+		writer.beginObject();
+		writer.name("root_id").value(index.getId(index.getThreadStart(thread)));
+		writer.name("size").value(index.getThreadSize(thread));
+		writer.name("depth").value(index.getThreadDepth(thread));
+		writer.name("participants").value(index.getThreadParticipantCount(thread));
+		writer.name("ak_emails").value(index.countEmails(thread, akMask));
+		writer.name("relevance").value(index.getThreadRelevance(thread, akMask, maxRelevance));
+		writer.name("tag_emails").beginObject();
+		for (int i = 0; i < tagMasks.length; i++) {
+			int count = index.countEmails(thread, tagMasks[i]);
+			if (count > 0) writer.name(index.getTagNames().get(i)).value(count);
+		}
+		writer.endObject();
+		writer.endObject();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.endArray();
+		writer.close();
+	}
+}
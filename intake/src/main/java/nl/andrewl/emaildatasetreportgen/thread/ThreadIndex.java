@@ -0,0 +1,351 @@
+package nl.andrewl.emaildatasetreportgen.thread;
+
+import nl.andrewl.emaildatasetreportgen.columnar.ColumnarFormat;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An index of the threads of a set of emails, kept in primitive arrays, which
+ * is built by a {@link ThreadIndexBuilder} during a dataset scan.
+ * <p>
+ *     Emails are numbered in thread order: the emails of each thread are a
+ *     contiguous range, which starts with the thread's root, and is ordered
+ *     depth-first, with replies in the order they were received. So an
+ *     email's thread and root are found in constant time, and a thread is
+ *     visited by a plain loop over its range. The same holds for the
+ *     sub-thread below any email. Each email's replies are also contiguous,
+ *     in a compressed child array.
+ * </p>
+ * <p>
+ *     Replies to an email that isn't in the set, and their replies, aren't
+ *     part of any thread. They're numbered after all threads.
+ * </p>
+ * <p>
+ *     Senders are interned to int ids, and tags are kept as a bitmap per
+ *     email, in which bit i is set if the email has the i-th tag.
+ * </p>
+ */
+public class ThreadIndex {
+	private final LongIntMap emailsById;
+	private final long[] ids;
+	private final int[] parents;
+	private final int[] threads;
+	private final int[] depths;
+	private final int[] childOffsets;
+	private final int[] children;
+	private final int[] subtreeEnds;
+	private final int[] senders;
+	private final List<String> senderAddresses;
+	private final List<String> tagNames;
+	private final int tagWords;
+	private final long[] tags;
+	private final int[] threadOffsets;
+	private final int[] threadDepths;
+	private final int[] threadParticipants;
+
+	ThreadIndex(
+			LongIntMap emailsById,
+			long[] ids,
+			int[] parents,
+			int[] threads,
+			int[] depths,
+			int[] childOffsets,
+			int[] children,
+			int[] senders,
+			List<String> senderAddresses,
+			List<String> tagNames,
+			long[] tags,
+			int[] threadOffsets
+	) {
+		this.emailsById = emailsById;
+		this.ids = ids;
+		this.parents = parents;
+		this.threads = threads;
+		this.depths = depths;
+		this.childOffsets = childOffsets;
+		this.children = children;
+		this.senders = senders;
+		this.senderAddresses = senderAddresses;
+		this.tagNames = tagNames;
+		this.tagWords = ColumnarFormat.tagWords(tagNames.size());
+		this.tags = tags;
+		this.threadOffsets = threadOffsets;
+
+		// Each email's sub-thread ends at the next email that isn't deeper than it.
+		this.subtreeEnds = new int[ids.length];
+		int[] open = new int[ids.length];
+		int openCount = 0;
+		for (int e = 0; e < ids.length; e++) {
+			while (openCount > 0 && depths[open[openCount - 1]] >= depths[e]) subtreeEnds[open[--openCount]] = e;
+			open[openCount++] = e;
+		}
+		while (openCount > 0) subtreeEnds[open[--openCount]] = ids.length;
+
+		int threadCount = threadOffsets.length - 1;
+		this.threadDepths = new int[threadCount];
+		this.threadParticipants = new int[threadCount];
+		// The last thread that each sender was counted in.
+		int[] senderThreads = new int[senderAddresses.size()];
+		Arrays.fill(senderThreads, -1);
+		for (int t = 0; t < threadCount; t++) {
+			for (int e = threadOffsets[t]; e < threadOffsets[t + 1]; e++) {
+				threadDepths[t] = Math.max(threadDepths[t], depths[e]);
+				if (senderThreads[senders[e]] != t) {
+					senderThreads[senders[e]] = t;
+					threadParticipants[t]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The number of emails in the index.
+	 */
+	public int getEmailCount() {
+		return ids.length;
+	}
+
+	/**
+	 * @return The number of threads in the index.
+	 */
+	public int getThreadCount() {
+		return threadOffsets.length - 1;
+	}
+
+	/**
+	 * Gets the number of an email.
+	 * @param id The email's id.
+	 * @return The email's number, or -1 if it isn't in the index.
+	 */
+	public int indexOf(long id) {
+		return emailsById.get(id);
+	}
+
+	public long getId(int email) {
+		return ids[email];
+	}
+
+	/**
+	 * @return The number of the email's parent, or -1 if it has none in the index.
+	 */
+	public int getParent(int email) {
+		return parents[email];
+	}
+
+	/**
+	 * @return The number of the email's thread, or -1 if it isn't in a thread.
+	 */
+	public int getThread(int email) {
+		return threads[email];
+	}
+
+	/**
+	 * @return The number of the root of the email's thread, or -1 if it isn't
+	 * in a thread.
+	 */
+	public int getRoot(int email) {
+		int thread = threads[email];
+		return thread < 0 ? -1 : threadOffsets[thread];
+	}
+
+	/**
+	 * @return The depth of the email in its thread, where the root is at 0.
+	 */
+	public int getDepth(int email) {
+		return depths[email];
+	}
+
+	public int getChildCount(int email) {
+		return childOffsets[email + 1] - childOffsets[email];
+	}
+
+	/**
+	 * Gets one of an email's replies.
+	 * @param email The email.
+	 * @param i The index of the reply, from 0 to the child count.
+	 * @return The number of the reply.
+	 */
+	public int getChild(int email, int i) {
+		return children[childOffsets[email] + i];
+	}
+
+	/**
+	 * @return The number after the last email of the sub-thread below an
+	 * email, which starts with the email itself. For a thread's root, this is
+	 * the end of the thread.
+	 */
+	public int getSubtreeEnd(int email) {
+		return subtreeEnds[email];
+	}
+
+	/**
+	 * @return The interned id of the email's sender.
+	 */
+	public int getSender(int email) {
+		return senders[email];
+	}
+
+	/**
+	 * @return The address of an interned sender, which may be null.
+	 */
+	public String getSenderAddress(int sender) {
+		return senderAddresses.get(sender);
+	}
+
+	public List<String> getTagNames() {
+		return tagNames;
+	}
+
+	/**
+	 * Gets a tag mask, which has the bits of the given tags set, for counting
+	 * tagged emails in threads.
+	 * @param tagNames The names of the tags. Tags that aren't in the index
+	 *                 are ignored.
+	 * @return The tag mask.
+	 */
+	public long[] getTagMask(Collection<String> tagNames) {
+		long[] mask = new long[tagWords];
+		for (var tag : tagNames) {
+			int idx = this.tagNames.indexOf(tag);
+			if (idx >= 0) mask[idx / 64] |= 1L << (idx % 64);
+		}
+		return mask;
+	}
+
+	/**
+	 * Determines if an email has any of the tags in a mask.
+	 */
+	public boolean hasAnyTag(int email, long[] mask) {
+		for (int w = 0; w < tagWords; w++) {
+			if ((tags[email * tagWords + w] & mask[w]) != 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Counts how many of the tags in a mask an email has.
+	 */
+	public int countTags(int email, long[] mask) {
+		int count = 0;
+		for (int w = 0; w < tagWords; w++) {
+			count += Long.bitCount(tags[email * tagWords + w] & mask[w]);
+		}
+		return count;
+	}
+
+	/**
+	 * @return The number of the thread's first email, which is its root.
+	 */
+	public int getThreadStart(int thread) {
+		return threadOffsets[thread];
+	}
+
+	/**
+	 * @return The number after the thread's last email.
+	 */
+	public int getThreadEnd(int thread) {
+		return threadOffsets[thread + 1];
+	}
+
+	/**
+	 * @return The number of emails in the thread, including the root.
+	 */
+	public int getThreadSize(int thread) {
+		return threadOffsets[thread + 1] - threadOffsets[thread];
+	}
+
+	/**
+	 * @return The depth of the deepest reply in the thread, or 0 if the root
+	 * has no replies.
+	 */
+	public int getThreadDepth(int thread) {
+		return threadDepths[thread];
+	}
+
+	/**
+	 * @return The number of distinct senders in the thread.
+	 */
+	public int getThreadParticipantCount(int thread) {
+		return threadParticipants[thread];
+	}
+
+	/**
+	 * Counts the emails in a thread that have any of the tags in a mask.
+	 */
+	public int countEmails(int thread, long[] mask) {
+		return countEmails(threadOffsets[thread], threadOffsets[thread + 1], mask);
+	}
+
+	/**
+	 * Counts the emails in a range of numbers, such as a thread or a
+	 * sub-thread, that have any of the tags in a mask.
+	 */
+	public int countEmails(int start, int end, long[] mask) {
+		int count = 0;
+		for (int e = start; e < end; e++) {
+			if (hasAnyTag(e, mask)) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the tags in a mask on all emails of a thread.
+	 */
+	public int countThreadTags(int thread, long[] mask) {
+		return countTags(threadOffsets[thread], threadOffsets[thread + 1], mask);
+	}
+
+	/**
+	 * Counts the tags in a mask on all emails in a range of numbers.
+	 */
+	public int countTags(int start, int end, long[] mask) {
+		int count = 0;
+		for (int e = start; e < end; e++) count += countTags(e, mask);
+		return count;
+	}
+
+	/**
+	 * The relevance of a thread, as computed by the original analysis
+	 * program: the mean of the ratio of emails with any tag in the mask, and
+	 * the number of those tags relative to the max relevance, capped at 1. A
+	 * max relevance of 0 makes the relative tag count 1, even for a thread
+	 * without tags, since the original computes {@code min(1.0, 0 / 0.0)}.
+	 */
+	public double getThreadRelevance(int thread, long[] mask, double maxRelevance) {
+		return getRelevance(threadOffsets[thread], threadOffsets[thread + 1], mask, maxRelevance);
+	}
+
+	/**
+	 * The relevance of the emails in a range of numbers, such as a sub-thread,
+	 * in the same way as {@link #getThreadRelevance(int, long[], double)}.
+	 */
+	public double getRelevance(int start, int end, long[] mask, double maxRelevance) {
+		int tagCount = countTags(start, end, mask);
+		double density = (double) countEmails(start, end, mask) / (end - start);
+		double relativeTagCount = maxRelevance > 0 ? Math.min(1.0, tagCount / maxRelevance) : 1.0;
+		return (density + relativeTagCount) / 2.0;
+	}
+
+	/**
+	 * The "max relevance" of all threads: the third-quartile value of the number of tags in the mask in each thread.
+	 */
+	public double getMaxRelevance(long[] mask) {
+		int threadCount = getThreadCount();
+		if (threadCount == 0) return 0;
+		int[] counts = new int[threadCount];
+		for (int t = 0; t < threadCount; t++) counts[t] = countThreadTags(t, mask);
+		Arrays.sort(counts);
+		return counts[threadCount * 3 / 4];
+	}
+
+	/**
+	 * Hands each thread to a consumer, in order.
+	 * @param consumer The consumer.
+	 * @throws Exception If the consumer fails.
+	 */
+	public void forEachThread(ThreadConsumer consumer) throws Exception {
+		for (int t = 0; t < getThreadCount(); t++) consumer.consumeThread(this, t);
+	}
+}
@@ -0,0 +1,242 @@
+package nl.andrewl.emaildatasetreportgen.thread;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import nl.andrewl.email_indexer.data.EmailEntry;
+import nl.andrewl.email_indexer.data.Tag;
+import nl.andrewl.emaildatasetreportgen.DatasetEmailConsumer;
+import nl.andrewl.emaildatasetreportgen.columnar.ColumnarFormat;
+
+import java.util.*;
+
+/**
+ * Consumer that collects the thread structure of the emails it receives in
+ * primitive arrays, and builds a {@link ThreadIndex} from them once the scan
+ * is done. Emails may be received in any order; a reply is linked to its
+ * parent even if it's received first.
+ */
+public class ThreadIndexBuilder implements DatasetEmailConsumer {
+	private static final long NO_PARENT = Long.MIN_VALUE;
+
+	private final List<String> tagNames;
+	private final Map<String, Integer> tagIndexes = new HashMap<>();
+	private final int tagWords;
+	private final Map<String, Integer> senderIds = new HashMap<>();
+	private final List<String> senderAddresses = new ArrayList<>();
+	private long[] ids = new long[1024];
+	private long[] parentIds = new long[1024];
+	private int[] senders = new int[1024];
+	private long[] tags;
+	private int size = 0;
+
+	/**
+	 * Creates a new builder.
+	 * @param tagNames The names of all tags in the dataset.
+	 */
+	public ThreadIndexBuilder(List<String> tagNames) {
+		this.tagNames = List.copyOf(tagNames);
+		for (int i = 0; i < tagNames.size(); i++) tagIndexes.put(tagNames.get(i), i);
+		this.tagWords = ColumnarFormat.tagWords(tagNames.size());
+		this.tags = new long[ids.length * tagWords];
+	}
+
+	@Override
+	public void consumeEmail(EmailEntry email, Collection<Tag> tags) {
+		add(email.id(), email.parentId(), email.sentFrom(), tags.stream().map(Tag::name).toList());
+	}
+
+	/**
+	 * Adds an already-serialized email, such as one from a previous JSON
+	 * export.
+	 * @param email The email's JSON object.
+	 */
+	public void copyEmail(JsonObject email) {
+		List<String> emailTagNames = new ArrayList<>();
+		for (var tag : email.getAsJsonArray("tags")) emailTagNames.add(tag.getAsString());
+		JsonElement sentFrom = email.get("sent_from");
+		add(
+				email.get("id").getAsLong(),
+				email.get("parent_id").isJsonNull() ? null : email.get("parent_id").getAsLong(),
+				sentFrom == null || sentFrom.isJsonNull() ? null : sentFrom.getAsString(),
+				emailTagNames
+		);
+	}
+
+	/**
+	 * Adds a single email.
+	 * @param id The email's id.
+	 * @param parentId The id of the email's parent, or null if it's a thread root.
+	 * @param sentFrom The email's sender.
+	 * @param emailTagNames The names of the email's tags.
+	 */
+	public void add(long id, Long parentId, String sentFrom, Collection<String> emailTagNames) {
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, size * 2);
+			parentIds = Arrays.copyOf(parentIds, size * 2);
+			senders = Arrays.copyOf(senders, size * 2);
+			tags = Arrays.copyOf(tags, size * 2 * tagWords);
+		}
+		ids[size] = id;
+		parentIds[size] = parentId == null ? NO_PARENT : parentId;
+		Integer sender = senderIds.get(sentFrom);
+		if (sender == null) {
+			sender = senderAddresses.size();
+			senderIds.put(sentFrom, sender);
+			senderAddresses.add(sentFrom);
+		}
+		senders[size] = sender;
+		for (var tagName : emailTagNames) {
+			Integer idx = tagIndexes.get(tagName);
+			if (idx != null) tags[size * tagWords + idx / 64] |= 1L << (idx % 64);
+		}
+		size++;
+	}
+
+	/**
+	 * Builds the index of all emails that were added.
+	 * @return The thread index.
+	 * @throws IllegalStateException If an email was added more than once.
+	 */
+	public ThreadIndex build() {
+		LongIntMap rowsById = new LongIntMap(size);
+		for (int row = 0; row < size; row++) {
+			if (!rowsById.putIfAbsent(ids[row], row)) {
+				throw new IllegalStateException("Email " + ids[row] + " was added more than once.");
+			}
+		}
+		int[] parentRows = new int[size];
+		for (int row = 0; row < size; row++) {
+			parentRows[row] = parentIds[row] == NO_PARENT ? -1 : rowsById.get(parentIds[row]);
+		}
+		int[] rowChildOffsets = new int[size + 1];
+		int[] rowChildren = children(parentRows, rowChildOffsets);
+
+		// Number the emails depth-first from each root, in the order they were added.
+		int[] order = new int[size];
+		int[] positions = new int[size];
+		Arrays.fill(positions, -1);
+		int[] threads = new int[size];
+		int[] depths = new int[size];
+		IntStack stack = new IntStack();
+		List<Integer> threadOffsets = new ArrayList<>();
+		int next = 0;
+		for (int root = 0; root < size; root++) {
+			if (parentIds[root] != NO_PARENT) continue;
+			threadOffsets.add(next);
+			next = visit(root, threadOffsets.size() - 1, next, order, positions, threads, depths, rowChildOffsets, rowChildren, stack);
+		}
+		threadOffsets.add(next);
+		// Replies to missing emails, and any cycles of replies, aren't part of a thread.
+		for (int row = 0; row < size; row++) {
+			if (parentIds[row] != NO_PARENT && parentRows[row] < 0) {
+				next = visit(row, -1, next, order, positions, threads, depths, rowChildOffsets, rowChildren, stack);
+			}
+		}
+		for (int row = 0; row < size; row++) {
+			if (positions[row] < 0) {
+				next = visit(row, -1, next, order, positions, threads, depths, rowChildOffsets, rowChildren, stack);
+			}
+		}
+
+		long[] sortedIds = new long[size];
+		int[] sortedParents = new int[size];
+		int[] sortedThreads = new int[size];
+		int[] sortedDepths = new int[size];
+		int[] sortedSenders = new int[size];
+		long[] sortedTags = new long[size * tagWords];
+		LongIntMap emailsById = new LongIntMap(size);
+		for (int e = 0; e < size; e++) {
+			int row = order[e];
+			sortedIds[e] = ids[row];
+			sortedParents[e] = parentRows[row] < 0 ? -1 : positions[parentRows[row]];
+			sortedThreads[e] = threads[row];
+			sortedDepths[e] = depths[row];
+			sortedSenders[e] = senders[row];
+			System.arraycopy(tags, row * tagWords, sortedTags, e * tagWords, tagWords);
+			emailsById.putIfAbsent(ids[row], e);
+		}
+		int[] childOffsets = new int[size + 1];
+		int[] children = children(sortedParents, childOffsets);
+		return new ThreadIndex(
+				emailsById,
+				sortedIds,
+				sortedParents,
+				sortedThreads,
+				sortedDepths,
+				childOffsets,
+				children,
+				sortedSenders,
+				Collections.unmodifiableList(new ArrayList<>(senderAddresses)),
+				tagNames,
+				sortedTags,
+				threadOffsets.stream().mapToInt(Integer::intValue).toArray()
+		);
+	}
+
+	/**
+	 * Numbers the emails of a subtree depth-first, skipping any that are
+	 * already numbered.
+	 * @return The next free number.
+	 */
+	private static int visit(
+			int start, int thread, int next,
+			int[] order, int[] positions, int[] threads, int[] depths,
+			int[] childOffsets, int[] children, IntStack stack
+	) {
+		stack.push(start);
+		depths[start] = 0;
+		while (!stack.isEmpty()) {
+			int row = stack.pop();
+			if (positions[row] >= 0) continue;
+			positions[row] = next;
+			order[next++] = row;
+			threads[row] = thread;
+			for (int i = childOffsets[row + 1] - 1; i >= childOffsets[row]; i--) {
+				int child = children[i];
+				if (positions[child] < 0) {
+					depths[child] = depths[row] + 1;
+					stack.push(child);
+				}
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Groups the children of each email in a compressed array, in order.
+	 * @param parents The parent of each email, or -1.
+	 * @param offsets The array to put the offset of each email's children in,
+	 *                with one extra element for the end.
+	 * @return The children.
+	 */
+	private static int[] children(int[] parents, int[] offsets) {
+		for (int parent : parents) {
+			if (parent >= 0) offsets[parent + 1]++;
+		}
+		for (int i = 0; i < parents.length; i++) offsets[i + 1] += offsets[i];
+		int[] children = new int[offsets[parents.length]];
+		int[] fill = Arrays.copyOf(offsets, parents.length);
+		for (int i = 0; i < parents.length; i++) {
+			if (parents[i] >= 0) children[fill[parents[i]]++] = i;
+		}
+		return children;
+	}
+
+	private static class IntStack {
+		private int[] values = new int[64];
+		private int size = 0;
+
+		void push(int value) {
+			if (size == values.length) values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		int pop() {
+			return values[--size];
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package nl.andrewl.jvisualizer;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lazily-parsed analysis results. The file is memory-mapped, and a single
+ * pass over its bytes finds where each top-level section starts and ends,
+ * without parsing anything. A section is only parsed the first time a
+ * renderer asks for it, and then kept for other renderers. Sections that no
+ * renderer asks for are never parsed at all.
+ */
+public class AnalysisData {
+	private final Path file;
+	private final Map<String, LazySection> sections;
+
+	private AnalysisData(Path file, Map<String, LazySection> sections) {
+		this.file = file;
+		this.sections = sections;
+	}
+
+	/**
+	 * Opens an analysis results file, and indexes its top-level sections.
+	 * @param file The file to open.
+	 * @return The analysis data.
+	 * @throws IOException If the file couldn't be read, or its top level isn't
+	 * a valid JSON object.
+	 */
+	public static AnalysisData open(Path file) throws IOException {
+		ByteBuffer buffer;
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("File " + file + " is too large to map (" + channel.size() + " bytes).");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		return new AnalysisData(file, new SectionIndexer(buffer).index());
+	}
+
+	/**
+	 * Reads an analysis results file into memory, instead of mapping it, and
+	 * indexes its top-level sections. Use this if the file may be rewritten
+	 * while it's being rendered: if a mapped file is truncated, reading the
+	 * mapping crashes the JVM, while this keeps a private copy.
+	 * @param file The file to read.
+	 * @return The analysis data.
+	 * @throws IOException If the file couldn't be read, or its top level isn't
+	 * a valid JSON object.
+	 */
+	public static AnalysisData read(Path file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		return new AnalysisData(file, new SectionIndexer(buffer).index());
+	}
+
+	public Set<String> getSectionNames() {
+		return sections.keySet();
+	}
+
+	public boolean hasSection(String name) {
+		return sections.containsKey(name);
+	}
+
+	/**
+	 * Gets a top-level section, parsing it if this is the first time it's
+	 * requested. This is safe to call from multiple threads.
+	 * @param name The name of the section.
+	 * @return The section.
+	 * @throws IOException If the section isn't valid JSON.
+	 * @throws IllegalArgumentException If there is no such section.
+	 */
+	public DataSection section(String name) throws IOException {
+		LazySection section = sections.get(name);
+		if (section == null) throw new IllegalArgumentException("No section named \"" + name + "\" in " + file + ".");
+		return section.get();
+	}
+
+	/**
+	 * Opens a top-level section to be read in a streaming fashion, without
+	 * parsing it into memory, or keeping it for other renderers. This is for
+	 * large sections that are only read once.
+	 * @param name The name of the section.
+	 * @return A reader of the section's value, which the caller must close.
+	 * @throws IllegalArgumentException If there is no such section.
+	 */
+	public JsonReader openSection(String name) {
+		LazySection section = sections.get(name);
+		if (section == null) throw new IllegalArgumentException("No section named \"" + name + "\" in " + file + ".");
+		JsonReader reader = new JsonReader(new InputStreamReader(new ByteBufferInputStream(section.bytes.duplicate()), StandardCharsets.UTF_8));
+		reader.setLenient(true);
+		return reader;
+	}
+
+	/**
+	 * Updates a digest with the raw bytes of a top-level section, without
+	 * parsing it.
+	 * @param name The name of the section.
+	 * @param digest The digest to update.
+	 * @throws IllegalArgumentException If there is no such section.
+	 */
+	public void digestSection(String name, MessageDigest digest) {
+		LazySection section = sections.get(name);
+		if (section == null) throw new IllegalArgumentException("No section named \"" + name + "\" in " + file + ".");
+		digest.update(section.bytes.duplicate());
+	}
+
+	private static class LazySection {
+		private final String name;
+		private final ByteBuffer bytes;
+		private DataSection section;
+
+		LazySection(String name, ByteBuffer bytes) {
+			this.name = name;
+			this.bytes = bytes;
+		}
+
+		synchronized DataSection get() throws IOException {
+			if (section == null) {
+				try (Reader reader = new InputStreamReader(new ByteBufferInputStream(bytes.duplicate()), StandardCharsets.UTF_8)) {
+					section = DataSection.parse(name, reader);
+				}
+			}
+			return section;
+		}
+	}
+
+	/**
+	 * Finds the byte range of the value of each key in a top-level JSON
+	 * object. It only looks at the structure (strings, brackets and braces),
+	 * so values are checked when they're parsed.
+	 */
+	private static class SectionIndexer {
+		private final ByteBuffer buffer;
+		private final int limit;
+		private int pos = 0;
+
+		SectionIndexer(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.limit = buffer.limit();
+		}
+
+		Map<String, LazySection> index() throws IOException {
+			Map<String, LazySection> sections = new LinkedHashMap<>();
+			skipWhitespace();
+			// Skip a UTF-8 byte order mark, if any.
+			if (limit - pos >= 3 && (buffer.get(pos) & 0xFF) == 0xEF && (buffer.get(pos + 1) & 0xFF) == 0xBB && (buffer.get(pos + 2) & 0xFF) == 0xBF) {
+				pos += 3;
+				skipWhitespace();
+			}
+			expect('{');
+			skipWhitespace();
+			if (peek() == '}') return sections;
+			while (true) {
+				skipWhitespace();
+				int keyStart = pos;
+				skipString();
+				String key = JsonParser.parseString(
+						StandardCharsets.UTF_8.decode(buffer.slice(keyStart, pos - keyStart)).toString()
+				).getAsString();
+				skipWhitespace();
+				expect(':');
+				skipWhitespace();
+				int valueStart = pos;
+				skipValue();
+				sections.put(key, new LazySection(key, buffer.slice(valueStart, pos - valueStart)));
+				skipWhitespace();
+				byte b = next();
+				if (b == '}') return sections;
+				if (b != ',') throw error("Expected ',' or '}'");
+			}
+		}
+
+		private void skipValue() throws IOException {
+			byte b = peek();
+			if (b == '"') {
+				skipString();
+			} else if (b == '{' || b == '[') {
+				int depth = 0;
+				do {
+					b = peek();
+					if (b == '"') {
+						skipString();
+						continue;
+					}
+					if (b == '{' || b == '[') depth++;
+					if (b == '}' || b == ']') depth--;
+					pos++;
+				} while (depth > 0);
+			} else {
+				while (pos < limit) {
+					b = buffer.get(pos);
+					if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) break;
+					pos++;
+				}
+			}
+		}
+
+		private void skipString() throws IOException {
+			expect('"');
+			while (true) {
+				byte b = next();
+				if (b == '\\') {
+					next();
+				} else if (b == '"') {
+					return;
+				}
+			}
+		}
+
+		private void skipWhitespace() {
+			while (pos < limit && isWhitespace(buffer.get(pos))) pos++;
+		}
+
+		private static boolean isWhitespace(byte b) {
+			return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+		}
+
+		private byte peek() throws IOException {
+			if (pos >= limit) throw error("Unexpected end of file");
+			return buffer.get(pos);
+		}
+
+		private byte next() throws IOException {
+			byte b = peek();
+			pos++;
+			return b;
+		}
+
+		private void expect(char c) throws IOException {
+			if (next() != c) throw error("Expected '" + c + "'");
+		}
+
+		private IOException error(String message) {
+			return new IOException(message + " at byte " + pos + ".");
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!buffer.hasRemaining()) return -1;
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package nl.andrewl.jvisualizer;
+
+import nl.andrewl.jvisualizer.output.ChartOutput;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Renders the charts of many analysis results files in one JVM, so that the
+ * theme, fonts and rendering code are only loaded and warmed up once. The
+ * charts of all reports are rendered on the same scheduler, so a report's
+ * charts can start while the previous report's last charts are still being
+ * drawn.
+ * <p>
+ *     Each report's charts are written to a directory next to its results
+ *     file: "visual" for a file named "analysis_results.json", like the
+ *     pipeline does, or "NAME_visual" for any other file "NAME.json".
+ * </p>
+ * <p>
+ *     The render cache is only cleaned up while no report is being rendered:
+ *     after all reports in batch mode, and between polls in watch mode.
+ * </p>
+ */
+public class BatchRenderer {
+	public static final String RESULTS_FILENAME = "analysis_results.json";
+	private static final long POLL_MILLIS = 2000;
+
+	private final RenderScheduler scheduler;
+	private final ChartOutput output;
+	private final List<ChartRenderer> renderers;
+	private final String[] args;
+
+	/**
+	 * Creates a new batch renderer.
+	 * @param scheduler The scheduler to render all charts on.
+	 * @param output The output to write charts with.
+	 * @param renderers The renderers of each report's charts.
+	 * @param args The program's arguments, from which each report's render
+	 *             cache settings are read.
+	 */
+	public BatchRenderer(RenderScheduler scheduler, ChartOutput output, List<ChartRenderer> renderers, String[] args) {
+		this.scheduler = scheduler;
+		this.output = output;
+		this.renderers = renderers;
+		this.args = args;
+	}
+
+	/**
+	 * Renders the charts of the given results files, and waits for all of them.
+	 * @param files The analysis results files.
+	 * @return The number of reports that failed.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public int renderAll(List<Path> files) throws InterruptedException {
+		long start = System.nanoTime();
+		Map<Path, CompletableFuture<Integer>> reports = new LinkedHashMap<>();
+		for (var file : files) reports.put(file, render(file));
+		int failed = 0;
+		for (var entry : reports.entrySet()) {
+			try {
+				entry.getValue().get();
+			} catch (ExecutionException e) {
+				printFailure(entry.getKey(), e.getCause());
+				failed++;
+			}
+		}
+		evictCache();
+		System.out.printf(
+				"Rendered %d of %d reports in %.1f seconds, with %d threads.%n",
+				files.size() - failed, files.size(), (System.nanoTime() - start) / 1_000_000_000.0, scheduler.getParallelism()
+		);
+		return failed;
+	}
+
+	/**
+	 * Watches a directory for results files named {@value #RESULTS_FILENAME},
+	 * in it or any of its subdirectories, and renders each one once it's been
+	 * completely written, and again whenever it changes. A file is considered
+	 * completely written when its size and modification time are the same for
+	 * two polls in a row. Files are read into memory instead of mapped, since
+	 * they may be rewritten while they're rendered. This never returns, unless
+	 * interrupted.
+	 * @param dir The directory to watch.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void watch(Path dir) throws InterruptedException {
+		System.out.printf("Watching %s for %s files.%n", dir.toAbsolutePath(), RESULTS_FILENAME);
+		Map<Path, FileState> seen = new HashMap<>();
+		Map<Path, FileState> rendered = new HashMap<>();
+		Set<Path> inProgress = ConcurrentHashMap.newKeySet();
+		boolean evictionPending = false;
+		while (true) {
+			// Reports are only started by this loop, so none are being rendered while it's empty.
+			if (evictionPending && inProgress.isEmpty()) {
+				evictCache();
+				evictionPending = false;
+			}
+			for (var file : findResultsFiles(dir)) {
+				FileState state;
+				try {
+					state = FileState.of(file);
+				} catch (IOException e) {
+					continue; // The file was removed since it was found.
+				}
+				FileState previous = seen.put(file, state);
+				if (state.equals(previous) && !state.equals(rendered.get(file)) && inProgress.add(file)) {
+					rendered.put(file, state);
+					evictionPending = true;
+					render(file, true).whenComplete((count, error) -> {
+						if (error != null) printFailure(file, error);
+						inProgress.remove(file);
+					});
+				}
+			}
+			Thread.sleep(POLL_MILLIS);
+		}
+	}
+
+	/**
+	 * Submits the charts of one results file to be rendered.
+	 * @param file The analysis results file.
+	 * @return A future that completes with the number of charts that were
+	 * rendered, once they're all done.
+	 */
+	public CompletableFuture<Integer> render(Path file) {
+		return render(file, false);
+	}
+
+	/**
+	 * Submits the charts of one results file to be rendered.
+	 * @param file The analysis results file.
+	 * @param copy Whether to read the file into memory instead of mapping it,
+	 *             because it may be rewritten while it's being rendered.
+	 * @return A future that completes with the number of charts that were
+	 * rendered, once they're all done.
+	 */
+	private CompletableFuture<Integer> render(Path file, boolean copy) {
+		AnalysisData data;
+		ChartOutput reportOutput;
+		RenderCache cache;
+		try {
+			data = copy ? AnalysisData.read(file) : AnalysisData.open(file);
+			Path outputDir = getOutputDir(file);
+			Files.createDirectories(outputDir);
+			reportOutput = output.forDirectory(outputDir);
+			cache = RenderCache.fromArgs(args, data, reportOutput);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		List<ChartJob> jobs = JVisualizer.getJobs(renderers, data, reportOutput, cache);
+		return scheduler.submit(jobs).thenApply(v -> {
+			// Keep each report's lines together, as reports may finish at the same time.
+			synchronized (System.out) {
+				System.out.printf("Rendered %d charts for %s.%n", jobs.size(), file);
+				reportOutput.printSummary();
+				if (cache != null) cache.printSummary();
+			}
+			return jobs.size();
+		});
+	}
+
+	private void evictCache() {
+		try {
+			RenderCache.evict(args);
+		} catch (IOException e) {
+			System.err.println("Failed to clean up the render cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the directory that a results file's charts are written to.
+	 * @param file The analysis results file.
+	 * @return The output directory.
+	 */
+	public static Path getOutputDir(Path file) {
+		Path parent = file.toAbsolutePath().getParent();
+		String filename = file.getFileName().toString();
+		if (filename.equals(RESULTS_FILENAME)) return parent.resolve("visual");
+		int extensionIdx = filename.lastIndexOf('.');
+		String name = extensionIdx > 0 ? filename.substring(0, extensionIdx) : filename;
+		return parent.resolve(name + "_visual");
+	}
+
+	private static List<Path> findResultsFiles(Path dir) {
+		try (var files = Files.find(dir, Integer.MAX_VALUE, (path, attributes) ->
+				attributes.isRegularFile() && path.getFileName().toString().equals(RESULTS_FILENAME)
+		)) {
+			return files.sorted().toList();
+		} catch (IOException | UncheckedIOException e) {
+			// Files were changed while searching; they're found on the next poll.
+			return List.of();
+		}
+	}
+
+	private static void printFailure(Path file, Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) error = error.getCause();
+		synchronized (System.err) {
+			System.err.println("Failed to render the charts for " + file + ": " + error.getMessage());
+			if (error instanceof RenderScheduler.ChartRenderException) {
+				error.getCause().printStackTrace();
+			}
+		}
+	}
+
+	private record FileState(long size, FileTime lastModified) {
+		static FileState of(Path file) throws IOException {
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			return new FileState(attributes.size(), attributes.lastModifiedTime());
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package nl.andrewl.jvisualizer;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A single chart or table to render, which can run on any thread.
+ * @param name The name of the chart, which is the file it's written to,
+ *             relative to the output directory, without the extension of
+ *             the chart output format.
+ * @param sections The names of the analysis data sections the chart is made from.
+ * @param task The task that renders the chart.
+ */
+public record ChartJob(String name, List<String> sections, Task task) {
+	@FunctionalInterface
+	public interface Task {
+		/**
+		 * Renders the chart.
+		 * @return The file that was written.
+		 * @throws Exception If the chart couldn't be rendered.
+		 */
+		Path render() throws Exception;
+	}
+
+	public ChartJob(String name, String section, Task task) {
+		this(name, List.of(section), task);
+	}
+}
@@ -1,7 +1,26 @@
 package nl.andrewl.jvisualizer;
 
-import com.google.gson.JsonObject;
+import nl.andrewl.jvisualizer.output.ChartOutput;
+
+import java.util.List;
 
 public interface ChartRenderer {
-	void renderCharts(JsonObject data) throws Exception;
+	/**
+	 * Gets the jobs for each of the charts this renderer produces. Jobs may
+	 * run in any order, in parallel, so each one should read the sections it
+	 * needs from the data itself.
+	 * @param data The analysis data.
+	 * @param output The output to write charts to.
+	 * @return The chart jobs.
+	 */
+	List<ChartJob> getJobs(AnalysisData data, ChartOutput output);
+
+	/**
+	 * Gets a description of this renderer's settings, which, besides the
+	 * data, determine its output.
+	 * @return The description.
+	 */
+	default String getSettings() {
+		return "";
+	}
 }
@@ -0,0 +1,245 @@
+package nl.andrewl.jvisualizer;
+
+import com.google.gson.*;
+import com.google.gson.internal.LazilyParsedNumber;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * A parsed top-level section of the analysis results. Arrays of numbers are
+ * decoded straight into primitive {@code int[]} or {@code double[]} arrays,
+ * which are much smaller than a tree of boxed JSON elements, and are left out
+ * of the section's JSON structure. Everything else is kept as regular JSON.
+ * <p>
+ *     Non-finite values written as strings, like "NaN" and "Inf", are read as
+ *     numbers too.
+ * </p>
+ */
+public class DataSection {
+	private final String name;
+	private final JsonElement json;
+	private final Map<List<String>, Object> numericArrays;
+
+	private DataSection(String name, JsonElement json, Map<List<String>, Object> numericArrays) {
+		this.name = name;
+		this.json = json;
+		this.numericArrays = numericArrays;
+	}
+
+	/**
+	 * Parses a section from a reader, in a streaming fashion.
+	 * @param name The name of the section.
+	 * @param reader The reader to read the section's JSON value from.
+	 * @return The section.
+	 * @throws IOException If the section isn't valid JSON.
+	 */
+	static DataSection parse(String name, Reader reader) throws IOException {
+		JsonReader jsonReader = new JsonReader(reader);
+		jsonReader.setLenient(true);
+		Map<List<String>, Object> numericArrays = new HashMap<>();
+		JsonElement json = new Parser(jsonReader, numericArrays).read(new ArrayList<>());
+		return new DataSection(name, json, numericArrays);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the JSON structure of this section, which doesn't include any
+	 * non-empty arrays of numbers; use {@link #getIntArray(String...)} and
+	 * {@link #getDoubleArray(String...)} for those. Inside other arrays, their
+	 * place is taken by a JSON null.
+	 * @return The JSON structure.
+	 */
+	public JsonElement getJson() {
+		return json;
+	}
+
+	public JsonObject getObject() {
+		return json.getAsJsonObject();
+	}
+
+	/**
+	 * Gets an array of integers in this section.
+	 * @param path The keys leading to the array from the section's root.
+	 * @return The array. Callers must not modify it.
+	 * @throws IllegalArgumentException If there's no array of integers at the path.
+	 */
+	public int[] getIntArray(String... path) {
+		Object array = numericArrays.get(List.of(path));
+		if (array instanceof int[] ints) return ints;
+		if (array instanceof double[] doubles) {
+			throw new IllegalArgumentException("Array " + describe(path) + " contains non-integer values.");
+		}
+		JsonArray jsonArray = getJsonArray(path);
+		int[] values = new int[jsonArray.size()];
+		for (int i = 0; i < values.length; i++) values[i] = jsonArray.get(i).getAsInt();
+		return values;
+	}
+
+	/**
+	 * Gets an array of numbers in this section.
+	 * @param path The keys leading to the array from the section's root.
+	 * @return The array. Callers must not modify it.
+	 * @throws IllegalArgumentException If there's no array of numbers at the path.
+	 */
+	public double[] getDoubleArray(String... path) {
+		Object array = numericArrays.get(List.of(path));
+		if (array instanceof double[] doubles) return doubles;
+		if (array instanceof int[] ints) {
+			double[] values = new double[ints.length];
+			for (int i = 0; i < ints.length; i++) values[i] = ints[i];
+			return values;
+		}
+		JsonArray jsonArray = getJsonArray(path);
+		double[] values = new double[jsonArray.size()];
+		for (int i = 0; i < values.length; i++) values[i] = jsonArray.get(i).getAsDouble();
+		return values;
+	}
+
+	private JsonArray getJsonArray(String... path) {
+		JsonElement element = json;
+		for (var key : path) {
+			if (element.isJsonObject() && element.getAsJsonObject().has(key)) {
+				element = element.getAsJsonObject().get(key);
+			} else if (element.isJsonArray() && isIndex(key, element.getAsJsonArray())) {
+				element = element.getAsJsonArray().get(Integer.parseInt(key));
+			} else {
+				throw new IllegalArgumentException("No array " + describe(path) + ".");
+			}
+		}
+		if (!element.isJsonArray()) throw new IllegalArgumentException(describe(path) + " is not an array.");
+		return element.getAsJsonArray();
+	}
+
+	private static boolean isIndex(String key, JsonArray array) {
+		try {
+			int index = Integer.parseInt(key);
+			return index >= 0 && index < array.size();
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private String describe(String... path) {
+		return name + "/" + String.join("/", path);
+	}
+
+	/**
+	 * Recursive streaming parser, which records numeric arrays by their path.
+	 */
+	private record Parser(JsonReader reader, Map<List<String>, Object> numericArrays) {
+		JsonElement read(List<String> path) throws IOException {
+			return switch (reader.peek()) {
+				case BEGIN_OBJECT -> readObject(path);
+				case BEGIN_ARRAY -> readArray(path);
+				case STRING -> new JsonPrimitive(reader.nextString());
+				case NUMBER -> new JsonPrimitive(new LazilyParsedNumber(reader.nextString()));
+				case BOOLEAN -> new JsonPrimitive(reader.nextBoolean());
+				case NULL -> {
+					reader.nextNull();
+					yield JsonNull.INSTANCE;
+				}
+				default -> throw new IOException("Unexpected " + reader.peek() + " at " + reader.getPath());
+			};
+		}
+
+		private JsonObject readObject(List<String> path) throws IOException {
+			JsonObject obj = new JsonObject();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String key = reader.nextName();
+				path.add(key);
+				JsonElement value = read(path);
+				path.remove(path.size() - 1);
+				if (value != null) obj.add(key, value);
+			}
+			reader.endObject();
+			return obj;
+		}
+
+		/**
+		 * Reads an array. As long as all elements are numbers, they're
+		 * collected in a primitive buffer. If the whole array was numeric, it's
+		 * stored as a primitive array, and null is returned, so it's left out
+		 * of the JSON structure.
+		 */
+		private JsonElement readArray(List<String> path) throws IOException {
+			reader.beginArray();
+			double[] values = new double[16];
+			int size = 0;
+			boolean allInts = true;
+			while (reader.hasNext()) {
+				double value;
+				JsonToken token = reader.peek();
+				if (token == JsonToken.NUMBER) {
+					value = reader.nextDouble();
+				} else if (token == JsonToken.STRING) {
+					String s = reader.nextString();
+					Double special = parseNonFinite(s);
+					if (special == null) {
+						JsonArray array = toJsonArray(values, size, allInts);
+						array.add(s);
+						return readRemainingArray(array, path);
+					}
+					value = special;
+				} else {
+					return readRemainingArray(toJsonArray(values, size, allInts), path);
+				}
+				if (size == values.length) values = Arrays.copyOf(values, size * 2);
+				values[size++] = value;
+				if (allInts && (value != Math.rint(value) || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)) {
+					allInts = false;
+				}
+			}
+			reader.endArray();
+			if (size == 0) return new JsonArray();
+			if (allInts) {
+				int[] ints = new int[size];
+				for (int i = 0; i < size; i++) ints[i] = (int) values[i];
+				numericArrays.put(List.copyOf(path), ints);
+			} else {
+				numericArrays.put(List.copyOf(path), Arrays.copyOf(values, size));
+			}
+			return null;
+		}
+
+		private JsonArray readRemainingArray(JsonArray array, List<String> path) throws IOException {
+			while (reader.hasNext()) {
+				path.add(Integer.toString(array.size()));
+				JsonElement value = read(path);
+				path.remove(path.size() - 1);
+				// A numeric array nested in an array is stored by its index, but keeps its place.
+				array.add(value == null ? JsonNull.INSTANCE : value);
+			}
+			reader.endArray();
+			return array;
+		}
+
+		private static JsonArray toJsonArray(double[] values, int size, boolean allInts) {
+			JsonArray array = new JsonArray(size);
+			for (int i = 0; i < size; i++) {
+				if (allInts) {
+					array.add((int) values[i]);
+				} else {
+					array.add(values[i]);
+				}
+			}
+			return array;
+		}
+
+		private static Double parseNonFinite(String s) {
+			return switch (s) {
+				case "NaN", "nan" -> Double.NaN;
+				case "Inf", "inf", "Infinity" -> Double.POSITIVE_INFINITY;
+				case "-Inf", "-inf", "-Infinity" -> Double.NEGATIVE_INFINITY;
+				default -> null;
+			};
+		}
+	}
+}
@@ -1,12 +1,13 @@
 package nl.andrewl.jvisualizer;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import nl.andrewl.jvisualizer.output.ChartOutput;
 import nl.andrewl.jvisualizer.render.*;
 import org.jfree.chart.ChartTheme;
+import org.jfree.chart.JFreeChart;
 import org.jfree.chart.StandardChartTheme;
 
 import java.awt.*;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -16,34 +17,144 @@ public class JVisualizer {
 	public static final List<String> AK_TAGS = List.of("existence", "process", "property", "technology");
 	public static final ChartTheme CHART_THEME = getTheme();
 
+	/**
+	 * Each rendering thread applies its own copy of the chart theme, since
+	 * JFreeChart themes make no promises about concurrent use.
+	 */
+	private static final ThreadLocal<ChartTheme> THREAD_THEME = ThreadLocal.withInitial(() -> {
+		try {
+			return (ChartTheme) ((StandardChartTheme) CHART_THEME).clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	/**
+	 * Usage: {@code JVisualizer <analysis results file...> [--watch=DIR]
+	 * [--parallelism=N] [output settings] [pattern settings] [cache settings]},
+	 * where the parallelism is the number of charts rendered at the same time,
+	 * which defaults to the number of cores. See {@link ChartOutput#fromArgs(String[])}
+	 * for the output settings, {@link PatternRenderer#fromArgs(String[])} for
+	 * the pattern table settings, and {@link RenderCache#fromArgs} for the
+	 * cache settings.
+	 * <p>
+	 *     A single results file is rendered to the working directory. Given
+	 *     more than one file, or a directory to watch, the program renders
+	 *     them all in batch mode, see {@link BatchRenderer}.
+	 * </p>
+	 */
 	public static void main(String[] args) throws Exception {
-		Gson gson = new Gson();
-		Path file = Path.of(args[0]);
-		JsonObject data = gson.fromJson(Files.readString(file), JsonObject.class);
-		if (data == null) {
-			System.err.println("Couldn't read valid JSON data from " + file.toAbsolutePath());
+		List<Path> files = new ArrayList<>();
+		Path watchDir = null;
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		for (var arg : args) {
+			if (arg.startsWith("--parallelism=")) {
+				parallelism = Integer.parseInt(arg.substring("--parallelism=".length()));
+			} else if (arg.startsWith("--watch=")) {
+				watchDir = Path.of(arg.substring("--watch=".length()));
+			} else if (!arg.startsWith("--")) {
+				files.add(Path.of(arg));
+			}
+		}
+		if (files.isEmpty() && watchDir == null) {
+			System.err.println("Missing required analysis results file argument.");
+			System.exit(1);
+		}
+		if (watchDir != null && !Files.isDirectory(watchDir)) {
+			System.err.println(watchDir.toAbsolutePath() + " is not a directory.");
+			System.exit(1);
+		}
+		ChartOutput output;
+		List<ChartRenderer> renderers;
+		try {
+			output = ChartOutput.fromArgs(args);
+			renderers = createRenderers(args);
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		RenderScheduler scheduler = new RenderScheduler(parallelism);
+		try {
+			if (files.size() > 1 || watchDir != null) {
+				BatchRenderer batch = new BatchRenderer(scheduler, output, renderers, args);
+				if (!files.isEmpty() && batch.renderAll(files) > 0) System.exit(1);
+				if (watchDir != null) batch.watch(watchDir);
+			} else {
+				renderSingle(files.get(0), output, renderers, scheduler, args);
+			}
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	private static void renderSingle(Path file, ChartOutput output, List<ChartRenderer> renderers, RenderScheduler scheduler, String[] args) throws Exception {
+		AnalysisData data;
+		try {
+			data = AnalysisData.open(file);
+		} catch (IOException e) {
+			System.err.println("Couldn't read valid JSON data from " + file.toAbsolutePath() + ": " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		RenderCache cache = RenderCache.fromArgs(args, data, output);
+		List<ChartJob> jobs = getJobs(renderers, data, output, cache);
+		long start = System.nanoTime();
+		try {
+			scheduler.renderAll(jobs);
+		} catch (RenderScheduler.ChartRenderException e) {
+			System.err.println(e.getMessage());
+			e.getCause().printStackTrace();
 			System.exit(1);
 		}
-		List<ChartRenderer> renderers = List.of(
+		output.printTimings();
+		if (cache != null) cache.finish();
+		System.out.printf(
+				"Rendered %d charts in %.1f seconds, with %d threads.%n",
+				jobs.size(), (System.nanoTime() - start) / 1_000_000_000.0, scheduler.getParallelism()
+		);
+	}
+
+	/**
+	 * Creates the renderers of all charts and tables.
+	 * @param args The program's arguments, from which renderer settings are read.
+	 * @return The renderers.
+	 * @throws IllegalArgumentException If a renderer setting is invalid.
+	 */
+	public static List<ChartRenderer> createRenderers(String[] args) {
+		return List.of(
 				new CountRenderer(),
 				new SearchPerformanceRenderer(),
 				new CharacteristicRenderer(),
 				new RelevanceRenderer(),
-				new PatternRenderer()
+				PatternRenderer.fromArgs(args)
 		);
-		List<Thread> threads = new ArrayList<>(renderers.size());
+	}
+
+	/**
+	 * Gets the jobs for all charts of a report.
+	 * @param renderers The renderers to get jobs from.
+	 * @param data The report's analysis data.
+	 * @param output The output to write the charts to.
+	 * @param cache The render cache, or null if charts aren't cached.
+	 * @return The chart jobs.
+	 */
+	public static List<ChartJob> getJobs(List<ChartRenderer> renderers, AnalysisData data, ChartOutput output, RenderCache cache) {
+		List<ChartJob> jobs = new ArrayList<>();
 		for (var renderer : renderers) {
-			var t = new Thread(() -> {
-				try {
-					renderer.renderCharts(data);
-				} catch (Exception e) {
-					throw new RuntimeException(e);
-				}
-			});
-			threads.add(t);
-			t.start();
-		}
-		for (var thread : threads) thread.join();
+			for (var job : renderer.getJobs(data, output)) {
+				jobs.add(cache == null ? job : cache.wrap(job, renderer));
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Applies the chart theme to a chart. This is safe to call from any thread.
+	 * @param chart The chart to apply the theme to.
+	 */
+	public static void applyTheme(JFreeChart chart) {
+		THREAD_THEME.get().apply(chart);
 	}
 
 	public static ChartTheme getTheme() {
@@ -0,0 +1,287 @@
+package nl.andrewl.jvisualizer;
+
+import nl.andrewl.jvisualizer.output.ChartOutput;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A content-addressed cache of rendered charts. Each chart is identified by a
+ * hash of everything that determines its output: the raw bytes of the data
+ * sections it's made from, the output and renderer settings, and the code of
+ * jVisualizer itself. If a file with that hash is in the
+ * cache, it's copied to the chart's destination instead of rendering the
+ * chart again. Each cache entry is a directory named by the hash, which
+ * contains the chart's file under its own name.
+ * <p>
+ *     The least recently used files are removed when the cache grows larger
+ *     than its maximum size. This must only be done while no charts are being
+ *     rendered with the cache, so in batch mode it's done once all reports
+ *     are done, and entries that are still being added are never removed.
+ * </p>
+ */
+public class RenderCache {
+	public static final Path DEFAULT_DIR = Path.of(System.getProperty("user.home"), ".cache", "jvisualizer");
+	public static final long DEFAULT_MAX_MB = 500;
+
+	private static byte[] codeHash;
+
+	private final Path dir;
+	private final long maxBytes;
+	private final AnalysisData data;
+	private final ChartOutput output;
+	private final Map<String, byte[]> sectionHashes = new ConcurrentHashMap<>();
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * Creates a new render cache.
+	 * @param dir The directory to keep cached files in.
+	 * @param maxMb The maximum size of the cache, in megabytes.
+	 * @param data The analysis data that charts are made from.
+	 * @param output The output that charts are written with.
+	 * @throws IOException If the cache directory couldn't be created.
+	 */
+	public RenderCache(Path dir, long maxMb, AnalysisData data, ChartOutput output) throws IOException {
+		this.dir = dir;
+		this.maxBytes = maxMb * 1024 * 1024;
+		this.data = data;
+		this.output = output;
+		Files.createDirectories(dir);
+	}
+
+	/**
+	 * Parses cache settings from command-line flags. Supported flags are
+	 * "--render-cache=DIR", "--render-cache-max-mb=N" and "--no-render-cache".
+	 * @param args The arguments to parse.
+	 * @param data The analysis data that charts are made from.
+	 * @param output The output that charts are written with.
+	 * @return The cache, or null if caching is disabled.
+	 * @throws IOException If the cache directory couldn't be created.
+	 */
+	public static RenderCache fromArgs(String[] args, AnalysisData data, ChartOutput output) throws IOException {
+		Settings settings = Settings.fromArgs(args);
+		return settings == null ? null : new RenderCache(settings.dir(), settings.maxMb(), data, output);
+	}
+
+	/**
+	 * Removes the least recently used files from the cache that's set up by
+	 * the given command-line flags, if it's too large. See
+	 * {@link #fromArgs(String[], AnalysisData, ChartOutput)}.
+	 * @param args The arguments to parse.
+	 * @throws IOException If the cache couldn't be cleaned up.
+	 */
+	public static void evict(String[] args) throws IOException {
+		Settings settings = Settings.fromArgs(args);
+		if (settings != null && Files.isDirectory(settings.dir())) {
+			evict(settings.dir(), settings.maxMb() * 1024 * 1024);
+		}
+	}
+
+	private record Settings(Path dir, long maxMb) {
+		static Settings fromArgs(String[] args) {
+			Path dir = DEFAULT_DIR;
+			long maxMb = DEFAULT_MAX_MB;
+			for (var arg : args) {
+				if (arg.equals("--no-render-cache")) return null;
+				if (arg.startsWith("--render-cache=")) dir = Path.of(arg.substring("--render-cache=".length()));
+				if (arg.startsWith("--render-cache-max-mb=")) maxMb = Long.parseLong(arg.substring("--render-cache-max-mb=".length()));
+			}
+			return new Settings(dir, maxMb);
+		}
+	}
+
+	/**
+	 * Wraps a chart job so that it's only rendered if its output isn't cached.
+	 * @param job The job to wrap.
+	 * @param renderer The renderer that made the job.
+	 * @return The cached job.
+	 */
+	public ChartJob wrap(ChartJob job, ChartRenderer renderer) {
+		return new ChartJob(job.name(), job.sections(), () -> {
+			Path entry = dir.resolve(getKey(job, renderer));
+			Path cached = findCachedFile(entry);
+			if (cached != null) {
+				Path file = output.getDirectory().resolve(job.name()).resolveSibling(cached.getFileName().toString());
+				if (file.getParent() != null) Files.createDirectories(file.getParent());
+				try {
+					Files.copy(cached, file, StandardCopyOption.REPLACE_EXISTING);
+					Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+					hits.incrementAndGet();
+					return file;
+				} catch (NoSuchFileException e) {
+					// Another process removed the entry since it was found, so render the chart after all.
+				}
+			}
+			Path file = job.task().render();
+			// Each entry is a directory with the file under its own name, added atomically.
+			Path tmp = Files.createTempDirectory(dir, entry.getFileName() + ".tmp");
+			Files.copy(file, tmp.resolve(file.getFileName()));
+			try {
+				Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// Another run added the same entry first.
+				deleteEntry(tmp);
+			}
+			misses.incrementAndGet();
+			return file;
+		});
+	}
+
+	private static Path findCachedFile(Path entry) throws IOException {
+		if (!Files.isDirectory(entry)) return null;
+		try (var files = Files.list(entry)) {
+			return files.findFirst().orElse(null);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	private String getKey(ChartJob job, ChartRenderer renderer) throws IOException {
+		MessageDigest digest = newDigest();
+		digest.update(job.name().getBytes(StandardCharsets.UTF_8));
+		digest.update(output.getSettings().getBytes(StandardCharsets.UTF_8));
+		digest.update(renderer.getSettings().getBytes(StandardCharsets.UTF_8));
+		for (var section : job.sections()) {
+			digest.update(section.getBytes(StandardCharsets.UTF_8));
+			digest.update(sectionHashes.computeIfAbsent(section, name -> {
+				MessageDigest sectionDigest = newDigest();
+				data.digestSection(name, sectionDigest);
+				return sectionDigest.digest();
+			}));
+		}
+		digest.update(getCodeHash());
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Gets a hash of the code of jVisualizer, so that any change to it, also
+	 * to code that renderers share, invalidates every chart. When running
+	 * from a jar, this is the hash of the jar, and otherwise it's the hash of
+	 * every file in the classes directory. It's only computed once.
+	 * @return The hash.
+	 * @throws IOException If the code couldn't be read.
+	 */
+	private static synchronized byte[] getCodeHash() throws IOException {
+		if (codeHash != null) return codeHash;
+		CodeSource source = JVisualizer.class.getProtectionDomain().getCodeSource();
+		if (source == null) throw new IOException("Couldn't find the code of jVisualizer.");
+		Path location;
+		try {
+			location = Path.of(source.getLocation().toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException("Couldn't find the code of jVisualizer.", e);
+		}
+		MessageDigest digest = newDigest();
+		if (Files.isDirectory(location)) {
+			List<Path> files;
+			try (var stream = Files.walk(location)) {
+				files = stream.filter(Files::isRegularFile).sorted().toList();
+			}
+			for (var file : files) {
+				digest.update(location.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+				digest.update(Files.readAllBytes(file));
+			}
+		} else {
+			try (InputStream in = Files.newInputStream(location)) {
+				byte[] buffer = new byte[1 << 16];
+				int n;
+				while ((n = in.read(buffer)) != -1) digest.update(buffer, 0, n);
+			}
+		}
+		codeHash = digest.digest();
+		return codeHash;
+	}
+
+	/**
+	 * Prints a summary of cache hits and misses, and removes the least
+	 * recently used files if the cache is too large. This must only be called
+	 * once no more charts are being rendered with any cache in the same
+	 * directory.
+	 * @throws IOException If the cache couldn't be cleaned up.
+	 */
+	public void finish() throws IOException {
+		printSummary();
+		evict(dir, maxBytes);
+	}
+
+	/**
+	 * Prints a summary of cache hits and misses.
+	 */
+	public void printSummary() {
+		System.out.printf("Render cache: %d hits, %d misses, in %s.%n", hits.get(), misses.get(), dir);
+	}
+
+	private static void evict(Path dir, long maxBytes) throws IOException {
+		List<Path> entries = new ArrayList<>();
+		try (var stream = Files.list(dir)) {
+			// Entries that are still being added are in temporary directories.
+			stream.filter(entry -> Files.isDirectory(entry) && !entry.getFileName().toString().contains(".tmp"))
+					.forEach(entries::add);
+		}
+		long totalBytes = 0;
+		for (var entry : entries) totalBytes += entrySize(entry);
+		if (totalBytes <= maxBytes) return;
+		entries.sort(Comparator.comparing(entry -> {
+			try {
+				return Files.getLastModifiedTime(entry);
+			} catch (IOException e) {
+				return FileTime.fromMillis(0);
+			}
+		}));
+		int removed = 0;
+		for (var entry : entries) {
+			if (totalBytes <= maxBytes) break;
+			totalBytes -= entrySize(entry);
+			try {
+				deleteEntry(entry);
+			} catch (NoSuchFileException e) {
+				// Another process removed it first.
+			}
+			removed++;
+		}
+		System.out.printf("Removed %d old charts from the render cache.%n", removed);
+	}
+
+	private static long entrySize(Path entry) throws IOException {
+		long size = 0;
+		try (var files = Files.list(entry)) {
+			for (var file : files.toList()) size += Files.size(file);
+		} catch (NoSuchFileException e) {
+			// Another process removed it.
+		}
+		return size;
+	}
+
+	private static void deleteEntry(Path entry) throws IOException {
+		try (var files = Files.list(entry)) {
+			for (var file : files.toList()) Files.delete(file);
+		}
+		Files.delete(entry);
+	}
+}
@@ -0,0 +1,104 @@
+package nl.andrewl.jvisualizer;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders chart jobs on a shared work-stealing pool, so that the charts of all
+ * renderers are spread over all threads, instead of each renderer drawing its
+ * charts one by one. If any chart fails, the remaining charts are cancelled,
+ * and a {@link ChartRenderException} naming the chart is thrown.
+ * <p>
+ *     The jobs of several reports can be submitted at the same time, in which
+ *     case they share the pool, and a failing chart only cancels the rest of
+ *     its own report.
+ * </p>
+ */
+public class RenderScheduler {
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a new scheduler.
+	 * @param parallelism The number of charts to render at the same time.
+	 */
+	public RenderScheduler(int parallelism) {
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Renders all given charts, and waits for them to finish.
+	 * @param jobs The jobs to render.
+	 * @throws ChartRenderException If any chart fails to render.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void renderAll(List<ChartJob> jobs) throws ChartRenderException, InterruptedException {
+		try {
+			submit(jobs).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ChartRenderException renderException) throw renderException;
+			// Errors are rethrown as they are, exceptions are wrapped by the task itself.
+			throw (Error) e.getCause();
+		}
+	}
+
+	/**
+	 * Submits a group of charts, like the charts of one report, to be rendered
+	 * alongside any other charts that have been submitted.
+	 * @param jobs The jobs to render.
+	 * @return A future that completes when all charts are rendered, or
+	 * completes exceptionally with a {@link ChartRenderException} as soon as
+	 * one of them fails, after which the group's remaining charts are skipped.
+	 */
+	public CompletableFuture<Void> submit(List<ChartJob> jobs) {
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		if (jobs.isEmpty()) done.complete(null);
+		AtomicInteger remaining = new AtomicInteger(jobs.size());
+		for (var job : jobs) {
+			pool.execute(() -> {
+				if (done.isDone()) return; // Another chart of this group failed.
+				try {
+					job.task().render();
+					if (remaining.decrementAndGet() == 0) done.complete(null);
+				} catch (Exception e) {
+					done.completeExceptionally(new ChartRenderException(job.name(), e));
+				} catch (Error e) {
+					done.completeExceptionally(e);
+					throw e;
+				}
+			});
+		}
+		return done;
+	}
+
+	/**
+	 * Stops the scheduler's threads.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Thrown when a chart fails to render.
+	 */
+	public static class ChartRenderException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private final String chartName;
+
+		public ChartRenderException(String chartName, Throwable cause) {
+			super("Failed to render " + chartName + ": " + cause.getMessage(), cause);
+			this.chartName = chartName;
+		}
+
+		public String getChartName() {
+			return chartName;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package nl.andrewl.jvisualizer.output;
+
+import org.jfree.chart.JFreeChart;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A backend that writes rendered charts to files, in some image format. The
+ * time spent drawing each chart, and the time spent encoding and writing it,
+ * are recorded separately. Implementations must be safe to use from multiple
+ * threads.
+ * <p>
+ *     Charts are written to the working directory, unless the output is made
+ *     for another directory with {@link #forDirectory(Path)}.
+ * </p>
+ */
+public abstract class ChartOutput {
+	/**
+	 * The time it took to output a chart.
+	 * @param drawNanos The time spent drawing the chart.
+	 * @param encodeNanos The time spent encoding the drawing, and writing it.
+	 */
+	public record Timing(long drawNanos, long encodeNanos) {
+		public long totalNanos() {
+			return drawNanos + encodeNanos;
+		}
+	}
+
+	private final Map<String, Timing> timings = new ConcurrentHashMap<>();
+
+	/**
+	 * Parses output settings from command-line flags. Supported flags are
+	 * "--format=png|svg|pdf", and "--png-compression=N", where N is a deflate
+	 * level from 0 (fastest) to 9 (smallest files).
+	 * @param args The arguments to parse.
+	 * @return The chart output.
+	 */
+	public static ChartOutput fromArgs(String[] args) {
+		String format = "png";
+		int pngCompression = PngOutput.DEFAULT_COMPRESSION;
+		for (var arg : args) {
+			if (arg.startsWith("--format=")) format = arg.substring("--format=".length());
+			if (arg.startsWith("--png-compression=")) pngCompression = Integer.parseInt(arg.substring("--png-compression=".length()));
+		}
+		return switch (format) {
+			case "png" -> new PngOutput(pngCompression);
+			case "svg" -> VectorOutput.svg();
+			case "pdf" -> VectorOutput.pdf();
+			default -> throw new IllegalArgumentException("Unknown output format \"" + format + "\". Use png, svg or pdf.");
+		};
+	}
+
+	/**
+	 * Gets an output that writes charts in the same format, with the same
+	 * settings, to another directory. It shares this output's encoders, but
+	 * keeps its own timings, so that it can be used to render one report
+	 * among many.
+	 * @param dir The directory to write charts to.
+	 * @return The output for the directory.
+	 */
+	public ChartOutput forDirectory(Path dir) {
+		return new DirectoryOutput(getBackend(), dir);
+	}
+
+	/**
+	 * Gets the directory that charts are written to.
+	 * @return The directory, which is empty for the working directory.
+	 */
+	public Path getDirectory() {
+		return Path.of("");
+	}
+
+	/**
+	 * Gets the output that actually encodes the charts, which is this output,
+	 * unless it's an output for another directory.
+	 * @return The encoding output.
+	 */
+	public ChartOutput getBackend() {
+		return this;
+	}
+
+	/**
+	 * Gets the file extension of this output's format, like "png".
+	 * @return The file extension.
+	 */
+	public abstract String getExtension();
+
+	/**
+	 * Gets a description of this output's settings, which determine the
+	 * output files for a given chart.
+	 * @return The description.
+	 */
+	public abstract String getSettings();
+
+	/**
+	 * Writes a chart to a file.
+	 * @param chart The chart to write.
+	 * @param name The name of the chart, which is the path of the file to
+	 *             write relative to this output's directory, without the
+	 *             extension.
+	 * @param width The width of the chart.
+	 * @param height The height of the chart.
+	 * @return The file that was written.
+	 * @throws IOException If the file couldn't be written.
+	 */
+	public Path write(JFreeChart chart, String name, int width, int height) throws IOException {
+		Path file = getDirectory().resolve(name + "." + getExtension());
+		timings.put(name, write(chart, width, height, file));
+		return file;
+	}
+
+	protected abstract Timing write(JFreeChart chart, int width, int height, Path file) throws IOException;
+
+	public Map<String, Timing> getTimings() {
+		return timings;
+	}
+
+	/**
+	 * Prints the timing of each chart written so far, slowest first.
+	 */
+	public void printTimings() {
+		List<Map.Entry<String, Timing>> sorted = new ArrayList<>(timings.entrySet());
+		sorted.sort(Map.Entry.<String, Timing>comparingByValue(Comparator.comparingLong(Timing::totalNanos)).reversed());
+		for (var entry : sorted) {
+			Timing timing = entry.getValue();
+			System.out.printf(
+					"  %-40s %8.1f ms (draw %.1f ms, encode %.1f ms)%n",
+					entry.getKey() + "." + getExtension(),
+					timing.totalNanos() / 1_000_000.0, timing.drawNanos() / 1_000_000.0, timing.encodeNanos() / 1_000_000.0
+			);
+		}
+		printSummary();
+	}
+
+	/**
+	 * Prints the number of charts written so far, and the total time spent
+	 * drawing and encoding them.
+	 */
+	public void printSummary() {
+		long drawNanos = 0;
+		long encodeNanos = 0;
+		for (var timing : timings.values()) {
+			drawNanos += timing.drawNanos();
+			encodeNanos += timing.encodeNanos();
+		}
+		System.out.printf(
+				"Wrote %d %s charts: %.1f s drawing, %.1f s encoding.%n",
+				timings.size(), getExtension(), drawNanos / 1_000_000_000.0, encodeNanos / 1_000_000_000.0
+		);
+	}
+
+	/**
+	 * An output that writes charts to another directory, using the encoders
+	 * of another output.
+	 */
+	private static class DirectoryOutput extends ChartOutput {
+		private final ChartOutput backend;
+		private final Path dir;
+
+		private DirectoryOutput(ChartOutput backend, Path dir) {
+			this.backend = backend;
+			this.dir = dir;
+		}
+
+		@Override
+		public Path getDirectory() {
+			return dir;
+		}
+
+		@Override
+		public ChartOutput getBackend() {
+			return backend;
+		}
+
+		@Override
+		public String getExtension() {
+			return backend.getExtension();
+		}
+
+		@Override
+		public String getSettings() {
+			return backend.getSettings();
+		}
+
+		@Override
+		protected Timing write(JFreeChart chart, int width, int height, Path file) throws IOException {
+			return backend.write(chart, width, height, file);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package nl.andrewl.jvisualizer.output;
+
+import org.jfree.chart.JFreeChart;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes charts as PNG images. Each thread reuses its image buffer and PNG
+ * writer for every chart of the same size, and images are encoded in memory,
+ * instead of through the temporary cache files that ImageIO uses by default.
+ */
+public class PngOutput extends ChartOutput {
+	/**
+	 * Indicates that the PNG encoder's default compression should be used.
+	 */
+	public static final int DEFAULT_COMPRESSION = -1;
+
+	private final int compressionLevel;
+	private final ThreadLocal<BufferedImage> images = new ThreadLocal<>();
+	private final ThreadLocal<ImageWriter> writers = ThreadLocal.withInitial(
+			() -> ImageIO.getImageWritersByFormatName("png").next()
+	);
+
+	/**
+	 * Creates a new PNG output.
+	 * @param compressionLevel The deflate level, from 0 (fastest) to 9
+	 *                         (smallest files), or {@link #DEFAULT_COMPRESSION}.
+	 */
+	public PngOutput(int compressionLevel) {
+		if (compressionLevel != DEFAULT_COMPRESSION && (compressionLevel < 0 || compressionLevel > 9)) {
+			throw new IllegalArgumentException("PNG compression level must be between 0 and 9.");
+		}
+		this.compressionLevel = compressionLevel;
+	}
+
+	@Override
+	public String getExtension() {
+		return "png";
+	}
+
+	@Override
+	public String getSettings() {
+		return "png, compression " + (compressionLevel == DEFAULT_COMPRESSION ? "default" : compressionLevel);
+	}
+
+	@Override
+	protected Timing write(JFreeChart chart, int width, int height, Path file) throws IOException {
+		long start = System.nanoTime();
+		BufferedImage image = getImage(width, height);
+		Graphics2D g2 = image.createGraphics();
+		try {
+			// Clear the reused buffer to fully transparent, like a new image.
+			g2.setComposite(AlphaComposite.Clear);
+			g2.fillRect(0, 0, width, height);
+			g2.setComposite(AlphaComposite.SrcOver);
+			chart.draw(g2, new Rectangle2D.Double(0, 0, width, height), null, null);
+		} finally {
+			g2.dispose();
+		}
+		long drawn = System.nanoTime();
+		ImageWriter writer = writers.get();
+		try (
+				OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+				ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out)
+		) {
+			writer.setOutput(imageOut);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (compressionLevel != DEFAULT_COMPRESSION) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				// The PNG writer maps quality 1 to deflate level 0, and quality 0 to level 9.
+				param.setCompressionQuality(1.0f - compressionLevel / 9.0f);
+			}
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.reset();
+		}
+		return new Timing(drawn - start, System.nanoTime() - drawn);
+	}
+
+	private BufferedImage getImage(int width, int height) {
+		BufferedImage image = images.get();
+		if (image == null || image.getWidth() != width || image.getHeight() != height) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			images.set(image);
+		}
+		return image;
+	}
+}
@@ -0,0 +1,116 @@
+package nl.andrewl.jvisualizer.output;
+
+import org.jfree.chart.JFreeChart;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+
+/**
+ * Writes charts as SVG or PDF vector graphics, which skips rasterization
+ * entirely. Like JFreeChart's own ExportUtils, this uses JFreeSVG and JFreePDF
+ * when they're on the classpath, which is the case when the visualizer is
+ * built with the "vector" Maven profile.
+ */
+public abstract class VectorOutput extends ChartOutput {
+	private final String extension;
+
+	private VectorOutput(String extension) {
+		this.extension = extension;
+	}
+
+	@Override
+	public String getExtension() {
+		return extension;
+	}
+
+	@Override
+	public String getSettings() {
+		return extension;
+	}
+
+	/**
+	 * Creates an SVG output.
+	 * @return The output.
+	 * @throws IllegalStateException If JFreeSVG isn't available.
+	 */
+	public static VectorOutput svg() {
+		try {
+			Class<?> graphicsClass = Class.forName("org.jfree.svg.SVGGraphics2D");
+			Class<?> utilsClass = Class.forName("org.jfree.svg.SVGUtils");
+			Constructor<?> graphicsConstructor = graphicsClass.getConstructor(int.class, int.class);
+			Method getSvgElement = graphicsClass.getMethod("getSVGElement");
+			Method writeToSvg = utilsClass.getMethod("writeToSVG", File.class, String.class);
+			return new VectorOutput("svg") {
+				@Override
+				protected Timing write(JFreeChart chart, int width, int height, Path file) throws IOException {
+					long start = System.nanoTime();
+					Graphics2D g2 = (Graphics2D) newInstance(graphicsConstructor, width, height);
+					chart.draw(g2, new Rectangle2D.Double(0, 0, width, height));
+					long drawn = System.nanoTime();
+					invoke(writeToSvg, null, file.toFile(), invoke(getSvgElement, g2));
+					return new Timing(drawn - start, System.nanoTime() - drawn);
+				}
+			};
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("JFreeSVG is not on the classpath. Build with the \"vector\" profile to write SVG charts.", e);
+		}
+	}
+
+	/**
+	 * Creates a PDF output.
+	 * @return The output.
+	 * @throws IllegalStateException If JFreePDF isn't available.
+	 */
+	public static VectorOutput pdf() {
+		try {
+			Class<?> documentClass = Class.forName("org.jfree.pdf.PDFDocument");
+			Class<?> pageClass = Class.forName("org.jfree.pdf.Page");
+			Constructor<?> documentConstructor = documentClass.getConstructor();
+			Method createPage = documentClass.getMethod("createPage", Rectangle2D.class);
+			Method getGraphics = pageClass.getMethod("getGraphics2D");
+			Method writeToFile = documentClass.getMethod("writeToFile", File.class);
+			return new VectorOutput("pdf") {
+				@Override
+				protected Timing write(JFreeChart chart, int width, int height, Path file) throws IOException {
+					long start = System.nanoTime();
+					Rectangle2D bounds = new Rectangle2D.Double(0, 0, width, height);
+					Object document = newInstance(documentConstructor);
+					Object page = invoke(createPage, document, bounds);
+					Graphics2D g2 = (Graphics2D) invoke(getGraphics, page);
+					chart.draw(g2, bounds);
+					long drawn = System.nanoTime();
+					invoke(writeToFile, document, file.toFile());
+					return new Timing(drawn - start, System.nanoTime() - drawn);
+				}
+			};
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("JFreePDF is not on the classpath. Build with the \"vector\" profile to write PDF charts.", e);
+		}
+	}
+
+	private static Object newInstance(Constructor<?> constructor, Object... args) throws IOException {
+		try {
+			return constructor.newInstance(args);
+		} catch (InvocationTargetException e) {
+			throw new IOException(e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Object invoke(Method method, Object target, Object... args) throws IOException {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw new IOException(e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package nl.andrewl.jvisualizer.pattern;
+
+import java.io.PrintWriter;
+
+/**
+ * The formats that pattern tables can be written in.
+ */
+public enum PatternFormat {
+	/**
+	 * Rows of a LaTeX table, with the tags of each pattern padded to the same
+	 * width, and joined by arrows.
+	 */
+	LATEX("txt") {
+		@Override
+		public void write(PrintWriter out, PatternTable table) {
+			int paddingSize = table.getLongestTagLength() + 1;
+			for (var pattern : table.getPatterns()) {
+				StringBuilder sb = new StringBuilder();
+				int[] tags = pattern.tags();
+				for (int i = 0; i < tags.length; i++) {
+					String tag = table.getTag(tags[i]);
+					sb.append(tag).append(" ".repeat(paddingSize - tag.length()));
+					if (i < tags.length - 1) {
+						sb.append(" $ \\rightarrow $ ");
+					}
+				}
+				out.print(sb);
+				out.print(" & ");
+				out.print(pattern.count());
+				out.print(" \\\\ \\hline\n");
+			}
+		}
+	},
+	/**
+	 * A CSV file with a header, and the tags of each pattern in one column.
+	 */
+	CSV("csv") {
+		@Override
+		public void write(PrintWriter out, PatternTable table) {
+			out.print("pattern,count\n");
+			for (var pattern : table.getPatterns()) {
+				String tags = joinTags(table, pattern, " -> ");
+				if (tags.contains(",") || tags.contains("\"")) tags = "\"" + tags.replace("\"", "\"\"") + "\"";
+				out.print(tags + "," + pattern.count() + "\n");
+			}
+		}
+	},
+	/**
+	 * A Markdown table.
+	 */
+	MARKDOWN("md") {
+		@Override
+		public void write(PrintWriter out, PatternTable table) {
+			out.print("| Pattern | Count |\n");
+			out.print("| --- | ---: |\n");
+			for (var pattern : table.getPatterns()) {
+				out.print("| " + joinTags(table, pattern, " -> ").replace("|", "\\|") + " | " + pattern.count() + " |\n");
+			}
+		}
+	};
+
+	private final String extension;
+
+	PatternFormat(String extension) {
+		this.extension = extension;
+	}
+
+	public String getExtension() {
+		return extension;
+	}
+
+	/**
+	 * Writes a pattern table, with its best patterns first.
+	 * @param out The writer to write to.
+	 * @param table The table to write.
+	 */
+	public abstract void write(PrintWriter out, PatternTable table);
+
+	private static String joinTags(PatternTable table, PatternTable.Pattern pattern, String separator) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < pattern.tags().length; i++) {
+			if (i > 0) sb.append(separator);
+			sb.append(table.getTag(pattern.tags()[i]));
+		}
+		return sb.toString();
+	}
+}
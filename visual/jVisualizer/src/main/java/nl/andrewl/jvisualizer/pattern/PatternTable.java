@@ -0,0 +1,146 @@
+package nl.andrewl.jvisualizer.pattern;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The most frequent patterns of a pattern analysis, like n-grams or
+ * co-occurrences of tags, which are streamed in one by one. Only patterns
+ * made up entirely of eligible tags are kept, and each pattern's tags are
+ * encoded as an array of tag codes, which are the indexes of the tags in the
+ * list of eligible tags.
+ * <p>
+ *     If the table has a limit K, a min-heap of the K best patterns is kept,
+ *     so its size doesn't depend on how many patterns there are. Patterns are
+ *     ranked by count, highest first, and ties are ranked by their tag codes.
+ * </p>
+ */
+public class PatternTable {
+	/**
+	 * A pattern, and the number of times it occurs.
+	 * @param tags The codes of the pattern's tags.
+	 * @param count The pattern's count.
+	 */
+	public record Pattern(int[] tags, int count) {}
+
+	private static final Comparator<Pattern> RANKING = Comparator.comparingInt(Pattern::count).reversed()
+			.thenComparing(Pattern::tags, Arrays::compare);
+
+	private final List<String> tags;
+	private final Map<String, Integer> tagCodes = new HashMap<>();
+	private final int limit;
+	private final PriorityQueue<Pattern> heap;
+	private long patternCount = 0;
+
+	/**
+	 * Creates a new pattern table.
+	 * @param eligibleTags The tags that patterns may be made of.
+	 * @param limit The maximum number of patterns to keep, or 0 to keep all.
+	 */
+	public PatternTable(List<String> eligibleTags, int limit) {
+		this.tags = List.copyOf(eligibleTags);
+		for (int i = 0; i < tags.size(); i++) tagCodes.put(tags.get(i), i);
+		this.limit = limit;
+		// The worst of the kept patterns is at the head, so it can be replaced.
+		this.heap = new PriorityQueue<>(limit > 0 ? limit + 1 : 64, RANKING.reversed());
+	}
+
+	/**
+	 * Reads all patterns of a pattern analysis section, which is an object
+	 * with an entry for each pattern, that has the pattern's "pattern" tags
+	 * and "count". Any other data of a pattern, like the emails it occurs
+	 * in, is skipped without being parsed.
+	 * @param reader The reader of the section.
+	 * @throws IOException If the section couldn't be read.
+	 */
+	public void read(JsonReader reader) throws IOException {
+		int[] buffer = new int[8];
+		reader.beginObject();
+		while (reader.hasNext()) {
+			reader.nextName();
+			reader.beginObject();
+			int count = -1;
+			int length = -1;
+			boolean eligible = true;
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "count" -> count = reader.nextInt();
+					case "pattern" -> {
+						length = 0;
+						reader.beginArray();
+						while (reader.hasNext()) {
+							Integer code = tagCodes.get(reader.nextString().trim());
+							if (code == null) {
+								eligible = false;
+							} else if (eligible) {
+								if (length == buffer.length) buffer = Arrays.copyOf(buffer, length * 2);
+								buffer[length++] = code;
+							}
+						}
+						reader.endArray();
+					}
+					default -> reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if (count < 0 || length < 0) throw new IOException("Pattern at " + reader.getPath() + " has no count or tags.");
+			if (eligible) add(buffer, length, count);
+		}
+		reader.endObject();
+	}
+
+	/**
+	 * Adds a pattern to the table, if it's among the best patterns so far.
+	 * @param tagCodes A buffer with the codes of the pattern's tags, which is
+	 *                 copied if the pattern is kept.
+	 * @param length The number of tags in the pattern.
+	 * @param count The pattern's count.
+	 */
+	public void add(int[] tagCodes, int length, int count) {
+		patternCount++;
+		if (limit > 0 && heap.size() == limit) {
+			Pattern worst = heap.peek();
+			if (count < worst.count()) return;
+			if (count == worst.count() && Arrays.compare(tagCodes, 0, length, worst.tags(), 0, worst.tags().length) >= 0) return;
+			heap.poll();
+		}
+		heap.add(new Pattern(Arrays.copyOf(tagCodes, length), count));
+	}
+
+	/**
+	 * Gets the kept patterns, best first.
+	 * @return The patterns.
+	 */
+	public List<Pattern> getPatterns() {
+		List<Pattern> patterns = new ArrayList<>(heap);
+		patterns.sort(RANKING);
+		return patterns;
+	}
+
+	/**
+	 * Gets the number of eligible patterns that were added, including those
+	 * that weren't kept.
+	 * @return The number of patterns.
+	 */
+	public long getPatternCount() {
+		return patternCount;
+	}
+
+	public String getTag(int code) {
+		return tags.get(code);
+	}
+
+	/**
+	 * Gets the length of the longest tag of the kept patterns.
+	 * @return The length, or -1 if no patterns were kept.
+	 */
+	public int getLongestTagLength() {
+		int longest = -1;
+		for (var pattern : heap) {
+			for (int code : pattern.tags()) longest = Math.max(longest, tags.get(code).length());
+		}
+		return longest;
+	}
+}
@@ -1,81 +1,80 @@
 package nl.andrewl.jvisualizer.render;
 
-import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import nl.andrewl.jvisualizer.AnalysisData;
+import nl.andrewl.jvisualizer.ChartJob;
 import nl.andrewl.jvisualizer.ChartRenderer;
+import nl.andrewl.jvisualizer.DataSection;
 import nl.andrewl.jvisualizer.JVisualizer;
+import nl.andrewl.jvisualizer.output.ChartOutput;
 import org.jfree.chart.ChartFactory;
-import org.jfree.chart.ChartUtils;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.CategoryLabelPositions;
 import org.jfree.chart.plot.CategoryPlot;
 import org.jfree.chart.renderer.category.BoxAndWhiskerRenderer;
 import org.jfree.chart.ui.RectangleInsets;
+import org.jfree.data.statistics.BoxAndWhiskerCalculator;
+import org.jfree.data.statistics.BoxAndWhiskerItem;
 import org.jfree.data.statistics.DefaultBoxAndWhiskerCategoryDataset;
 
 import java.awt.*;
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class CharacteristicRenderer implements ChartRenderer {
 	@Override
-	public void renderCharts(JsonObject data) throws Exception {
-		var characteristicData = data.getAsJsonObject("characteristic");
-		generateBoxPlot(
-				"Email Body Size",
-				characteristicData.getAsJsonObject("body_size"),
-				"Body Size (# of characters)",
-				"body_size.png"
-		);
-		generateBoxPlot(
-				"Email Word Count",
-				characteristicData.getAsJsonObject("word_count"),
-				"Word Count (# of words)",
-				"word_count.png"
-		);
-		generateBoxPlot(
-				"Thread Size",
-				characteristicData.getAsJsonObject("thread_size"),
-				"Thread Size (# of emails)",
-				"thread_size.png"
-		);
-		generateBoxPlot(
-				"Thread Participation",
-				characteristicData.getAsJsonObject("thread_participation"),
-				"Thread Participation (# of participants)",
-				"thread_participation.png"
+	public List<ChartJob> getJobs(AnalysisData data, ChartOutput output) {
+		return List.of(
+				new ChartJob("body_size", "characteristic", () -> generateBoxPlot(
+						output,
+						"Email Body Size",
+						data.section("characteristic"),
+						"body_size",
+						"Body Size (# of characters)",
+						"body_size"
+				)),
+				new ChartJob("word_count", "characteristic", () -> generateBoxPlot(
+						output,
+						"Email Word Count",
+						data.section("characteristic"),
+						"word_count",
+						"Word Count (# of words)",
+						"word_count"
+				)),
+				new ChartJob("thread_size", "characteristic", () -> generateBoxPlot(
+						output,
+						"Thread Size",
+						data.section("characteristic"),
+						"thread_size",
+						"Thread Size (# of emails)",
+						"thread_size"
+				)),
+				new ChartJob("thread_participation", "characteristic", () -> generateBoxPlot(
+						output,
+						"Thread Participation",
+						data.section("characteristic"),
+						"thread_participation",
+						"Thread Participation (# of participants)",
+						"thread_participation"
+				))
 		);
 	}
 
-	private void generateBoxPlot(String title, JsonObject data, String valueAxisLabel, String filename) throws IOException {
+	private Path generateBoxPlot(ChartOutput output, String title, DataSection data, String key, String valueAxisLabel, String filename) throws IOException {
 		DefaultBoxAndWhiskerCategoryDataset dataset = new DefaultBoxAndWhiskerCategoryDataset();
-		dataset.add(mapJsonIntArray(data.getAsJsonArray("any_tag")), "Architectural", "Any Tag");
-		dataset.add(
-				mapJsonIntArray(data.getAsJsonObject("tag_data").getAsJsonArray("existence")),
-				"Architectural",
-				"Existence"
-		);
-		dataset.add(
-				mapJsonIntArray(data.getAsJsonObject("tag_data").getAsJsonArray("process")),
-				"Architectural",
-				"Process"
-		);
-		dataset.add(
-				mapJsonIntArray(data.getAsJsonObject("tag_data").getAsJsonArray("property")),
-				"Architectural",
-				"property"
-		);
-		dataset.add(
-				mapJsonIntArray(data.getAsJsonObject("tag_data").getAsJsonArray("technology")),
-				"Architectural",
-				"Technology"
-		);
-		dataset.add(mapJsonIntArray(data.getAsJsonArray("not_ak")), "Non-architectural", "Any Tag");
+		dataset.add(getItem(data, key, "any_tag"), "Architectural", "Any Tag");
+		dataset.add(getItem(data, key, "tag_data", "existence"), "Architectural", "Existence");
+		dataset.add(getItem(data, key, "tag_data", "process"), "Architectural", "Process");
+		dataset.add(getItem(data, key, "tag_data", "property"), "Architectural", "property");
+		dataset.add(getItem(data, key, "tag_data", "technology"), "Architectural", "Technology");
+		dataset.add(getItem(data, key, "not_ak"), "Non-architectural", "Any Tag");
 
 		JFreeChart chart = ChartFactory.createBoxAndWhiskerChart(title, "Type", valueAxisLabel, dataset, true);
-		JVisualizer.CHART_THEME.apply(chart);
+		JVisualizer.applyTheme(chart);
 		CategoryPlot plot = chart.getCategoryPlot();
 		plot.getDomainAxis().setCategoryLabelPositions(CategoryLabelPositions.UP_45);
 		BoxAndWhiskerRenderer renderer = (BoxAndWhiskerRenderer) plot.getRenderer();
@@ -86,13 +85,56 @@ public class CharacteristicRenderer implements ChartRenderer {
 		renderer.setDefaultStroke(new BasicStroke(8.0f));
 		final RectangleInsets padding = new RectangleInsets(2, 2, 2, 40);
 		chart.getLegend().setItemLabelPadding(padding);
-		ChartUtils.saveChartAsPNG(new File(filename), chart, 1500, 1000);
+		return output.write(chart, filename, 1500, 1000);
+	}
+
+	/**
+	 * Gets the box plot statistics of a series, either from its precomputed
+	 * distribution summary, or if the results have every value of the series,
+	 * by calculating them from all values.
+	 */
+	private BoxAndWhiskerItem getItem(DataSection data, String... path) {
+		JsonElement element = data.getObject();
+		for (var key : path) {
+			element = element.isJsonObject() ? element.getAsJsonObject().get(key) : null;
+			if (element == null) break;
+		}
+		if (element == null || !element.isJsonObject()) {
+			return BoxAndWhiskerCalculator.calculateBoxAndWhiskerStatistics(toList(data.getIntArray(path)));
+		}
+		JsonObject summary = element.getAsJsonObject();
+		if (summary.get("count").getAsLong() == 0) {
+			return BoxAndWhiskerCalculator.calculateBoxAndWhiskerStatistics(List.of());
+		}
+		String[] valuesPath = Arrays.copyOf(path, path.length + 1);
+		valuesPath[path.length] = "outlier_values";
+		String[] countsPath = Arrays.copyOf(path, path.length + 1);
+		countsPath[path.length] = "outlier_counts";
+		int[] outlierValues = data.getIntArray(valuesPath);
+		int[] outlierCounts = data.getIntArray(countsPath);
+		List<Integer> outliers = new ArrayList<>();
+		for (int i = 0; i < outlierValues.length; i++) {
+			for (int j = 0; j < outlierCounts[i]; j++) outliers.add(outlierValues[i]);
+		}
+		double whiskerLow = summary.get("whisker_low").getAsDouble();
+		double whiskerHigh = summary.get("whisker_high").getAsDouble();
+		return new BoxAndWhiskerItem(
+				summary.get("mean").getAsDouble(),
+				summary.get("median").getAsDouble(),
+				summary.get("q1").getAsDouble(),
+				summary.get("q3").getAsDouble(),
+				whiskerLow,
+				whiskerHigh,
+				outlierValues.length > 0 ? Math.min(whiskerLow, outlierValues[0]) : whiskerLow,
+				outlierValues.length > 0 ? Math.max(whiskerHigh, outlierValues[outlierValues.length - 1]) : whiskerHigh,
+				outliers
+		);
 	}
 
-	private List<Integer> mapJsonIntArray(JsonArray array) {
-		List<Integer> values = new ArrayList<>(array.size());
+	private List<Integer> toList(int[] array) {
+		List<Integer> values = new ArrayList<>(array.length);
 		for (var item : array) {
-			values.add(item.getAsInt());
+			values.add(item);
 		}
 		return values;
 	}
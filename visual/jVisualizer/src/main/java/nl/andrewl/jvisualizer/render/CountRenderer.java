@@ -1,10 +1,12 @@
 package nl.andrewl.jvisualizer.render;
 
 import com.google.gson.JsonObject;
+import nl.andrewl.jvisualizer.AnalysisData;
+import nl.andrewl.jvisualizer.ChartJob;
 import nl.andrewl.jvisualizer.ChartRenderer;
 import nl.andrewl.jvisualizer.JVisualizer;
+import nl.andrewl.jvisualizer.output.ChartOutput;
 import org.jfree.chart.ChartFactory;
-import org.jfree.chart.ChartUtils;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.CategoryAxis;
 import org.jfree.chart.axis.CategoryLabelPositions;
@@ -18,56 +20,66 @@ import org.jfree.chart.ui.RectangleInsets;
 import org.jfree.data.category.DefaultCategoryDataset;
 import org.jfree.data.general.DefaultPieDataset;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.List;
 
 public class CountRenderer implements ChartRenderer {
 	public static final List<String> AK_TAGS = List.of("existence", "process", "property", "technology", "not-ak");
 
+	private static final List<String> ONLY_AK_TAGS = List.of("existence", "process", "property", "technology");
+
 	@Override
-	public void renderCharts(JsonObject data) throws Exception {
-		List<String> onlyAkTags = List.of("existence", "process", "property", "technology");
-		JsonObject countData = data.getAsJsonObject("count");
-		DefaultCategoryDataset emailCountDataset = new DefaultCategoryDataset();
-		DefaultCategoryDataset emailCountDatasetNoAk = new DefaultCategoryDataset();
-		for (var item : countData.getAsJsonObject("email_tag_counts").entrySet()) {
-			if (AK_TAGS.contains(item.getKey())) {
-				emailCountDataset.addValue(item.getValue().getAsInt(), item.getKey(), "test");
-			}
-			if (onlyAkTags.contains(item.getKey())) {
-				emailCountDatasetNoAk.addValue(item.getValue().getAsInt(), item.getKey(), "test");
-			}
-		}
-		DefaultCategoryDataset threadCountDataset = new DefaultCategoryDataset();
-		for (var item : countData.getAsJsonObject("thread_tag_counts").entrySet()) {
-			if (!AK_TAGS.contains(item.getKey())) continue;
-			threadCountDataset.addValue(item.getValue().getAsInt(), item.getKey(), "test");
+	public List<ChartJob> getJobs(AnalysisData data, ChartOutput output) {
+		return List.of(
+				new ChartJob("email_tag_counts", "count", () -> renderTagCountChart(
+						output,
+						"Individual Email Tag Counts",
+						getCountDataset(data.section("count").getObject(), "email_tag_counts", AK_TAGS),
+						"email_tag_counts"
+				)),
+				new ChartJob("email_tag_counts_excl_not-ak", "count", () -> renderTagCountChart(
+						output,
+						"Individual Email Tag Counts, Excl. not-ak",
+						getCountDataset(data.section("count").getObject(), "email_tag_counts", ONLY_AK_TAGS),
+						"email_tag_counts_excl_not-ak"
+				)),
+				new ChartJob("thread_tag_counts", "count", () -> renderTagCountChart(
+						output,
+						"Thread Tag Counts",
+						getCountDataset(data.section("count").getObject(), "thread_tag_counts", AK_TAGS),
+						"thread_tag_counts"
+				)),
+				new ChartJob("decision_types_pie", "count", () -> renderPieChart(output, data.section("count").getObject()))
+		);
+	}
+
+	private DefaultCategoryDataset getCountDataset(JsonObject countData, String key, List<String> tags) {
+		DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+		for (var item : countData.getAsJsonObject(key).entrySet()) {
+			if (!tags.contains(item.getKey())) continue;
+			dataset.addValue(item.getValue().getAsInt(), item.getKey(), "test");
 		}
+		return dataset;
+	}
 
+	private Path renderTagCountChart(ChartOutput output, String title, DefaultCategoryDataset dataset, String filename) throws IOException {
 		final RectangleInsets padding = new RectangleInsets(2, 2, 2, 40);
-
-		JFreeChart chart = ChartFactory.createBarChart("Individual Email Tag Counts", "Tag", "Count", emailCountDataset);
+		JFreeChart chart = ChartFactory.createBarChart(title, "Tag", "Count", dataset);
 		generateTagCountChart(padding, chart);
-		ChartUtils.saveChartAsPNG(new File("email_tag_counts.png"), chart, 1000, 700);
-
-		JFreeChart chartNoAk = ChartFactory.createBarChart("Individual Email Tag Counts, Excl. not-ak", "Tag", "Count", emailCountDatasetNoAk);
-		generateTagCountChart(padding, chartNoAk);
-		ChartUtils.saveChartAsPNG(new File("email_tag_counts_excl_not-ak.png"), chartNoAk, 1000, 700);
-
-		JFreeChart chart2 = ChartFactory.createBarChart("Thread Tag Counts", "Tag", "Count", threadCountDataset);
-		generateTagCountChart(padding, chart2);
-		ChartUtils.saveChartAsPNG(new File("thread_tag_counts.png"), chart2, 1000, 700);
-
+		return output.write(chart, filename, 1000, 700);
+	}
 
+	private Path renderPieChart(ChartOutput output, JsonObject countData) throws IOException {
 		DefaultPieDataset<String> pieDataset = new DefaultPieDataset<>();
 		for (var item : countData.getAsJsonObject("email_tag_counts").entrySet()) {
-			if (!onlyAkTags.contains(item.getKey())) continue;
+			if (!ONLY_AK_TAGS.contains(item.getKey())) continue;
 			pieDataset.setValue(item.getKey(), item.getValue().getAsInt());
 		}
 		JFreeChart pieChart = ChartFactory.createPieChart("Decision Types", pieDataset, false, false, false);
 		PiePlot<String> piePlot = (PiePlot<String>) pieChart.getPlot();
-		for (var tag : onlyAkTags) {
+		for (var tag : ONLY_AK_TAGS) {
 			piePlot.setExplodePercent(tag, 0.10);
 		}
 
@@ -78,12 +90,12 @@ public class CountRenderer implements ChartRenderer {
 		);
 		piePlot.setLabelGenerator(gen);
 		pieChart.setBorderVisible(false);
-		JVisualizer.CHART_THEME.apply(pieChart);
-		ChartUtils.saveChartAsPNG(new File("decision_types_pie.png"), pieChart, 1200, 1200);
+		JVisualizer.applyTheme(pieChart);
+		return output.write(pieChart, "decision_types_pie", 1200, 1200);
 	}
 
 	private void generateTagCountChart(RectangleInsets padding, JFreeChart chart) {
-		JVisualizer.CHART_THEME.apply(chart);
+		JVisualizer.applyTheme(chart);
 		chart.getLegend().setItemLabelPadding(padding);
 		CategoryPlot plot = chart.getCategoryPlot();
 		plot.getDomainAxis(0).setVisible(false);
@@ -1,74 +1,114 @@
 package nl.andrewl.jvisualizer.render;
 
-import com.google.gson.JsonObject;
+import nl.andrewl.jvisualizer.AnalysisData;
+import nl.andrewl.jvisualizer.ChartJob;
 import nl.andrewl.jvisualizer.ChartRenderer;
 import nl.andrewl.jvisualizer.JVisualizer;
+import nl.andrewl.jvisualizer.output.ChartOutput;
+import nl.andrewl.jvisualizer.pattern.PatternFormat;
+import nl.andrewl.jvisualizer.pattern.PatternTable;
 
-import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
 
+/**
+ * Exports a table of the most frequent patterns of each n-gram and
+ * co-occurrence analysis. Each section is streamed through a
+ * {@link PatternTable}, so only the kept patterns are held in memory.
+ */
 public class PatternRenderer implements ChartRenderer {
-	@Override
-	public void renderCharts(JsonObject data) throws Exception {
-		Path dir = Path.of("patterns");
-		Files.createDirectory(dir);
-		exportNGramData(dir.resolve("ngram_2_no-skip.txt"), data.getAsJsonObject("ngram_2_no-skip"), JVisualizer.AK_TAGS);
-		exportNGramData(dir.resolve("ngram_2_skip.txt"), data.getAsJsonObject("ngram_2_skip"), JVisualizer.AK_TAGS);
-		exportNGramData(dir.resolve("ngram_3_no-skip.txt"), data.getAsJsonObject("ngram_3_no-skip"), JVisualizer.AK_TAGS);
-		exportNGramData(dir.resolve("ngram_3_skip.txt"), data.getAsJsonObject("ngram_3_skip"), JVisualizer.AK_TAGS);
-		exportNGramData(dir.resolve("co-occurrence_2.txt"), data.getAsJsonObject("co-occurrence_2"), JVisualizer.AK_TAGS);
-		exportNGramData(dir.resolve("co-occurrence_3.txt"), data.getAsJsonObject("co-occurrence_3"), JVisualizer.AK_TAGS);
+	public static final List<String> SECTIONS = List.of(
+			"ngram_2_no-skip", "ngram_2_skip", "ngram_3_no-skip", "ngram_3_skip", "co-occurrence_2", "co-occurrence_3"
+	);
+
+	private final PatternFormat format;
+	private final int defaultLimit;
+	private final Map<String, Integer> limits;
+
+	/**
+	 * Creates a new pattern renderer.
+	 * @param format The format to write tables in.
+	 * @param defaultLimit The number of patterns in each table, or 0 for all.
+	 * @param limits The number of patterns in specific tables, by section name.
+	 */
+	public PatternRenderer(PatternFormat format, int defaultLimit, Map<String, Integer> limits) {
+		this.format = format;
+		this.defaultLimit = defaultLimit;
+		this.limits = new TreeMap<>(limits);
 	}
 
-	private void exportNGramData(Path file, JsonObject data, Collection<String> eligibleTags) throws IOException {
-		Map<List<String>, Integer> patternCounts = new HashMap<>();
-		int longestTagLength = -1;
-		for (var entry : data.entrySet()) {
-			JsonObject patternData = entry.getValue().getAsJsonObject();
-			int count = patternData.get("count").getAsInt();
-			List<String> tags = new ArrayList<>();
-			boolean shouldSkip = false; // Check if we should skip this entry based on if its pattern contains ineligible tags.
-			for (var tagJson : patternData.get("pattern").getAsJsonArray()) {
-				String tag = tagJson.getAsString().trim();
-				if (!eligibleTags.contains(tag)) {
-					shouldSkip = true;
-					break;
+	public PatternRenderer() {
+		this(PatternFormat.LATEX, 0, Map.of());
+	}
+
+	/**
+	 * Parses pattern table settings from command-line flags. Supported flags
+	 * are "--pattern-format=latex|csv|markdown", "--pattern-top=K", which
+	 * limits every table to its K most frequent patterns, and
+	 * "--pattern-top.SECTION=K", which does so for one table, like
+	 * "--pattern-top.ngram_3_skip=20".
+	 * @param args The arguments to parse.
+	 * @return The pattern renderer.
+	 */
+	public static PatternRenderer fromArgs(String[] args) {
+		PatternFormat format = PatternFormat.LATEX;
+		int defaultLimit = 0;
+		Map<String, Integer> limits = new HashMap<>();
+		for (var arg : args) {
+			if (arg.startsWith("--pattern-format=")) {
+				String name = arg.substring("--pattern-format=".length());
+				try {
+					format = PatternFormat.valueOf(name.toUpperCase(Locale.ROOT));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown pattern format \"" + name + "\". Use latex, csv or markdown.");
 				}
-				longestTagLength = Math.max(longestTagLength, tag.length());
-				tags.add(tag);
-			}
-			if (!shouldSkip) {
-				patternCounts.put(tags, count);
+			} else if (arg.startsWith("--pattern-top=")) {
+				defaultLimit = parseLimit(arg.substring("--pattern-top=".length()));
+			} else if (arg.startsWith("--pattern-top.")) {
+				String setting = arg.substring("--pattern-top.".length());
+				int idx = setting.indexOf('=');
+				if (idx < 0 || !SECTIONS.contains(setting.substring(0, idx))) {
+					throw new IllegalArgumentException("Invalid pattern table limit \"" + arg + "\". Use --pattern-top.SECTION=K, where SECTION is one of " + SECTIONS + ".");
+				}
+				limits.put(setting.substring(0, idx), parseLimit(setting.substring(idx + 1)));
 			}
 		}
+		return new PatternRenderer(format, defaultLimit, limits);
+	}
 
-		var sortedPatternCounts = new ArrayList<>(patternCounts.entrySet().stream()
-				.sorted(Comparator.comparingInt(Map.Entry::getValue)).toList());
-		Collections.reverse(sortedPatternCounts);
+	private static int parseLimit(String value) {
+		int limit = Integer.parseInt(value);
+		if (limit < 0) throw new IllegalArgumentException("Pattern table limit must be at least 0.");
+		return limit;
+	}
 
-		int paddingSize = longestTagLength + 1;
+	@Override
+	public String getSettings() {
+		return "format " + format + ", top " + defaultLimit + ", " + limits;
+	}
 
-		try (var out = new PrintWriter(Files.newBufferedWriter(file))) {
-			for (var entry : sortedPatternCounts) {
-				var tags = entry.getKey();
-				int count = entry.getValue();
-				StringBuilder sb = new StringBuilder();
-				for (int i = 0; i < tags.size(); i++) {
-					String tag = tags.get(i);
-					sb.append(tag).append(" ".repeat(paddingSize - tag.length()));
-					if (i < tags.size() - 1) {
-						sb.append(" $ \\rightarrow $ ");
-					}
+	@Override
+	public List<ChartJob> getJobs(AnalysisData data, ChartOutput output) {
+		Path dir = output.getDirectory().resolve("patterns");
+		List<ChartJob> jobs = new ArrayList<>(SECTIONS.size());
+		for (var section : SECTIONS) {
+			String name = "patterns/" + section + "." + format.getExtension();
+			Path file = output.getDirectory().resolve(name);
+			int limit = limits.getOrDefault(section, defaultLimit);
+			jobs.add(new ChartJob(name, section, () -> {
+				Files.createDirectories(dir);
+				PatternTable table = new PatternTable(JVisualizer.AK_TAGS, limit);
+				try (var reader = data.openSection(section)) {
+					table.read(reader);
 				}
-				out.print(sb);
-				out.print(" & ");
-				out.print(count);
-				out.print(" \\\\ \\hline\n");
-			}
+				try (var out = new PrintWriter(Files.newBufferedWriter(file))) {
+					format.write(out, table);
+				}
+				return file;
+			}));
 		}
+		return jobs;
 	}
 }
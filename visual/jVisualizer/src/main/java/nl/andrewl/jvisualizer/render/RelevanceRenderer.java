@@ -1,23 +1,29 @@
 package nl.andrewl.jvisualizer.render;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import nl.andrewl.jvisualizer.AnalysisData;
+import nl.andrewl.jvisualizer.ChartJob;
 import nl.andrewl.jvisualizer.ChartRenderer;
 import nl.andrewl.jvisualizer.JVisualizer;
+import nl.andrewl.jvisualizer.output.ChartOutput;
 import org.jfree.chart.ChartFactory;
-import org.jfree.chart.ChartUtils;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.renderer.xy.StandardXYBarPainter;
 import org.jfree.chart.renderer.xy.XYBarRenderer;
 import org.jfree.data.statistics.SimpleHistogramBin;
 import org.jfree.data.statistics.SimpleHistogramDataset;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
 
 public class RelevanceRenderer implements ChartRenderer {
 	@Override
-	public void renderCharts(JsonObject data) throws Exception {
-		var relevanceData = data.getAsJsonObject("relevance");
+	public List<ChartJob> getJobs(AnalysisData data, ChartOutput output) {
+		return List.of(new ChartJob("email_thread_relevance_hist", "relevance", () -> renderHistogram(output, data)));
+	}
+
+	private Path renderHistogram(ChartOutput output, AnalysisData data) throws IOException {
+		var relevanceData = data.section("relevance");
 		SimpleHistogramDataset relevancesDataset = new SimpleHistogramDataset("Relevance");
 		int binCount = 10;
 		double binSize = 1.0 / binCount;
@@ -25,17 +31,14 @@ public class RelevanceRenderer implements ChartRenderer {
 			boolean includeUpper = i == binCount - 1;
 			relevancesDataset.addBin(new SimpleHistogramBin(binSize * i, binSize * (i + 1), true, includeUpper));
 		}
-		JsonArray threadRelevancesJsonArray = relevanceData.getAsJsonArray("thread_relevances");
-		for (var relevance : threadRelevancesJsonArray) {
-			relevancesDataset.addObservation(relevance.getAsDouble());
-		}
+		relevancesDataset.addObservations(relevanceData.getDoubleArray("thread_relevances"));
 
 		JFreeChart chart = ChartFactory.createHistogram("Email Thread Relevance", "Relevance", "Frequency", relevancesDataset);
-		JVisualizer.CHART_THEME.apply(chart);
+		JVisualizer.applyTheme(chart);
 		XYBarRenderer relevancesBarRenderer = (XYBarRenderer) chart.getXYPlot().getRenderer();
 		relevancesBarRenderer.setBarPainter(new StandardXYBarPainter());
 		chart.getXYPlot().getDomainAxis().setLabel("");
 
-		ChartUtils.saveChartAsPNG(new File("email_thread_relevance_hist.png"), chart, 1000, 750);
+		return output.write(chart, "email_thread_relevance_hist", 1000, 750);
 	}
 }
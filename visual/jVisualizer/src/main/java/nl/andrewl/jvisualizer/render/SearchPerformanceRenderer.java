@@ -1,11 +1,12 @@
 package nl.andrewl.jvisualizer.render;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import nl.andrewl.jvisualizer.AnalysisData;
+import nl.andrewl.jvisualizer.ChartJob;
 import nl.andrewl.jvisualizer.ChartRenderer;
+import nl.andrewl.jvisualizer.DataSection;
 import nl.andrewl.jvisualizer.JVisualizer;
+import nl.andrewl.jvisualizer.output.ChartOutput;
 import org.jfree.chart.ChartFactory;
-import org.jfree.chart.ChartUtils;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.renderer.AbstractRenderer;
 import org.jfree.chart.renderer.xy.XYItemRenderer;
@@ -14,84 +15,91 @@ import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 
 import java.awt.*;
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class SearchPerformanceRenderer implements ChartRenderer {
+	/**
+	 * The queries to show, by label, in the order of their series.
+	 */
+	private static final Map<String, String> QUERIES = queries();
+
 	@Override
-	public void renderCharts(JsonObject data) throws Exception {
-		JsonObject componentsAndConnectors = data.getAsJsonObject("search_precision_components_and_connectors");
-		JsonObject decisionFactors = data.getAsJsonObject("search_precision_decision_factors");
-		JsonObject rationale = data.getAsJsonObject("search_precision_rationale");
-		JsonObject reusableSolutions = data.getAsJsonObject("search_precision_reusable_solutions");
-		Map<String, JsonObject> datas = Map.of(
-				"Components and Connectors", componentsAndConnectors,
-				"Decision Factors", decisionFactors,
-				"Rationale", rationale,
-				"Reusable Solutions", reusableSolutions
+	public List<ChartJob> getJobs(AnalysisData data, ChartOutput output) {
+		return List.of(
+				new ChartJob("all_tags_email_ndcg", List.copyOf(QUERIES.values()), () -> renderChart(
+						output,
+						"NDCG for All Tags, Individual Emails",
+						getCollection(data, "email_ndcg"),
+						"Result Count (N)",
+						"NDCG Measure",
+						"all_tags_email_ndcg"
+				)),
+				new ChartJob("all_tags_thread_ndcg", List.copyOf(QUERIES.values()), () -> renderChart(
+						output,
+						"NDCG for All Tags, Email Threads",
+						getCollection(data, "thread_ndcg"),
+						"Result Count (N)",
+						"NDCG Measure",
+						"all_tags_thread_ndcg"
+				)),
+				new ChartJob("all_tags_email_precision", List.copyOf(QUERIES.values()), () -> renderChart(
+						output,
+						"Precision for All Tags, Individual Emails",
+						getCollection(data, "email_precision"),
+						"Result Count (N)",
+						"Precision Measure",
+						"all_tags_email_precision"
+				)),
+				new ChartJob("all_tags_thread_precision", List.copyOf(QUERIES.values()), () -> renderChart(
+						output,
+						"Precision for All Tags, Email Threads",
+						getCollection(data, "thread_precision"),
+						"Result Count (N)",
+						"Precision Measure",
+						"all_tags_thread_precision"
+				))
 		);
+	}
 
-		XYSeriesCollection allTagsEmailNdcgCollection = new XYSeriesCollection();
-		XYSeriesCollection allTagsThreadNdcgCollection = new XYSeriesCollection();
-		XYSeriesCollection allTagsEmailPrecisionCollection = new XYSeriesCollection();
-		XYSeriesCollection allTagsThreadPrecisionCollection = new XYSeriesCollection();
-		for (var entry : datas.entrySet()) {
-			String name = entry.getKey();
-			JsonObject allTags = entry.getValue().getAsJsonObject("all_tags");
-			allTagsEmailNdcgCollection.addSeries(getJsonArraySeries(name, allTags.getAsJsonArray("email_ndcg")));
-			allTagsThreadNdcgCollection.addSeries(getJsonArraySeries(name, allTags.getAsJsonArray("thread_ndcg")));
-			allTagsEmailPrecisionCollection.addSeries(getJsonArraySeries(name, allTags.getAsJsonArray("email_precision")));
-			allTagsThreadPrecisionCollection.addSeries(getJsonArraySeries(name, allTags.getAsJsonArray("thread_precision")));
+	private XYSeriesCollection getCollection(AnalysisData data, String measure) throws IOException {
+		XYSeriesCollection collection = new XYSeriesCollection();
+		for (var entry : QUERIES.entrySet()) {
+			DataSection section = data.section(entry.getValue());
+			collection.addSeries(getArraySeries(entry.getKey(), section.getDoubleArray("all_tags", measure)));
 		}
-
-		renderChart(
-				"NDCG for All Tags, Individual Emails",
-				allTagsEmailNdcgCollection,
-				"Result Count (N)",
-				"NDCG Measure",
-				"all_tags_email_ndcg.png"
-		);
-		renderChart(
-				"NDCG for All Tags, Email Threads",
-				allTagsThreadNdcgCollection,
-				"Result Count (N)",
-				"NDCG Measure",
-				"all_tags_thread_ndcg.png"
-		);
-		renderChart(
-				"Precision for All Tags, Individual Emails",
-				allTagsEmailPrecisionCollection,
-				"Result Count (N)",
-				"Precision Measure",
-				"all_tags_email_precision.png"
-		);
-		renderChart(
-				"Precision for All Tags, Email Threads",
-				allTagsThreadPrecisionCollection,
-				"Result Count (N)",
-				"Precision Measure",
-				"all_tags_thread_precision.png"
-		);
+		return collection;
 	}
 
-	private void renderChart(String title, XYSeriesCollection collection, String xAxisLabel, String yAxisLabel, String filename) throws IOException {
+	private Path renderChart(ChartOutput output, String title, XYSeriesCollection collection, String xAxisLabel, String yAxisLabel, String filename) throws IOException {
 		JFreeChart chart = ChartFactory.createXYLineChart(title, xAxisLabel, yAxisLabel, collection);
-		JVisualizer.CHART_THEME.apply(chart);
+		JVisualizer.applyTheme(chart);
 		final RectangleInsets padding = new RectangleInsets(2, 2, 2, 40);
 		chart.getLegend().setItemLabelPadding(padding);
 		XYItemRenderer renderer = chart.getXYPlot().getRenderer();
 		renderer.setDefaultStroke(new BasicStroke(4.0f));
 		((AbstractRenderer) renderer).setAutoPopulateSeriesStroke(false);
-		ChartUtils.saveChartAsPNG(new File(filename), chart, 1500, 700);
+		return output.write(chart, filename, 1500, 700);
 	}
 
-	private XYSeries getJsonArraySeries(String name, JsonArray array) {
+	private XYSeries getArraySeries(String name, double[] values) {
 		XYSeries series = new XYSeries(name);
 		int n = 1;
-		for (var item : array) {
-			series.add(n++, item.getAsDouble());
+		for (var value : values) {
+			series.add(n++, value);
 		}
 		return series;
 	}
+
+	private static Map<String, String> queries() {
+		Map<String, String> queries = new LinkedHashMap<>();
+		queries.put("Components and Connectors", "search_precision_components_and_connectors");
+		queries.put("Decision Factors", "search_precision_decision_factors");
+		queries.put("Rationale", "search_precision_rationale");
+		queries.put("Reusable Solutions", "search_precision_reusable_solutions");
+		return queries;
+	}
 }